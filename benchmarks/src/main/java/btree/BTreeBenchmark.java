@@ -0,0 +1,77 @@
+package btree;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Steady state operations on an in memory BTree of size keys.
+//
+// every operation takes the next key from a stream drawn from the distribution, so the same stream is replayed for
+// every fork and parameter combination. the mixed workload updates existing keys, so the tree keeps its size.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BTreeBenchmark {
+    static final int STREAM_LENGTH = 1 << 20;
+    static final int SCAN_LENGTH = 100;
+    // one write for every this many operations of the mixed workload.
+    static final int WRITE_EVERY = 10;
+    static final long SEED = 42;
+
+    @Param({"2", "8", "32", "128"})
+    public int thresholdCount;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"1000000"})
+    public int size;
+
+    BTree<String, String> bTree;
+    String[] stream;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bTree = new BTree<>(thresholdCount);
+        // loaded in random order, so the nodes are as full as they would be after a run of ordinary inserts.
+        for (int index : KeyDistribution.shuffled(size, SEED)) {
+            bTree.insert(KeyDistribution.key(index), "data" + index);
+        }
+        stream = distribution.drawKeys(STREAM_LENGTH, size, SEED + 1);
+    }
+
+    String nextKey() {
+        String key = stream[next];
+        next = (next + 1) & (STREAM_LENGTH - 1);
+
+        return key;
+    }
+
+    @Benchmark
+    public String get() {
+        return bTree.get(nextKey());
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        BTree<String, String>.Cursor cursor = bTree.scan(nextKey(), null);
+        for (int i = 0; i < SCAN_LENGTH && cursor.hasNext(); i++) {
+            blackhole.consume(cursor.next());
+        }
+    }
+
+    @Benchmark
+    public void mixed(Blackhole blackhole) {
+        String key = nextKey();
+        if (next % WRITE_EVERY == 0) {
+            bTree.insert(key, "update");
+        } else {
+            blackhole.consume(bTree.get(key));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package btree;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Steady state operations on a BTreeDisk of size keys, bulk loaded into a temporary data file.
+//
+// with a WARM cache the buffer pool holds every node and is filled before measuring, so operations never fault.
+// with a COLD cache the pool only holds COLD_POOL_NODES nodes, so nearly every node below the top of the tree is
+// faulted in from the data file. the file itself will still be in the OS page cache, so cold here means paying for
+// the page read, decode and eviction, not for the device.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BTreeDiskBenchmark {
+    static final int STREAM_LENGTH = 1 << 20;
+    static final int SCAN_LENGTH = 100;
+    static final int WRITE_EVERY = 10;
+    static final int COLD_POOL_NODES = 16;
+    static final int PAGE_SIZE = 4096;
+    static final double FILL_FACTOR = 0.7;
+    static final long SEED = 42;
+
+    @Param({"8", "32"})
+    public int thresholdCount;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"WARM", "COLD"})
+    public String cache;
+
+    @Param({"200000"})
+    public int size;
+
+    Path directory;
+    BTreeDisk<String, String> bTreeDisk;
+    String[] stream;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("btree-bench");
+        List<BTreeDisk.KeyData<String, String>> sortedKeyData = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            sortedKeyData.add(new BTreeDisk.KeyData<>(KeyDistribution.key(i), "data" + i));
+        }
+        bTreeDisk = BulkLoader.load(directory.resolve("bench.data"), thresholdCount, PAGE_SIZE,
+                sortedKeyData.iterator(), FILL_FACTOR);
+
+        if (cache.equals("WARM")) {
+            bTreeDisk.setBufferPool(new BufferPool<>((int) bTreeDisk.getPageStore().getPageCount()));
+            try (BTreeDisk<String, String>.Cursor cursor = bTreeDisk.scan(null, null)) {
+                while (cursor.hasNext()) {
+                    cursor.next();
+                }
+            }
+        } else {
+            bTreeDisk.setBufferPool(new BufferPool<>(COLD_POOL_NODES));
+        }
+        stream = distribution.drawKeys(STREAM_LENGTH, size, SEED + 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bTreeDisk.close();
+        Files.deleteIfExists(WriteAheadLog.getLogFile(directory.resolve("bench.data")));
+        Files.deleteIfExists(directory.resolve("bench.data"));
+        Files.deleteIfExists(directory);
+    }
+
+    String nextKey() {
+        String key = stream[next];
+        next = (next + 1) & (STREAM_LENGTH - 1);
+
+        return key;
+    }
+
+    @Benchmark
+    public String get() throws IOException {
+        return bTreeDisk.get(nextKey());
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) throws IOException {
+        try (BTreeDisk<String, String>.Cursor cursor = bTreeDisk.scan(nextKey(), null)) {
+            for (int i = 0; i < SCAN_LENGTH && cursor.hasNext(); i++) {
+                blackhole.consume(cursor.next());
+            }
+        }
+    }
+
+    // updates of existing keys, the dirty nodes are written back as they are evicted.
+    @Benchmark
+    public void update() throws IOException {
+        bTreeDisk.insert(nextKey(), "update");
+    }
+
+    @Benchmark
+    public void mixed(Blackhole blackhole) throws IOException {
+        String key = nextKey();
+        if (next % WRITE_EVERY == 0) {
+            bTreeDisk.insert(key, "update");
+        } else {
+            blackhole.consume(bTreeDisk.get(key));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package btree;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Growing a tree from empty and shrinking it back, for BTree and BTreeDisk.
+//
+// a tree can only grow or shrink so far, so instead of timing single inserts and deletes each invocation inserts
+// (or deletes) a whole stream of size keys drawn from the distribution. a RANDOM or ZIPFIAN stream repeats keys, the
+// repeats turn into updates (or misses), which is part of what the distribution measures.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BuildBenchmark {
+    static final long SEED = 42;
+    static final int PAGE_SIZE = 4096;
+
+    @Param({"2", "8", "32"})
+    public int thresholdCount;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"100000"})
+    public int size;
+
+    String[] stream;
+    BTree<String, String> bTree;
+    Path directory;
+    BTreeDisk<String, String> bTreeDisk;
+
+    @Setup(Level.Trial)
+    public void setUpStream() throws IOException {
+        stream = distribution.drawKeys(size, size, SEED);
+        directory = Files.createTempDirectory("btree-bench");
+    }
+
+    // a fresh tree of the kind the benchmark uses for every invocation, full for the deletes and empty for the inserts.
+    @Setup(Level.Invocation)
+    public void setUpTree(BenchmarkParams params) throws IOException {
+        String benchmark = params.getBenchmark();
+        boolean full = benchmark.toLowerCase().endsWith("delete");
+
+        if (benchmark.contains(".disk")) {
+            bTreeDisk = BTreeDisk.create(directory.resolve("build.data"), thresholdCount, PAGE_SIZE);
+            if (full) {
+                for (int index : KeyDistribution.shuffled(size, SEED)) {
+                    bTreeDisk.insert(KeyDistribution.key(index), "data" + index);
+                }
+            }
+        } else {
+            bTree = new BTree<>(thresholdCount);
+            if (full) {
+                for (int index : KeyDistribution.shuffled(size, SEED)) {
+                    bTree.insert(KeyDistribution.key(index), "data" + index);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownTree() throws IOException {
+        if (bTreeDisk != null) {
+            bTreeDisk.close();
+            bTreeDisk = null;
+        }
+        bTree = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(directory.resolve("build.data"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public BTree<String, String> insert() {
+        for (String key : stream) {
+            bTree.insert(key, "data");
+        }
+        return bTree;
+    }
+
+    @Benchmark
+    public BTree<String, String> delete() {
+        for (String key : stream) {
+            bTree.delete(key);
+        }
+        return bTree;
+    }
+
+    @Benchmark
+    public BTreeDisk<String, String> diskInsert() throws IOException {
+        for (String key : stream) {
+            bTreeDisk.insert(key, "data");
+        }
+        return bTreeDisk;
+    }
+
+    @Benchmark
+    public BTreeDisk<String, String> diskDelete() throws IOException {
+        for (String key : stream) {
+            bTreeDisk.delete(key);
+        }
+        return bTreeDisk;
+    }
+}
@@ -0,0 +1,112 @@
+package btree;
+
+import java.util.Random;
+
+// How the benchmarks pick the keys they insert, look up and delete.
+//
+// keys are fixed width so that their string order is their numeric order, which makes a sequential stream walk the
+// tree left to right.
+public enum KeyDistribution {
+    // 0, 1, 2, ... wrapping around at the end of the key space.
+    SEQUENTIAL,
+    // uniformly random over the key space, so a stream as long as the key space repeats some keys and misses others.
+    RANDOM,
+    // a few keys take most of the accesses, the way real request streams tend to.
+    ZIPFIAN;
+
+    static final double ZIPFIAN_THETA = 0.99;
+
+    static String key(int index) {
+        return String.format("key%09d", index);
+    }
+
+    // count key indexes in [0, keySpace) drawn from this distribution.
+    int[] draw(int count, int keySpace, long seed) {
+        Random random = new Random(seed);
+        int[] indexes = new int[count];
+
+        switch (this) {
+            case SEQUENTIAL:
+                for (int i = 0; i < count; i++) {
+                    indexes[i] = i % keySpace;
+                }
+                break;
+            case RANDOM:
+                for (int i = 0; i < count; i++) {
+                    indexes[i] = random.nextInt(keySpace);
+                }
+                break;
+            case ZIPFIAN:
+                // the generator from Gray et al, "Quickly Generating Billion-Record Synthetic Databases", as used
+                // by YCSB. rank 0 is the hottest key.
+                double zetaN = zeta(keySpace, ZIPFIAN_THETA);
+                double alpha = 1 / (1 - ZIPFIAN_THETA);
+                double eta = (1 - Math.pow(2.0 / keySpace, 1 - ZIPFIAN_THETA)) /
+                        (1 - zeta(2, ZIPFIAN_THETA) / zetaN);
+                for (int i = 0; i < count; i++) {
+                    double u = random.nextDouble();
+                    double uz = u * zetaN;
+                    long rank;
+                    if (uz < 1) {
+                        rank = 0;
+                    } else if (uz < 1 + Math.pow(0.5, ZIPFIAN_THETA)) {
+                        rank = 1;
+                    } else {
+                        rank = (long) (keySpace * Math.pow(eta * u - eta + 1, alpha));
+                    }
+                    // scrambled, so the hot keys are spread over the tree instead of sharing its first leaves.
+                    indexes[i] = (int) Math.floorMod(scramble(rank), (long) keySpace);
+                }
+                break;
+        }
+
+        return indexes;
+    }
+
+    // every index in [0, count) once, in random order.
+    static int[] shuffled(int count, long seed) {
+        Random random = new Random(seed);
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = i;
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int index = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = index;
+        }
+
+        return indexes;
+    }
+
+    String[] drawKeys(int count, int keySpace, long seed) {
+        int[] indexes = draw(count, keySpace, seed);
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(indexes[i]);
+        }
+
+        return keys;
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+
+        return sum;
+    }
+
+    // 64 bit FNV-1a over the bytes of the rank.
+    private static long scramble(long value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash ^= (value >>> (8 * i)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,85 @@
+package btree;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Write throughput of a ShardedBTree of in memory BTrees with several writer threads.
+//
+// with a single shard every writer goes through the one tree's write latch, which is what a single BTree shared
+// between threads would be. more shards let the writers work side by side. the range split keys cut the key space
+// evenly, so the shards only stay evenly loaded if the distribution is even over the key space.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ShardedBTreeBenchmark {
+    static final int STREAM_LENGTH = 1 << 20;
+    static final int THRESHOLD_COUNT = 32;
+    static final long SEED = 42;
+
+    @Param({"1", "4", "16"})
+    public int shards;
+
+    @Param({"RANGE", "HASH"})
+    public ShardedBTree.Partitioning partitioning;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"1000000"})
+    public int size;
+
+    ShardedBTree<String, String> shardedBTree;
+
+    // every writer replays a stream of its own.
+    @State(Scope.Thread)
+    public static class Writer {
+        String[] stream;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(ShardedBTreeBenchmark benchmark, ThreadParams threadParams) {
+            stream = benchmark.distribution.drawKeys(STREAM_LENGTH, benchmark.size,
+                    SEED + threadParams.getThreadIndex());
+        }
+
+        String nextKey() {
+            String key = stream[next];
+            next = (next + 1) & (STREAM_LENGTH - 1);
+
+            return key;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<ShardedBTree.Shard<String, String>> trees = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            trees.add(ShardedBTree.shardOf(new BTree<>(THRESHOLD_COUNT)));
+        }
+
+        if (partitioning == ShardedBTree.Partitioning.RANGE) {
+            List<String> splitKeys = new ArrayList<>();
+            for (int i = 1; i < shards; i++) {
+                splitKeys.add(KeyDistribution.key((int) ((long) size * i / shards)));
+            }
+            shardedBTree = ShardedBTree.byRange(trees, splitKeys, Comparator.naturalOrder());
+        } else {
+            shardedBTree = ShardedBTree.byHash(trees, Comparator.naturalOrder());
+        }
+    }
+
+    @Benchmark
+    public void insert(Writer writer) throws Exception {
+        shardedBTree.insert(writer.nextKey(), "data");
+    }
+}
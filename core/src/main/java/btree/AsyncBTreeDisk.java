@@ -0,0 +1,259 @@
+package btree;
+
+import lombok.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// A CompletableFuture front end to a BTreeDisk, every operation on the tree runs on a single writer thread.
+//
+// callers only queue a request and wait on its future, which parks a virtual thread instead of pinning its carrier
+// the way blocking on the tree's monitor or its file I/O would. the writer takes whatever has queued up since its
+// last round, up to maxBatch requests, and runs them in the order they were queued. a run of puts goes into the
+// tree as a single putAll and waits for the write ahead log once, a run of gets is looked up with a single getAll,
+// so the more callers there are the bigger the batches get.
+//
+// futures are completed on the writer thread, so stages chained on them should use the async variants
+// (thenApplyAsync and so on) or they will hold up every other request.
+@Getter @Setter
+public class AsyncBTreeDisk<K, V> implements AutoCloseable {
+    static final int DEFAULT_MAX_BATCH = 1024;
+
+    enum Type {
+        GET,
+        PUT,
+        DELETE,
+        // anything else, run on its own.
+        TASK,
+        // queued by close(), the writer stops once it gets to it.
+        STOP
+    }
+
+    interface Task<K, V> {
+        Object run(BTreeDisk<K, V> bTreeDisk) throws IOException;
+    }
+
+    @Getter @Setter @AllArgsConstructor
+    static class Request<K, V> {
+        Type type;
+        K key;
+        V data;
+        Task<K, V> task;
+        CompletableFuture<Object> future;
+    }
+
+    BTreeDisk<K, V> bTreeDisk;
+    int maxBatch;
+    LinkedBlockingQueue<Request<K, V>> queue = new LinkedBlockingQueue<>();
+    volatile boolean closed;
+    Thread writer;
+
+    AsyncBTreeDisk(BTreeDisk<K, V> bTreeDisk) {
+        this(bTreeDisk, DEFAULT_MAX_BATCH);
+    }
+
+    AsyncBTreeDisk(BTreeDisk<K, V> bTreeDisk, int maxBatch) {
+        this.bTreeDisk = bTreeDisk;
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::write, "btree-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // opens the tree in the data file on the writer thread, so recovering it from its log does not block the caller.
+    static <K, V> CompletableFuture<AsyncBTreeDisk<K, V>> open(Path dataFile, Comparator<? super K> comparator,
+                                                               Codec<K> keyCodec, Codec<V> valueCodec) {
+        AsyncBTreeDisk<K, V> asyncBTreeDisk = new AsyncBTreeDisk<>(null);
+        CompletableFuture<AsyncBTreeDisk<K, V>> opened = asyncBTreeDisk.submitTask(bTreeDisk -> {
+            asyncBTreeDisk.setBTreeDisk(BTreeDisk.deserializeFromDisk(dataFile, comparator, keyCodec, valueCodec));
+            return asyncBTreeDisk;
+        });
+        // a tree that failed to open is of no use, so its writer is stopped.
+        opened.whenComplete((result, e) -> {
+            if (e != null) {
+                asyncBTreeDisk.stop();
+            }
+        });
+
+        return opened;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> CompletableFuture<R> submit(Type type, K key, V data, Task<K, V> task) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        Request<K, V> request = new Request<>(type, key, data, task, future);
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("The tree is closed."));
+            return (CompletableFuture<R>) future;
+        }
+
+        queue.add(request);
+        // a close that raced with this could have stopped the writer already, if so whichever of the two takes the
+        // request back out of the queue fails it.
+        if (closed && queue.remove(request)) {
+            future.completeExceptionally(new IllegalStateException("The tree is closed."));
+        }
+
+        return (CompletableFuture<R>) future;
+    }
+
+    public CompletableFuture<V> getAsync(K key) {
+        return submit(Type.GET, key, null, null);
+    }
+
+    // completes once the entry is in the tree, and with a write ahead log once it is durable.
+    public CompletableFuture<Void> putAsync(K key, V data) {
+        return submit(Type.PUT, key, data, null);
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(K key) {
+        return submit(Type.DELETE, key, null, null);
+    }
+
+    // up to limit entries in [fromKey, toKey] in order, a null bound leaves that end open. the scan runs on the
+    // writer thread from start to end, so the limit bounds how long it holds up the requests behind it.
+    public CompletableFuture<List<BTreeDisk.KeyData<K, V>>> scanAsync(K fromKey, K toKey, int limit) {
+        return submitTask(bTreeDisk -> {
+            List<BTreeDisk.KeyData<K, V>> entries = new ArrayList<>();
+            try (BTreeDisk<K, V>.Cursor cursor = bTreeDisk.scan(fromKey, toKey)) {
+                while (entries.size() < limit && cursor.hasNext()) {
+                    // the entries a cursor returns are the tree's own, and an update changes them in place.
+                    entries.add(cursor.next().copy());
+                }
+            }
+            return entries;
+        });
+    }
+
+    public CompletableFuture<Void> checkpointAsync() {
+        return submitTask(bTreeDisk -> {
+            bTreeDisk.serializeToDisk();
+            return null;
+        });
+    }
+
+    // runs the task on the writer thread, it has the tree to itself while it runs.
+    <R> CompletableFuture<R> submitTask(Task<K, V> task) {
+        return submit(Type.TASK, null, null, task);
+    }
+
+    private void write() {
+        List<Request<K, V>> requests = new ArrayList<>();
+        try {
+            while (true) {
+                requests.add(queue.take());
+                queue.drainTo(requests, maxBatch - 1);
+
+                int i = 0;
+                while (i < requests.size()) {
+                    Request<K, V> request = requests.get(i);
+                    if (request.getType() == Type.STOP) {
+                        // what follows the stop raced with close(), the submitters leave failing it to the writer.
+                        return;
+                    }
+
+                    // the run of requests of the same type from here on.
+                    int end = i + 1;
+                    if (request.getType() == Type.GET || request.getType() == Type.PUT) {
+                        while (end < requests.size() && requests.get(end).getType() == request.getType()) {
+                            end++;
+                        }
+                    }
+                    run(requests.subList(i, end));
+                    i = end;
+                }
+                requests.clear();
+            }
+        } catch (InterruptedException e) {
+            // nothing more will run, the requests still waiting are failed below.
+        } finally {
+            // however the writer ends, a stop, an interrupt or an error out of the tree, nothing is left waiting on
+            // it and nothing more is queued. failing a request that already completed does not change it.
+            closed = true;
+            fail(requests);
+            failQueued();
+        }
+    }
+
+    private void run(List<Request<K, V>> run) {
+        try {
+            switch (run.get(0).getType()) {
+                case GET: {
+                    List<K> keys = new ArrayList<>(run.size());
+                    for (Request<K, V> request : run) {
+                        keys.add(request.getKey());
+                    }
+                    List<V> values = bTreeDisk.getAll(keys);
+                    for (int i = 0; i < run.size(); i++) {
+                        run.get(i).getFuture().complete(values.get(i));
+                    }
+                    break;
+                }
+                case PUT: {
+                    List<BTreeDisk.KeyData<K, V>> entries = new ArrayList<>(run.size());
+                    for (Request<K, V> request : run) {
+                        entries.add(new BTreeDisk.KeyData<>(request.getKey(), request.getData()));
+                    }
+                    bTreeDisk.putAll(entries);
+                    for (Request<K, V> request : run) {
+                        request.getFuture().complete(null);
+                    }
+                    break;
+                }
+                case DELETE: {
+                    Request<K, V> request = run.get(0);
+                    request.getFuture().complete(bTreeDisk.delete(request.getKey()));
+                    break;
+                }
+                default: {
+                    Request<K, V> request = run.get(0);
+                    request.getFuture().complete(request.getTask().run(bTreeDisk));
+                }
+            }
+        } catch (Throwable e) {
+            // a batch fails as a whole, a putAll that fails part way leaves behind some of its entries, just like
+            // the same puts one by one would have.
+            for (Request<K, V> request : run) {
+                request.getFuture().completeExceptionally(e);
+            }
+            // after an error the tree cannot be trusted anymore, so the writer stops.
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+
+    private void failQueued() {
+        List<Request<K, V>> requests = new ArrayList<>();
+        queue.drainTo(requests);
+        fail(requests);
+    }
+
+    private void fail(List<Request<K, V>> requests) {
+        for (Request<K, V> request : requests) {
+            if (request.getFuture() != null) {
+                request.getFuture().completeExceptionally(new IllegalStateException("The tree is closed."));
+            }
+        }
+    }
+
+    private void stop() {
+        closed = true;
+        queue.add(new Request<>(Type.STOP, null, null, null, null));
+    }
+
+    // runs the requests queued so far and stops the writer. the tree itself stays open, checkpointing and closing
+    // it are up to the caller.
+    @Override
+    public void close() {
+        stop();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package btree;
+
+import lombok.*;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A B+tree variant of BTree.
+//
+// values only live in the leaves, internal nodes only hold separator keys, so a delete never has to pull a
+// predecessor or successor up into an internal node. child i of an internal node holds the keys k with
+// separator[i - 1] <= k < separator[i]. the leaves are chained with next and prev links, so a range scan finds its
+// first leaf once and then walks the leaf level without going back up through the internal nodes.
+//
+// since a separator only has to route, a leaf split hands up the shortest key that still falls between the two
+// leaves rather than the whole first key of the right leaf, which keeps long shared-prefix keys out of the internal
+// nodes.
+//
+// like BTree, splits happen on the way down during insert and merges or borrows happen on the way down during delete,
+// so every node is fixed up before it is entered and nothing ever has to walk back up.
+@Getter @Setter
+public class BPlusTree {
+    public int lowerThreshold;
+    public int higherThreshold;
+    public Node root;
+    public boolean debugging;
+    // bumped by every insert and delete, so a cursor can tell the tree changed under it.
+    int modificationCount;
+
+    @Getter @Setter @AllArgsConstructor
+    static class KeyData {
+        String key;
+        String data;
+
+        @Override
+        public String toString() {
+            return  key + ":" + data;
+        }
+    }
+
+    // no need to make this static.
+    @Getter @Setter
+    class Node {
+        // the entries of a leaf node.
+        List<KeyData> keyDataList = new ArrayList<KeyData>();
+        // the separators and children of an internal node.
+        List<String> keys = new ArrayList<String>();
+        List<Node> childNodes = new ArrayList<Node>();
+        // the leaf level is a doubly linked list in key order.
+        Node next;
+        Node prev;
+        boolean leafNode;
+
+        Node(boolean leafNode) {
+            this.leafNode = leafNode;
+        }
+
+        // entries for a leaf, separators for an internal node, this is what the thresholds apply to.
+        int getSize() {
+            return isLeafNode() ? keyDataList.size() : keys.size();
+        }
+
+        boolean isAtHighThreshold() {
+            return getSize() == getHigherThreshold();
+        }
+
+        boolean isAtLowThreshold() {
+            return getSize() == getLowerThreshold();
+        }
+
+        Node getChild(int index) {
+            return childNodes.get(index);
+        }
+
+        String getFirstKey() {
+            return isLeafNode() ? keyDataList.get(0).getKey() : keys.get(0);
+        }
+
+        String getLastKey() {
+            return isLeafNode() ? keyDataList.get(keyDataList.size() - 1).getKey() : keys.get(keys.size() - 1);
+        }
+
+        // binary search over a leaf's entries, returns the index if found, else (-(insertion point) - 1).
+        int searchIndex(String key) {
+            int low = 0;
+            int high = keyDataList.size() - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = keyDataList.get(mid).getKey().compareTo(key);
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        // the child of an internal node whose range holds the key, that is the number of separators <= key.
+        int getChildIndex(String key) {
+            int low = 0;
+            int high = keys.size() - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (keys.get(mid).compareTo(key) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            return low;
+        }
+
+        // a leaf keeps the lower half of its entries, the sibling's first key is copied up as the separator.
+        // an internal node keeps the lower half of its separators, the median separator is moved up.
+        String split(Node sibling) {
+            int size = getSize();
+            int mid = size / 2;
+
+            if (isLeafNode()) {
+                List<KeyData> rightKeyData = keyDataList.subList(mid, size);
+                sibling.getKeyDataList().addAll(rightKeyData);
+                rightKeyData.clear();
+
+                sibling.setNext(next);
+                sibling.setPrev(this);
+                if (next != null) {
+                    next.setPrev(sibling);
+                }
+                setNext(sibling);
+
+                return shortestSeparator(getLastKey(), sibling.getFirstKey());
+            }
+
+            String separator = keys.get(mid);
+            List<String> rightKeys = keys.subList(mid + 1, size);
+            sibling.getKeys().addAll(rightKeys);
+            rightKeys.clear();
+            keys.remove(mid);
+
+            List<Node> rightChildNodes = childNodes.subList(mid + 1, size + 1);
+            sibling.getChildNodes().addAll(rightChildNodes);
+            rightChildNodes.clear();
+
+            return separator;
+        }
+
+        // moves the last entry (or child) of the left sibling at index - 1 into the child at index.
+        void borrowFromLeft(int index) {
+            Node child = getChild(index);
+            Node left = getChild(index - 1);
+
+            if (child.isLeafNode()) {
+                child.getKeyDataList().add(0, left.getKeyDataList().remove(left.getSize() - 1));
+                keys.set(index - 1, shortestSeparator(left.getLastKey(), child.getFirstKey()));
+            } else {
+                child.getKeys().add(0, keys.get(index - 1));
+                child.getChildNodes().add(0, left.getChildNodes().remove(left.getChildNodes().size() - 1));
+                keys.set(index - 1, left.getKeys().remove(left.getSize() - 1));
+            }
+        }
+
+        // moves the first entry (or child) of the right sibling at index + 1 into the child at index.
+        void borrowFromRight(int index) {
+            Node child = getChild(index);
+            Node right = getChild(index + 1);
+
+            if (child.isLeafNode()) {
+                child.getKeyDataList().add(right.getKeyDataList().remove(0));
+                keys.set(index, shortestSeparator(child.getLastKey(), right.getFirstKey()));
+            } else {
+                child.getKeys().add(keys.get(index));
+                child.getChildNodes().add(right.getChildNodes().remove(0));
+                keys.set(index, right.getKeys().remove(0));
+            }
+        }
+
+        // folds the child at index + 1 into the child at index, dropping the separator between them.
+        void mergeSubTrees(int index) {
+            Node node = getChild(index);
+            Node sibling = getChild(index + 1);
+            String separator = keys.remove(index);
+
+            if (node.isLeafNode()) {
+                node.getKeyDataList().addAll(sibling.getKeyDataList());
+                node.setNext(sibling.getNext());
+                if (sibling.getNext() != null) {
+                    sibling.getNext().setPrev(node);
+                }
+            } else {
+                node.getKeys().add(separator);
+                node.getKeys().addAll(sibling.getKeys());
+                node.getChildNodes().addAll(sibling.getChildNodes());
+            }
+
+            // delete the sibling and zero its references.
+            sibling.getKeyDataList().clear();
+            sibling.getKeys().clear();
+            sibling.getChildNodes().clear();
+            sibling.setNext(null);
+            sibling.setPrev(null);
+            childNodes.remove(index + 1);
+
+            if (this == getRoot() && keys.isEmpty()) {
+                // root is now reduced to a single child, so instead use that child as new root
+                setRoot(node);
+            }
+        }
+    }
+
+    // walks the entries between fromKey and toKey (both inclusive, null for an open end) along the leaf chain.
+    class Cursor implements Iterator<KeyData> {
+        String fromKey;
+        String toKey;
+        boolean reverse;
+        int expectedModificationCount;
+
+        Node leaf;
+        int index;
+
+        Cursor(String fromKey, String toKey, boolean reverse) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.reverse = reverse;
+            this.expectedModificationCount = getModificationCount();
+
+            String bound = reverse ? toKey : fromKey;
+            leaf = findLeaf(bound, reverse);
+            if (leaf == null) {
+                return;
+            }
+
+            if (bound == null) {
+                index = reverse ? leaf.getSize() - 1 : 0;
+            } else {
+                int found = leaf.searchIndex(bound);
+                int insertion = -found - 1;
+                index = (found >= 0) ? found : (reverse ? insertion - 1 : insertion);
+            }
+            skipExhaustedLeaves();
+        }
+
+        private void skipExhaustedLeaves() {
+            while (leaf != null && (index < 0 || index >= leaf.getSize())) {
+                leaf = reverse ? leaf.getPrev() : leaf.getNext();
+                if (leaf != null) {
+                    index = reverse ? leaf.getSize() - 1 : 0;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (leaf == null) {
+                return false;
+            }
+            // a write could have moved the entries out from under index, so it is checked before the leaf is read.
+            if (expectedModificationCount != getModificationCount()) {
+                throw new ConcurrentModificationException();
+            }
+
+            String key = leaf.getKeyDataList().get(index).getKey();
+            if (reverse ? (fromKey != null && key.compareTo(fromKey) < 0) : (toKey != null && key.compareTo(toKey) > 0)) {
+                leaf = null;
+            }
+
+            return leaf != null;
+        }
+
+        @Override
+        public KeyData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            KeyData keyData = leaf.getKeyDataList().get(index);
+            index += reverse ? -1 : 1;
+            skipExhaustedLeaves();
+
+            return keyData;
+        }
+    }
+
+    // the shortest prefix of upper that is still greater than lower, so lower < separator <= upper.
+    // lower < upper, so they differ at some position within upper, and the prefix up to and including it does.
+    static String shortestSeparator(String lower, String upper) {
+        int length = 0;
+        int limit = Math.min(lower.length(), upper.length());
+        while (length < limit && lower.charAt(length) == upper.charAt(length)) {
+            length++;
+        }
+
+        return upper.substring(0, length + 1);
+    }
+
+    BPlusTree(int thresholdCount) {
+        setLowerThreshold(thresholdCount - 1);
+        setHigherThreshold(2 * thresholdCount - 1);
+    }
+
+    // the leaf whose range holds the key, or the first (last) leaf for a null key.
+    Node findLeaf(String key) {
+        Node node = getRoot();
+        if (node == null) {
+            return null;
+        }
+
+        while (!node.isLeafNode()) {
+            int index = (key != null) ? node.getChildIndex(key) : 0;
+            node = node.getChild(index);
+        }
+
+        return node;
+    }
+
+    // like findLeaf, except that a null key finds the last leaf when last is set.
+    Node findLeaf(String key, boolean last) {
+        if (key != null || !last) {
+            return findLeaf(key);
+        }
+
+        Node node = getRoot();
+        while (node != null && !node.isLeafNode()) {
+            node = node.getChild(node.getChildNodes().size() - 1);
+        }
+
+        return node;
+    }
+
+    public String get(String key) {
+        Node leaf = findLeaf(key);
+        if (leaf == null) {
+            return null;
+        }
+
+        int index = leaf.searchIndex(key);
+        return (index >= 0) ? leaf.getKeyDataList().get(index).getData() : null;
+    }
+
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    Node connectNodeToNewRoot(Node node) {
+        Node parent = new Node(false);
+        // we need to reset root here.
+        setRoot(parent);
+        parent.getChildNodes().add(node);
+
+        return parent;
+    }
+
+    void insert(Node node, Node parent, int nodeIndex, KeyData insertKeyData) {
+        while (true) {
+            if (node.isAtHighThreshold()) {
+                // if the node is the root, create a new root and make node its child.
+                if (parent == null) {
+                    parent = connectNodeToNewRoot(node);
+                    nodeIndex = 0;
+                }
+
+                // split into 2 and attach the sibling and its separator to the parent, which has room since it was
+                // split on the way down if it was full.
+                Node sibling = new Node(node.isLeafNode());
+                String separator = node.split(sibling);
+                parent.getKeys().add(nodeIndex, separator);
+                parent.getChildNodes().add(nodeIndex + 1, sibling);
+
+                if (insertKeyData.getKey().compareTo(separator) >= 0) {
+                    node = sibling;
+                    nodeIndex++;
+                }
+            }
+
+            if (node.isLeafNode()) {
+                int index = node.searchIndex(insertKeyData.getKey());
+                if (index >= 0) {
+                    // for duplicates, we just replace current value.
+                    node.getKeyDataList().get(index).setData(insertKeyData.getData());
+                } else {
+                    node.getKeyDataList().add(-index - 1, insertKeyData);
+                }
+                return;
+            }
+
+            parent = node;
+            nodeIndex = node.getChildIndex(insertKeyData.getKey());
+            node = node.getChild(nodeIndex);
+        }
+    }
+
+    void insert(String key, String data) {
+        KeyData keyData = new KeyData(key, data);
+        modificationCount++;
+
+        if (getRoot() == null) {
+            Node node = new Node(true);
+            node.getKeyDataList().add(keyData);
+            setRoot(node);
+        } else {
+            insert(getRoot(), null, -1, keyData);
+        }
+    }
+
+    boolean delete(String key) {
+        Node node = getRoot();
+        if (node == null) {
+            return false;
+        }
+        modificationCount++;
+
+        // every node other than root is pre-vetted for minimum threshold.
+        while (!node.isLeafNode()) {
+            int index = node.getChildIndex(key);
+            Node child = node.getChild(index);
+
+            if (child.isAtLowThreshold()) {
+                // borrow from a sibling that can spare an entry, else merge with one.
+                if (index > 0 && !node.getChild(index - 1).isAtLowThreshold()) {
+                    node.borrowFromLeft(index);
+                } else if (index < node.getChildNodes().size() - 1 && !node.getChild(index + 1).isAtLowThreshold()) {
+                    node.borrowFromRight(index);
+                } else if (index < node.getChildNodes().size() - 1) {
+                    node.mergeSubTrees(index);
+                } else {
+                    // the merged node is always the left one.
+                    node.mergeSubTrees(index - 1);
+                    child = node.getChild(index - 1);
+                }
+            }
+
+            node = child;
+        }
+
+        // if the search has concluded in a leaf, its a simple yes/no answer.
+        int index = node.searchIndex(key);
+        if (index < 0) {
+            return false;
+        }
+
+        node.getKeyDataList().remove(index);
+        // if this is the last key deleted from a root leaf, then the tree is empty.
+        if (node == getRoot() && node.getSize() == 0) {
+            setRoot(null);
+        }
+
+        return true;
+    }
+
+    // ordered range scan over [fromKey, toKey], a null bound leaves that end open.
+    public Cursor scan(String fromKey, String toKey) {
+        return new Cursor(fromKey, toKey, false);
+    }
+
+    public Cursor scanReverse(String fromKey, String toKey) {
+        return new Cursor(fromKey, toKey, true);
+    }
+
+    public Stream<KeyData> stream(String fromKey, String toKey) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scan(fromKey, toKey),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    void inorder() {
+        for (Node leaf = findLeaf(null); leaf != null; leaf = leaf.getNext()) {
+            for (KeyData keyData : leaf.getKeyDataList()) {
+                System.out.println(keyData);
+            }
+        }
+    }
+
+    public static void main(String args[]) {
+        BPlusTree bPlusTree = new BPlusTree(2);
+
+        for (int i = 0; i < 500000; i++) {
+            bPlusTree.insert("key" + i, "data" + i);
+        }
+        for (int i = 0; i < 500000; i++) {
+            bPlusTree.delete("key" + i);
+        }
+        bPlusTree.inorder();
+    }
+}
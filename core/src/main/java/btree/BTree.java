@@ -0,0 +1,873 @@
+package btree;
+
+import lombok.*;
+
+import java.security.Key;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+@Getter @Setter
+public class BTree<K, V> {
+    public int lowerThreshold;
+    public int higherThreshold;
+    public Node root;
+    Comparator<? super K> comparator;
+    public boolean debugging;
+    // bumped by every insert and delete, so a cursor can tell the tree changed under it.
+    int modificationCount;
+    // operation counters and latencies, an in memory tree never faults or touches a file so those stay at 0.
+    TreeMetrics metrics = new TreeMetrics();
+
+    @Getter @Setter @AllArgsConstructor
+    static class KeyData<K, V> {
+        K key;
+        V data;
+
+        @Override
+        public String toString() {
+            return  key + ":" + data;
+        }
+
+        public KeyData<K, V> copy() {
+            return new KeyData<>(key, data);
+        }
+    }
+
+    // no need to make this static.
+    @Getter @Setter
+    class Node {
+        List<KeyData<K, V>> keyDataList = new ArrayList<>();
+        List<Node> childNodes = new ArrayList<Node>();
+
+        Boolean isLeafNode() {
+            return childNodes.size() == 0;
+        }
+
+        int getKeyDataListSize() {
+            return getKeyDataList().size();
+        }
+
+        int getChildNodesSize() {
+            return getChildNodes().size();
+        }
+
+        boolean isKeyDataAtHighThreshold() {
+            return getKeyDataListSize() == getHigherThreshold();
+        }
+
+        boolean isKeyDataAtLowThreshold() {
+            return getKeyDataListSize() == getLowerThreshold();
+        }
+
+        KeyData<K, V> getKeyData(int index) {
+            return getKeyDataList().get(index);
+        }
+
+        KeyData<K, V> getFirstKeyData() {
+            return getKeyData(0);
+        }
+
+        KeyData<K, V> getLastKeyData() {
+            return getKeyData(keyDataList.size() - 1);
+        }
+
+        String getPrintableKeyData() {
+            StringBuilder stringBuilder = new StringBuilder();
+            for (KeyData<K, V> keyData: getKeyDataList()) {
+                stringBuilder.append(keyData + ", ");
+            }
+
+            return stringBuilder.toString();
+        }
+        
+        Node getChild(int index) {
+            List<Node> childNodesList = getChildNodes();
+
+            return childNodesList.size() > 0 ? childNodesList.get(index) : null;
+        }
+
+        Node getSibling(int index) {
+            if (debugging && getChildNodesSize() < 2) {
+                System.out.println("get child nodes size - " + getChildNodesSize());
+            }
+            return (index < getChildNodesSize() - 1) ? getChild(index + 1) : getChild(index - 1);
+        }
+
+        Node deleteAndReturnChild(int index) {
+            List<Node> childNodesList = getChildNodes();
+            Node child = childNodesList.get(index);
+            childNodesList.remove(index);
+
+            return child;
+        }
+
+        Node deleteAndReturnFirstChild() {
+            return deleteAndReturnChild(0);
+        }
+
+        Node deleteAndReturnLastChild() {
+            return deleteAndReturnChild(getChildNodesSize() - 1);
+        }
+
+        int getIndex(Node child) {
+            List<Node> childNodesList = getChildNodes();
+
+            int i;
+            for (i = 0; i < childNodesList.size(); i++) {
+                if (child == childNodesList.get(i)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        void addChild(Node node) {
+            List<Node> childNodesList = getChildNodes();
+
+            childNodesList.add(node);
+        }
+
+        Node getFirstChild() {
+            List<Node> childNodesList = getChildNodes();
+
+            return childNodesList.get(0);
+        }
+
+        Node getLastChild() {
+            List<Node> childNodesList = getChildNodes();
+
+            return childNodesList.get(childNodesList.size() - 1);
+        }
+
+        Node getLastChildOrNull() {
+            return isLeafNode() ? null : getLastChild();
+        }
+
+        void insertChild(Node node, int index) {
+            List<Node> childNodesList = getChildNodes();
+
+            childNodesList.add(index, node);
+        }
+
+        void insertHeadChild(Node child) {
+            insertChild(child, 0);
+        }
+
+        void insertKeyData(KeyData<K, V> keyData, int index) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+
+            keyDataList.add(index, keyData);
+        }
+
+        void insertHeadKeyData(KeyData<K, V> keyData) {
+            insertKeyData(keyData, 0);
+        }
+
+        void addKeyData(KeyData<K, V> keyData) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+
+            keyDataList.add(keyData);
+        }
+
+        KeyData<K, V> deleteAndReturnKeyData(int index) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+            KeyData<K, V> keyData = keyDataList.get(index);
+            keyDataList.remove(index);
+
+            return keyData;
+        }
+
+        KeyData<K, V> deleteAndReturnFirstKeyData() {
+            return deleteAndReturnKeyData(0);
+        }
+
+        KeyData<K, V> deleteAndReturnLastKeyData() {
+            return deleteAndReturnKeyData(getKeyDataListSize() - 1);
+        }
+
+        void deleteChild(int index) {
+            List<Node> childNodesList = getChildNodes();
+
+            childNodesList.remove(index);
+        }
+
+        void deleteKeyData(int index) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+
+            keyDataList.remove(index);
+        }
+
+        void replaceKeyData(KeyData<K, V> replacement, int index) {
+            KeyData<K, V> keyData = getKeyData(index);
+            keyData.setKey(replacement.getKey());
+            keyData.setData(replacement.getData());
+        }
+
+        List<List<Node>> splitChildList(int index, int keyDataListSize) {
+            List<Node> leftChildNodes = getChildNodes().subList(0, index + 1);
+            List<Node> rightChildNodes = getChildNodes().subList(index + 1, keyDataListSize + 1);
+
+            List<List<Node>> childListSplitPair = new ArrayList<List<Node>>();
+            childListSplitPair.add(new ArrayList<>(leftChildNodes));
+            childListSplitPair.add(new ArrayList<>(rightChildNodes));
+
+            return childListSplitPair;
+        }
+
+        List<List<KeyData<K, V>>> splitKeyDataList(int index, int keyDataListSize) {
+            List<KeyData<K, V>> leftKeyData = getKeyDataList().subList(0, index);
+            List<KeyData<K, V>> rightKeyData = getKeyDataList().subList(index + 1, keyDataListSize);
+
+            List<List<KeyData<K, V>>> keyDataListSplitPair = new ArrayList<List<KeyData<K, V>>>();
+            keyDataListSplitPair.add(new ArrayList<>(leftKeyData));
+            keyDataListSplitPair.add(new ArrayList<>(rightKeyData));
+
+            return keyDataListSplitPair;
+        }
+
+        void mergeSubTrees(int index) {
+            Node node = getChild(index);
+            Node sibling = getChild(index + 1);
+
+            metrics.getMerges().increment();
+            KeyData<K, V> keyData = deleteAndReturnKeyData(index);
+            node.getKeyDataList().add(keyData);
+            node.getKeyDataList().addAll(sibling.getKeyDataList());
+            node.getChildNodes().addAll(sibling.getChildNodes());
+
+            // delete the sibling and zero its references.
+            sibling.getKeyDataList().clear();
+            sibling.getChildNodes().clear();
+            deleteChild(index + 1);
+
+            if (this == getRoot() && getChildNodesSize() == 1) {
+                // root is now reduced to a single child, so instead use that child as new root
+                setRoot(node);
+                metrics.setHeight(metrics.getHeight() - 1);
+            }
+        }
+
+        // binary search over the keys, returns the index of the key if found, else (-(child index) - 1) where the
+        // child index is the subtree the key would be in. nothing is allocated, so lookups can use it freely.
+        int searchIndex(K key) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+            int low = 0;
+            int high = keyDataList.size() - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = comparator.compare(keyDataList.get(mid).getKey(), key);
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        SearchData search(K key) {
+            int index = searchIndex(key);
+            if (index >= 0) {
+                return new SearchData(true, index, -1);
+            }
+
+            // exit if you could not find the key in the leaf node.
+            return new SearchData(false, -1, -index - 1);
+        }
+
+        Node getNodeWithLargestKey() {
+            if (isLeafNode()) {
+                return this;
+            }
+
+            return getLastChild().getNodeWithLargestKey();
+        }
+
+        Node getNodeWithSmallestKey() {
+            if (isLeafNode()) {
+                return this;
+            }
+
+            return getFirstChild().getNodeWithSmallestKey();
+        }
+    }
+
+    class SearchData {
+        boolean found;
+        int keyIndex;
+        int childIndex;
+
+        SearchData(boolean found, int keyIndex, int childIndex) {
+            this.found = found;
+            this.keyIndex = keyIndex;
+            this.childIndex = childIndex;
+        }
+    }
+
+    // walks the keys between fromKey and toKey (both inclusive, null for an open end) forwards or in reverse.
+    // only the path from the root to the current key is kept, as a stack of nodes and the next key index in each.
+    class Cursor implements Iterator<KeyData<K, V>> {
+        K fromKey;
+        K toKey;
+        boolean reverse;
+        int expectedModificationCount;
+
+        // the path from the root, the node being walked is last.
+        List<Node> nodes = new ArrayList<>();
+        // forwards this is the next key to return from the node, in reverse it is one past it.
+        int[] indexes = new int[8];
+        int depth;
+        KeyData<K, V> nextKeyData;
+
+        Cursor(K fromKey, K toKey, boolean reverse) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.reverse = reverse;
+            this.expectedModificationCount = getModificationCount();
+
+            seek(getRoot(), reverse ? toKey : fromKey);
+            nextKeyData = advance();
+        }
+
+        private void push(Node node, int index) {
+            if (depth == indexes.length) {
+                indexes = Arrays.copyOf(indexes, 2 * depth);
+            }
+            nodes.add(node);
+            indexes[depth] = index;
+            depth++;
+        }
+
+        // builds the path down to where the bound would be, or to the first (last) leaf for an open bound.
+        private void seek(Node node, K bound) {
+            while (node != null) {
+                if (bound == null) {
+                    descend(node);
+                    return;
+                }
+
+                int index = node.searchIndex(bound);
+                if (index >= 0) {
+                    // the bound itself is the next key, which is where the walk starts for an inclusive bound.
+                    push(node, reverse ? index + 1 : index);
+                    return;
+                }
+
+                index = -index - 1;
+                push(node, index);
+                node = node.getChild(index);
+            }
+        }
+
+        // goes down the leftmost (rightmost in reverse) edge of a subtree.
+        private void descend(Node node) {
+            while (node != null) {
+                push(node, reverse ? node.getKeyDataListSize() : 0);
+                node = reverse ? node.getLastChildOrNull() : node.getChild(0);
+            }
+        }
+
+        private KeyData<K, V> advance() {
+            while (depth > 0) {
+                Node node = nodes.get(depth - 1);
+                int index = indexes[depth - 1];
+
+                if (!reverse && index < node.getKeyDataListSize()) {
+                    indexes[depth - 1] = index + 1;
+                    descend(node.getChild(index + 1));
+                    return node.getKeyData(index);
+                } else if (reverse && index > 0) {
+                    indexes[depth - 1] = index - 1;
+                    descend(node.getChild(index - 1));
+                    return node.getKeyData(index - 1);
+                }
+
+                nodes.remove(--depth);
+            }
+
+            return null;
+        }
+
+        private boolean isPastEnd(KeyData<K, V> keyData) {
+            if (reverse) {
+                return fromKey != null && comparator.compare(keyData.getKey(), fromKey) < 0;
+            }
+            return toKey != null && comparator.compare(keyData.getKey(), toKey) > 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextKeyData != null && isPastEnd(nextKeyData)) {
+                nextKeyData = null;
+                depth = 0;
+            }
+
+            return nextKeyData != null;
+        }
+
+        @Override
+        public KeyData<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (expectedModificationCount != getModificationCount()) {
+                throw new ConcurrentModificationException();
+            }
+
+            KeyData<K, V> keyData = nextKeyData;
+            nextKeyData = advance();
+
+            return keyData;
+        }
+    }
+
+    // keys in their natural order.
+    BTree(int thresholdCount) {
+        this(thresholdCount, KeyComparators.naturalOrder());
+    }
+
+    BTree(int thresholdCount, Comparator<? super K> comparator) {
+        setLowerThreshold(thresholdCount - 1);
+        setHigherThreshold(2 * thresholdCount - 1);
+        setComparator(comparator);
+    }
+
+    int getSubtreeIndexOrInsertLeaf(Node node, KeyData<K, V> insertKeyData) {
+        int i = node.searchIndex(insertKeyData.getKey());
+        if (i >= 0) {
+            // for duplicates, we just replace current value.
+            node.getKeyData(i).setData(insertKeyData.getData());
+            return -1;
+        }
+
+        // the key belongs at the insertion point, either in this leaf or in the subtree at that index.
+        i = -i - 1;
+        if (node.isLeafNode()) {
+            node.insertKeyData(insertKeyData, i);
+            return -1;
+        }
+
+        return i;
+    }
+
+    Node split(Node node, int index) {
+        metrics.getSplits().increment();
+        // allocate the sibling node.
+        Node sibling = new Node();
+        // cache the key data list size as it will be the end marker for sibling lists.
+        int keyDataListSize = node.getKeyDataListSize();
+        // split the node's keydata and find the median, also split the childnodes.
+        List<List<KeyData<K, V>>> splitKeyDataList = node.splitKeyDataList(index, keyDataListSize);
+
+        // attach the split lists to appropriate nodes.
+        node.setKeyDataList(splitKeyDataList.get(0));
+        sibling.setKeyDataList(splitKeyDataList.get(1));
+        if (!node.isLeafNode()) {
+            List<List<Node>> splitChildList = node.splitChildList(index, keyDataListSize);
+
+            node.setChildNodes(splitChildList.get(0));
+            sibling.setChildNodes(splitChildList.get(1));
+        }
+
+        return sibling;
+    }
+
+    Node connectNodeToNewRoot(Node node) {
+        Node parent = new Node();
+        // we need to reset root here.
+        setRoot(parent);
+        parent.addChild(node);
+        metrics.setHeight(metrics.getHeight() + 1);
+
+        return parent;
+    }
+
+    void insertAsRoot(KeyData<K, V> keyData) {
+        Node node = new Node();
+        node.getKeyDataList().add(keyData);
+        setRoot(node);
+        metrics.setHeight(1);
+    }
+
+    void insert(Node node, Node parent, int nodeIndex, KeyData<K, V> insertKeyData) {
+        //               n1-n2-n3
+//        System.out.println("Inserting " + insertKeyData + " into " + node.getPrintableKeyData());
+        if (node.isKeyDataAtHighThreshold()) {
+            // if the node is the root, create a new root and make node its child.
+            if (parent == null) {
+                parent = connectNodeToNewRoot(node);
+                nodeIndex = 0;
+            }
+
+            // split into 2, and push the median above.
+            //      n2
+            //    n1  n3
+            int newSize = (node.getKeyDataListSize() - 1)/ 2;
+            KeyData<K, V> medianKeyData = node.getKeyData(newSize);
+            Node sibling = split(node, newSize);
+            // attach the previous median and the sibling to the parent.
+            parent.insertKeyData(medianKeyData, nodeIndex);
+            parent.insertChild(sibling, nodeIndex + 1);
+
+            // after the split we need to reinsert from the parent.
+            node = parent;
+        }
+
+        // a negative implies the keydata either was added to a leaf node, or overwrote an existing key.
+        int i = getSubtreeIndexOrInsertLeaf(node, insertKeyData);
+        if (i >= 0) {
+            insert(node.getChild(i), node, i, insertKeyData);
+        }
+    }
+
+    void insert(K key, V data) {
+        long start = System.nanoTime();
+        KeyData<K, V> keyData = new KeyData<>(key, data);
+        modificationCount++;
+
+        if (getRoot() == null) {
+            insertAsRoot(keyData);
+        } else {
+            insert(getRoot(), null, -1, keyData);
+        }
+        metrics.getInsertLatency().recordSince(start);
+    }
+
+    // copies of the entries sorted by key, the sort is stable so equal keys stay in the order they were given.
+    List<KeyData<K, V>> sortedBatch(List<KeyData<K, V>> entries) {
+        List<KeyData<K, V>> batch = new ArrayList<>(entries.size());
+        for (KeyData<K, V> keyData : entries) {
+            batch.add(keyData.copy());
+        }
+        batch.sort(getKeyDataComparator());
+
+        return batch;
+    }
+
+    Comparator<KeyData<K, V>> getKeyDataComparator() {
+        return (a, b) -> comparator.compare(a.getKey(), b.getKey());
+    }
+
+    // the end of the run of batch entries from 'from' on that go down into the child at childIndex, that is the
+    // entries below the key that follows the child in the node.
+    int getSubtreeRunEnd(Node node, int childIndex, List<KeyData<K, V>> batch, int from, int to) {
+        if (childIndex == node.getKeyDataListSize()) {
+            return to;
+        }
+
+        K bound = node.getKeyData(childIndex).getKey();
+        int end = from + 1;
+        while (end < to && comparator.compare(batch.get(end).getKey(), bound) < 0) {
+            end++;
+        }
+
+        return end;
+    }
+
+    // a batch can grow a child well past the high threshold, so instead of splitting in two the child is cut into
+    // as many nodes as it takes to bring each back within the thresholds, with a separator moved up for each cut.
+    void splitOverflow(Node parent, int childIndex) {
+        Node child = parent.getChild(childIndex);
+        int size = child.getKeyDataListSize();
+        if (size <= getHigherThreshold()) {
+            return;
+        }
+
+        // n pieces hold size - (n - 1) keys between them, which averages out between the two thresholds.
+        int pieces = size / (getHigherThreshold() + 1) + 1;
+        int keys = size - (pieces - 1);
+        List<KeyData<K, V>> keyDataList = child.getKeyDataList();
+        List<Node> childNodes = child.getChildNodes();
+        metrics.getSplits().add(pieces - 1);
+
+        int start = 0;
+        for (int piece = 0; piece < pieces; piece++) {
+            int pieceSize = keys / pieces + (piece < keys % pieces ? 1 : 0);
+            Node node = (piece == 0) ? child : new Node();
+            node.setKeyDataList(new ArrayList<>(keyDataList.subList(start, start + pieceSize)));
+            if (!childNodes.isEmpty()) {
+                node.setChildNodes(new ArrayList<>(childNodes.subList(start, start + pieceSize + 1)));
+            }
+            if (piece > 0) {
+                parent.insertKeyData(keyDataList.get(start - 1), childIndex + piece - 1);
+                parent.insertChild(node, childIndex + piece);
+            }
+            start += pieceSize + 1;
+        }
+    }
+
+    // applies the sorted batch to the subtree, a node is allowed to go over the high threshold until its parent
+    // has finished with it and splits it back.
+    void putAll(Node node, List<KeyData<K, V>> batch, int from, int to) {
+        int i = from;
+        while (i < to) {
+            // a negative implies the keydata either was added to a leaf node, or overwrote an existing key.
+            int index = getSubtreeIndexOrInsertLeaf(node, batch.get(i));
+            if (index < 0) {
+                i++;
+                continue;
+            }
+
+            int end = getSubtreeRunEnd(node, index, batch, i, to);
+            putAll(node.getChild(index), batch, i, end);
+            splitOverflow(node, index);
+            i = end;
+        }
+    }
+
+    // inserts a batch of entries in a single walk of the tree. the entries are sorted first, so the ones that land
+    // in the same node are applied together and every node is entered once per batch rather than once per key.
+    // for equal keys the last one wins, as if they had been inserted one by one.
+    void putAll(List<KeyData<K, V>> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<KeyData<K, V>> batch = sortedBatch(entries);
+        modificationCount++;
+
+        if (getRoot() == null) {
+            setRoot(new Node());
+            metrics.setHeight(1);
+        }
+        putAll(getRoot(), batch, 0, batch.size());
+        // the root has no parent to split it, so it gets new roots until it is back within the threshold.
+        while (getRoot().getKeyDataListSize() > getHigherThreshold()) {
+            splitOverflow(connectNodeToNewRoot(getRoot()), 0);
+        }
+    }
+
+    public V get(K key) {
+        long start = System.nanoTime();
+        V data = find(key);
+        metrics.getLookupLatency().recordSince(start);
+
+        return data;
+    }
+
+    // point lookup, it only walks down the tree and allocates nothing.
+    V find(K key) {
+        Node node = getRoot();
+
+        while (node != null) {
+            int index = node.searchIndex(key);
+            if (index >= 0) {
+                return node.getKeyData(index).getData();
+            }
+            // leaves have no children, so this ends the walk there.
+            node = node.getChild(-index - 1);
+        }
+
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    // finds each batch entry's key, setting its data to the value found or null.
+    void getAll(Node node, List<KeyData<K, V>> batch, int from, int to) {
+        int i = from;
+        while (i < to) {
+            KeyData<K, V> probe = batch.get(i);
+            int index = node.searchIndex(probe.getKey());
+            if (index >= 0 || node.isLeafNode()) {
+                probe.setData(index >= 0 ? node.getKeyData(index).getData() : null);
+                i++;
+                continue;
+            }
+
+            int end = getSubtreeRunEnd(node, -index - 1, batch, i, to);
+            getAll(node.getChild(-index - 1), batch, i, end);
+            i = end;
+        }
+    }
+
+    // looks up a batch of keys in a single walk of the tree, the keys that land in the same node are searched for
+    // together. the values come back in the order of keys, null for a key that is not in the tree.
+    public List<V> getAll(List<K> keys) {
+        List<KeyData<K, V>> probes = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            probes.add(new KeyData<>(key, null));
+        }
+
+        if (getRoot() != null) {
+            // the batch shares the probes, so the values found land in them.
+            List<KeyData<K, V>> batch = new ArrayList<>(probes);
+            batch.sort(getKeyDataComparator());
+            getAll(getRoot(), batch, 0, batch.size());
+        }
+
+        List<V> values = new ArrayList<>(keys.size());
+        for (KeyData<K, V> probe : probes) {
+            values.add(probe.getData());
+        }
+
+        return values;
+    }
+
+    Node getSibling(Node node, Node parent) {
+        int index = parent.getIndex(node);
+
+        if (index > 0) {
+            return parent.getChild(index - 1);
+        } else {
+            return parent.getChild(index + 1);
+        }
+    }
+
+    boolean delete(K key) {
+        if (getRoot() == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean deleted = delete(getRoot(), key);
+        metrics.getDeleteLatency().recordSince(start);
+
+        return deleted;
+    }
+
+    boolean delete(Node node, K key) {
+        modificationCount++;
+
+        // every node other than root is pre-vetted for minimum threshold.
+        while (!node.isLeafNode()) {
+            // check if node has the key.
+            SearchData searchData = node.search(key);
+
+            if (searchData.found) {
+                // For a successful find, index i and i+1 will both point to valid child nodes.
+                // For the last node the only valid sibling is the previous node.
+                // verify that this logic works for the last key as well.
+                Node child = node.getChild(searchData.keyIndex);
+                Node sibling = node.getSibling(searchData.keyIndex);
+                //i, i + 1
+                if (child.isKeyDataAtLowThreshold() && sibling.isKeyDataAtLowThreshold()) {
+                    node.mergeSubTrees(searchData.keyIndex);
+                    node = child;
+                    continue;
+                } else if (!child.isKeyDataAtLowThreshold()) {
+                    // we need to find the predecessor in the left subtree. since this will be a leaf.
+                    KeyData<K, V> predecessorKeyData = child.getNodeWithLargestKey().getLastKeyData().copy();
+                    node.replaceKeyData(predecessorKeyData, searchData.keyIndex);
+                    node = child;
+                    key = predecessorKeyData.getKey();
+                } else {
+                    // we need to find the successor in the right subtree. since this will be a leaf.
+                    KeyData<K, V> successorKeyData = sibling.getNodeWithSmallestKey().getFirstKeyData().copy();
+                    node.replaceKeyData(successorKeyData, searchData.keyIndex);
+                    node = sibling;
+                    key = successorKeyData.getKey();
+                }
+            } else {
+                // here searchdata.keyIndex refers to the child index for subtree where key if present will be found.
+                Node child = node.getChild(searchData.childIndex);
+                Node sibling = node.getSibling(searchData.childIndex);
+                int childKeyIndex = (searchData.childIndex < node.getChildNodesSize() - 1) ?
+                        searchData.childIndex : searchData.childIndex - 1;
+
+                if (child.isKeyDataAtLowThreshold() && sibling.isKeyDataAtLowThreshold()) {
+                    // if both child and sibling are at lower threshold merge them with the node keydata into new child node.
+                    // this will reduce a keydata in the node, but since node is already above low threshold this is fine.
+                    node.mergeSubTrees(childKeyIndex);
+                    // the merged node will always be the left child of the node, so set it to sibling if it is the left node.
+                    if (childKeyIndex == searchData.childIndex) {
+                        node = child;
+                    } else {
+                        node = sibling;
+                    }
+                } else if (child.isKeyDataAtLowThreshold()) {
+                    // we need to ensure child has enough keys for the invariant to be made as child will become node.
+                    KeyData<K, V> keyData = node.getKeyData(childKeyIndex).copy();
+                    metrics.getRotations().increment();
+
+                    if (searchData.childIndex < node.getChildNodesSize() - 1) {
+                        // rotate left.
+                        node.replaceKeyData(sibling.deleteAndReturnFirstKeyData(), childKeyIndex);
+                        child.addKeyData(keyData);
+                        if (!child.isLeafNode()) {
+                            child.addChild(sibling.deleteAndReturnFirstChild());
+                        }
+                    } else {
+                        // rotate right.
+                        node.replaceKeyData(sibling.deleteAndReturnLastKeyData(), childKeyIndex);
+                        child.insertHeadKeyData(keyData);
+                        if (!child.isLeafNode()) {
+                            child.insertHeadChild(sibling.deleteAndReturnLastChild());
+                        }
+                    }
+                    // child is the candidate to continue the search into.
+                    node = child;
+                } else {
+                    // child is the candidate to continue the search into.
+                    node = child;
+                }
+            }
+        }
+
+        // if the search has concluded in a leaf, its a simple yes/no answer.
+        if (node.isLeafNode()) {
+            SearchData searchData = node.search(key);
+            if (searchData.found) {
+                node.deleteAndReturnKeyData(searchData.keyIndex);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    void inorder(Node node) {
+        if (node == null) {
+            return;
+        }
+
+        List<KeyData<K, V>> keyDataList = node.getKeyDataList();
+
+        for (int i = 0; i < keyDataList.size(); i++) {
+            inorder(node.getChild(i));
+            System.out.println(keyDataList.get(i));
+        }
+
+        // there will be one more child node than the number of keys in this node for every intermediate node.
+        inorder(node.getChild(keyDataList.size()));
+    }
+
+    void inorder() {
+        inorder(getRoot());
+    }
+
+    // ordered range scan over [fromKey, toKey], a null bound leaves that end open.
+    public Cursor scan(K fromKey, K toKey) {
+        return new Cursor(fromKey, toKey, false);
+    }
+
+    public Cursor scanReverse(K fromKey, K toKey) {
+        return new Cursor(fromKey, toKey, true);
+    }
+
+    public Stream<KeyData<K, V>> stream(K fromKey, K toKey) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scan(fromKey, toKey),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    public static void main(String args[]) {
+        System.out.println("I am in the main routine.");
+        BTree<String, String> bTree = new BTree<>(2);
+
+        for (int i = 0; i < 500000; i++) {
+            bTree.insert("key" + i, "data" + i);
+        }
+        for (int i = 0; i < 500000; i++) {
+            boolean status = bTree.delete("key" + i);
+
+//            System.out.println("key" + i + ":" + status);
+        }
+        bTree.inorder();
+    }
+}
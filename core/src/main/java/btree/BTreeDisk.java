@@ -0,0 +1,2129 @@
+package btree;
+
+import lombok.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+@Getter @Setter
+public class BTreeDisk<K, V> {
+    @Getter @Setter
+    static class Metadata {
+        // a compressed node image defaults to this many pages, compressible values leave it room to fill up.
+        static final int COMPRESSED_PAGES_PER_NODE = 4;
+
+        int thresholdCount;
+        int pageSize;
+        long rootId;
+        PageStore.Compression compression = PageStore.Compression.NONE;
+        // the size of an uncompressed node image, this is the page size unless pages are compressed.
+        int nodeSize;
+        // how many messages an internal node buffers before it flushes some to a child, 0 for no message buffers.
+        int messageBufferCapacity;
+
+        Metadata() {}
+
+        Metadata(int thresholdCount, int pageSize) {
+            this(thresholdCount, pageSize, PageStore.Compression.NONE, pageSize);
+        }
+
+        Metadata(int thresholdCount, int pageSize, PageStore.Compression compression) {
+            this(thresholdCount, pageSize, compression, compression == PageStore.Compression.NONE ? pageSize :
+                    Math.min(COMPRESSED_PAGES_PER_NODE * pageSize, NodePage.MAX_PAGE_SIZE));
+        }
+
+        Metadata(int thresholdCount, int pageSize, PageStore.Compression compression, int nodeSize) {
+            if (compression == PageStore.Compression.NONE && nodeSize != pageSize) {
+                throw new IllegalArgumentException("Uncompressed node images have to be exactly a page.");
+            }
+            this.thresholdCount = thresholdCount;
+            this.pageSize = pageSize;
+            this.rootId = NO_PAGE_ID;
+            this.compression = compression;
+            this.nodeSize = nodeSize;
+        }
+
+        // the largest entry a node image has room for when it is full of them, an insert of a larger one is refused
+        // as the node it lands in might not be writable any more.
+        int getMaxEntrySize() {
+            return NodePage.getMaxEntrySize(nodeSize, 2 * thresholdCount - 1, messageBufferCapacity);
+        }
+    }
+    public int lowerThreshold;
+    public int higherThreshold;
+    public Metadata metadata;
+    public PageStore pageStore;
+    public BufferPool<K, V> bufferPool = new BufferPool<>(BufferPool.DEFAULT_CAPACITY);
+    public WriteAheadLog writeAheadLog;
+    // reads pages ahead on background threads, null to read them on the calling thread.
+    Prefetcher prefetcher;
+    // how many subtrees a scan keeps read ahead of the one it is walking.
+    int prefetchDistance = 1;
+    public Node root;
+    // keys are ordered by the comparator, keys and values are stored in the form their codecs give them.
+    Comparator<? super K> comparator;
+    Codec<K> keyCodec;
+    Codec<V> valueCodec;
+    // nodes pinned by the insert or delete in progress, released when it finishes.
+    List<Node> pinnedNodes = new ArrayList<>();
+    // bumped by every insert and delete, so a cursor can tell the tree changed under it.
+    int modificationCount;
+    // operation counters and latencies, shared with the page store for the bytes it reads and writes.
+    TreeMetrics metrics = new TreeMetrics();
+    // inserts and deletes not yet applied to the tree, a null value is a delete. null unless write buffering is on.
+    TreeMap<K, V> writeBuffer;
+    int writeBufferCapacity;
+    // set while the write buffer is applied. a checkpoint in the middle would reset the log while the writes still
+    // to be applied are in neither the tree nor the log, so it waits until they are all in.
+    boolean checkpointsDeferred;
+    // the last checkpoint a Checkpointer failed to take, writes fail with it until a checkpoint succeeds. without
+    // stealing, writes that went on would only pile up more dirty nodes that cannot leave the pool.
+    volatile IOException checkpointFailure;
+    public boolean debugging;
+    static int DEFAULT_WRITE_BUFFER_CAPACITY = 4096;
+    static String BTREE_DATA_FILENAME = "btree.data";
+    static long NO_PAGE_ID = -1;
+
+    @Getter @Setter @AllArgsConstructor
+    static class KeyData<K, V> {
+        K key;
+        V data;
+
+        @Override
+        public String toString() {
+            return  key + ":" + data;
+        }
+
+        public KeyData<K, V> copy() {
+            return new KeyData<>(key, data);
+        }
+
+        KeyData() {}
+    }
+
+    // no need to make this static.
+    @Getter @Setter
+    class Node {
+        boolean inMemory;
+        boolean dirty;
+        long id;
+        // buffer pool state, a pinned node is never evicted and a referenced node gets a second chance.
+        int pinCount;
+        boolean referenced;
+        int frameIndex = -1;
+
+        List<KeyData<K, V>> keyDataList = new ArrayList<>();
+        List<Node> childNodes = new ArrayList<Node>();
+        // with message buffers, the inserts and deletes waiting to go down into the subtrees of an internal node.
+        // the newest message per key, a null value is a delete. a key the node holds itself never has a message
+        // here, and a key with null data is one that was deleted while it was a separator. null until the node
+        // takes its first message, so leaves and trees without message buffers never allocate one.
+        TreeMap<K, V> messages;
+
+        // Base constructor for new Node
+        Node() throws IOException {
+            setId(pageStore.allocatePage());
+        }
+
+        // Base constructor for either root or node read from disk.
+        Node(long childId) {
+            setId(childId);
+        }
+
+        // the node's messages, empty and read only if it has none. messages are added through getMessageBuffer().
+        NavigableMap<K, V> getMessages() {
+            return (messages != null) ? messages : Collections.emptyNavigableMap();
+        }
+
+        TreeMap<K, V> getMessageBuffer() {
+            if (messages == null) {
+                messages = new TreeMap<>(comparator);
+            }
+            return messages;
+        }
+
+        long[] getChildNodeIds() {
+            List<Node> childNodes = getChildNodes();
+            long[] childIds = new long[childNodes.size()];
+
+            for (int i = 0; i < childIds.length; i++) {
+                childIds[i] = childNodes.get(i).getId();
+            }
+
+            return childIds;
+        }
+
+        // need a routine to serialize in-memory data into disk.
+        void serializeToDisk() throws IOException {
+            // keys, data and child page ids all go into a single binary page.
+            List<byte[]> keys = new ArrayList<>(getKeyDataListSize());
+            List<byte[]> data = new ArrayList<>(getKeyDataListSize());
+            for (KeyData<K, V> keyData : getKeyDataList()) {
+                keys.add(keyCodec.encode(keyData.getKey()));
+                data.add(encodeData(keyData.getData()));
+            }
+            NavigableMap<K, V> messages = getMessages();
+            List<byte[]> messageKeys = new ArrayList<>(messages.size());
+            List<byte[]> messageData = new ArrayList<>(messages.size());
+            for (Map.Entry<K, V> message : messages.entrySet()) {
+                messageKeys.add(keyCodec.encode(message.getKey()));
+                messageData.add(encodeData(message.getValue()));
+            }
+            NodePage page = NodePage.allocate(metadata.getNodeSize());
+            page.write(keys, data, getChildNodeIds(), messageKeys, messageData);
+
+            pageStore.writeNode(getId(), page);
+
+            // the memory copy is no longer dirty, assuming this is serialized with other Node modifications.
+            setDirty(false);
+            bufferPool.removeDirty(this);
+        }
+
+        // every modification goes through here, so a checkpoint only writes the nodes that actually changed.
+        void markDirty() {
+            if (!isDirty()) {
+                setDirty(true);
+                bufferPool.addDirty(this);
+            }
+        }
+
+        // We will only bfs a single node.
+        void deserializeFromDisk() throws IOException {
+            deserializeFromDisk(pageStore.readNode(getId()));
+        }
+
+        // builds the node from its page image, which may have been read ahead.
+        void deserializeFromDisk(NodePage page) throws IOException {
+            if (!page.isFormatted()) {
+                throw new IOException(String.format("Page %d is not a node page.", id));
+            }
+
+            for (int i = 0; i < page.getKeyCount(); i++) {
+                keyDataList.add(new KeyData<>(keyCodec.decode(page.readKey(i)), decodeData(page.readData(i))));
+            }
+            for (int i = 0; i < page.getMessageCount(); i++) {
+                getMessageBuffer().put(keyCodec.decode(page.readMessageKey(i)), decodeData(page.readMessageData(i)));
+            }
+            for (int i = 0; i < page.getChildCount(); i++) {
+                // a child that is still resident is relinked, so there is only ever one copy of a node.
+                Node child = bufferPool.lookup(page.getChildPageId(i));
+                childNodes.add(child != null ? child : new Node(page.getChildPageId(i)));
+            }
+            setInMemory(true);
+        }
+
+        // drops the in memory copy, leaving a stub that can be faulted back in from its page.
+        void evict() {
+            keyDataList.clear();
+            childNodes.clear();
+            messages = null;
+            setInMemory(false);
+        }
+
+        Boolean isLeafNode() {
+            return childNodes.size() == 0;
+        }
+
+        int getKeyDataListSize() {
+            return getKeyDataList().size();
+        }
+
+        int getChildNodesSize() {
+            return getChildNodes().size();
+        }
+
+        boolean isKeyDataAtHighThreshold() {
+            return getKeyDataListSize() == getHigherThreshold();
+        }
+
+        boolean isKeyDataAtLowThreshold() {
+            return getKeyDataListSize() == getLowerThreshold();
+        }
+
+        KeyData<K, V> getKeyData(int index) {
+            return getKeyDataList().get(index);
+        }
+
+        KeyData<K, V> getFirstKeyData() {
+            return getKeyData(0);
+        }
+
+        KeyData<K, V> getLastKeyData() {
+            return getKeyData(keyDataList.size() - 1);
+        }
+
+        String getPrintableKeyData() {
+            StringBuilder stringBuilder = new StringBuilder();
+            for (KeyData<K, V> keyData: getKeyDataList()) {
+                stringBuilder.append(keyData + ", ");
+            }
+
+            return stringBuilder.toString();
+        }
+        
+        Node getChild(int index) {
+            List<Node> childNodesList = getChildNodes();
+
+            return childNodesList.size() > 0 ? childNodesList.get(index) : null;
+        }
+
+        Node getSibling(int index) {
+            return (index < getChildNodesSize() - 1) ? getChild(index + 1) : getChild(index - 1);
+        }
+
+        Node deleteAndReturnChild(int index) {
+            List<Node> childNodesList = getChildNodes();
+            Node child = childNodesList.get(index);
+            childNodesList.remove(index);
+            markDirty();
+
+            return child;
+        }
+
+        Node deleteAndReturnFirstChild() {
+            return deleteAndReturnChild(0);
+        }
+
+        Node deleteAndReturnLastChild() {
+            return deleteAndReturnChild(getChildNodesSize() - 1);
+        }
+
+        int getIndex(Node child) {
+            List<Node> childNodesList = getChildNodes();
+
+            int i;
+            for (i = 0; i < childNodesList.size(); i++) {
+                if (child == childNodesList.get(i)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        void addChild(Node node) {
+            List<Node> childNodesList = getChildNodes();
+
+            childNodesList.add(node);
+            markDirty();
+        }
+
+        Node getFirstChild() {
+            List<Node> childNodesList = getChildNodes();
+
+            return childNodesList.get(0);
+        }
+
+        Node getLastChild() {
+            List<Node> childNodesList = getChildNodes();
+
+            return childNodesList.get(childNodesList.size() - 1);
+        }
+
+        void insertChild(Node node, int index) {
+            List<Node> childNodesList = getChildNodes();
+
+            childNodesList.add(index, node);
+            markDirty();
+        }
+
+        void insertHeadChild(Node child) {
+            insertChild(child, 0);
+        }
+
+        void insertKeyData(KeyData<K, V> keyData, int index) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+
+            keyDataList.add(index, keyData);
+            markDirty();
+        }
+
+        void insertHeadKeyData(KeyData<K, V> keyData) {
+            insertKeyData(keyData, 0);
+        }
+
+        void addKeyData(KeyData<K, V> keyData) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+
+            keyDataList.add(keyData);
+            markDirty();
+        }
+
+        KeyData<K, V> deleteAndReturnKeyData(int index) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+            KeyData<K, V> keyData = keyDataList.get(index);
+            keyDataList.remove(index);
+            markDirty();
+
+            return keyData;
+        }
+
+        KeyData<K, V> deleteAndReturnFirstKeyData() {
+            return deleteAndReturnKeyData(0);
+        }
+
+        KeyData<K, V> deleteAndReturnLastKeyData() {
+            return deleteAndReturnKeyData(getKeyDataListSize() - 1);
+        }
+
+        void deleteChild(int index) {
+            List<Node> childNodesList = getChildNodes();
+
+            childNodesList.remove(index);
+            markDirty();
+        }
+
+        void deleteKeyData(int index) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+
+            keyDataList.remove(index);
+            markDirty();
+        }
+
+        void replaceKeyData(KeyData<K, V> replacement, int index) {
+            KeyData<K, V> keyData = getKeyData(index);
+            keyData.setKey(replacement.getKey());
+            keyData.setData(replacement.getData());
+            markDirty();
+        }
+
+        List<List<Node>> splitChildList(int index, int keyDataListSize) {
+            List<Node> leftChildNodes = getChildNodes().subList(0, index + 1);
+            List<Node> rightChildNodes = getChildNodes().subList(index + 1, keyDataListSize + 1);
+
+            List<List<Node>> childListSplitPair = new ArrayList<List<Node>>();
+            childListSplitPair.add(new ArrayList<>(leftChildNodes));
+            childListSplitPair.add(new ArrayList<>(rightChildNodes));
+
+            return childListSplitPair;
+        }
+
+        List<List<KeyData<K, V>>> splitKeyDataList(int index, int keyDataListSize) {
+            List<KeyData<K, V>> leftKeyData = getKeyDataList().subList(0, index);
+            List<KeyData<K, V>> rightKeyData = getKeyDataList().subList(index + 1, keyDataListSize);
+
+            List<List<KeyData<K, V>>> keyDataListSplitPair = new ArrayList<List<KeyData<K, V>>>();
+            keyDataListSplitPair.add(new ArrayList<>(leftKeyData));
+            keyDataListSplitPair.add(new ArrayList<>(rightKeyData));
+
+            return keyDataListSplitPair;
+        }
+
+        void mergeSubTrees(int index) {
+            Node node = getChild(index);
+            Node sibling = getChild(index + 1);
+
+            metrics.getMerges().increment();
+            KeyData<K, V> keyData = deleteAndReturnKeyData(index);
+            node.getKeyDataList().add(keyData);
+            node.getKeyDataList().addAll(sibling.getKeyDataList());
+            node.getChildNodes().addAll(sibling.getChildNodes());
+            node.markDirty();
+
+            // delete the sibling and zero its references, its page can be reused.
+            sibling.getKeyDataList().clear();
+            sibling.getChildNodes().clear();
+            deleteChild(index + 1);
+            bufferPool.remove(sibling);
+            pageStore.freePage(sibling.getId());
+
+            if (this == getRoot() && getChildNodesSize() == 1) {
+                // root is now reduced to a single child, so instead use that child as new root
+                setRoot(node);
+                bufferPool.remove(this);
+                pageStore.freePage(getId());
+                metrics.setHeight(metrics.getHeight() - 1);
+            }
+        }
+
+        // binary search over the keys, returns the index of the key if found, else (-(child index) - 1) where the
+        // child index is the subtree the key would be in. nothing is allocated, so lookups can use it freely.
+        int searchIndex(K key) {
+            List<KeyData<K, V>> keyDataList = getKeyDataList();
+            int low = 0;
+            int high = keyDataList.size() - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = comparator.compare(keyDataList.get(mid).getKey(), key);
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        SearchData search(K key) {
+            int index = searchIndex(key);
+            if (index >= 0) {
+                return new SearchData(true, index, -1);
+            }
+
+            // exit if you could not find the key in the leaf node.
+            return new SearchData(false, -1, -index - 1);
+        }
+
+        Node getNodeWithLargestKey() throws IOException {
+            if (isLeafNode()) {
+                return this;
+            }
+
+            return pin(getLastChild()).getNodeWithLargestKey();
+        }
+
+        Node getNodeWithSmallestKey() throws IOException {
+            if (isLeafNode()) {
+                return this;
+            }
+
+            return pin(getFirstChild()).getNodeWithSmallestKey();
+        }
+    }
+
+    class SearchData {
+        boolean found;
+        int keyIndex;
+        int childIndex;
+
+        SearchData(boolean found, int keyIndex, int childIndex) {
+            this.found = found;
+            this.keyIndex = keyIndex;
+            this.childIndex = childIndex;
+        }
+    }
+
+    // walks the keys between fromKey and toKey (both inclusive, null for an open end) forwards or in reverse.
+    // only the path from the root to the current key is kept, and those nodes stay pinned until the cursor moves
+    // off them, so a scan of any length holds a bounded number of nodes. children are faulted in as the walk reaches
+    // them, and the next prefetchDistance siblings are prefetched whenever the walk goes down into a child.
+    class Cursor implements Iterator<KeyData<K, V>>, AutoCloseable {
+        K fromKey;
+        K toKey;
+        boolean reverse;
+        int expectedModificationCount;
+
+        // the path from the root, the node being walked is last.
+        List<Node> nodes = new ArrayList<>();
+        // forwards this is the next key to return from the node, in reverse it is one past it.
+        int[] indexes = new int[8];
+        int depth;
+        KeyData<K, V> nextKeyData;
+        // with message buffers, the newest buffered message for each key in the range that the walk has not reached
+        // yet, merged into the walk. a node's messages are taken when the walk enters it, which is before it reaches
+        // any of their keys and after it entered every node above, whose messages are newer. the tree's next entry is
+        // read one ahead, so the two can be compared. null until the walk comes across a message.
+        TreeMap<K, V> pendingMessages;
+        KeyData<K, V> nextTreeKeyData;
+
+        Cursor(K fromKey, K toKey, boolean reverse) throws IOException {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.reverse = reverse;
+            this.expectedModificationCount = getModificationCount();
+
+            synchronized (BTreeDisk.this) {
+                seek(getRoot(), reverse ? toKey : fromKey);
+                nextTreeKeyData = advanceInNodes();
+                nextKeyData = advance();
+            }
+        }
+
+        // takes the messages for the range from a node the walk just entered. a message already taken for a key came
+        // from higher up, so it is newer and is kept.
+        private void collectMessages(Node node) {
+            NavigableMap<K, V> messages = node.getMessages();
+            if (fromKey != null) {
+                messages = messages.tailMap(fromKey, true);
+            }
+            if (toKey != null) {
+                messages = messages.headMap(toKey, true);
+            }
+            if (messages.isEmpty()) {
+                return;
+            }
+
+            if (pendingMessages == null) {
+                pendingMessages = new TreeMap<>(comparator);
+            }
+            for (Map.Entry<K, V> message : messages.entrySet()) {
+                // not putIfAbsent, that would take a delete (a null value) for no message.
+                if (!pendingMessages.containsKey(message.getKey())) {
+                    pendingMessages.put(message.getKey(), message.getValue());
+                }
+            }
+        }
+
+        // the first message the walk has not reached yet (the last in reverse), null if there is none.
+        private Map.Entry<K, V> peekMessage() {
+            if (pendingMessages == null) {
+                return null;
+            }
+            return reverse ? pendingMessages.lastEntry() : pendingMessages.firstEntry();
+        }
+
+        private void push(Node node, int index) throws IOException {
+            if (depth == indexes.length) {
+                indexes = Arrays.copyOf(indexes, 2 * depth);
+            }
+            bufferPool.pin(node);
+            nodes.add(node);
+            indexes[depth] = index;
+            depth++;
+            fault(node);
+            collectMessages(node);
+        }
+
+        private void pop() {
+            bufferPool.unpin(nodes.remove(--depth));
+        }
+
+        // the children after (before in reverse) the one being entered are the next ones the walk will need.
+        private void prefetchAhead(Node parent, int childIndex) throws IOException {
+            for (int i = 1; i <= prefetchDistance; i++) {
+                int siblingIndex = reverse ? childIndex - i : childIndex + i;
+                if (siblingIndex < 0 || siblingIndex >= parent.getChildNodesSize()) {
+                    return;
+                }
+                prefetch(parent.getChild(siblingIndex));
+            }
+        }
+
+        private void enter(Node parent, int childIndex) throws IOException {
+            prefetchAhead(parent, childIndex);
+            descend(parent.getChild(childIndex));
+        }
+
+        // builds the path down to where the bound would be, or to the first (last) leaf for an open bound.
+        private void seek(Node node, K bound) throws IOException {
+            if (node == null) {
+                return;
+            }
+            if (bound == null) {
+                descend(node);
+                return;
+            }
+
+            while (true) {
+                push(node, 0);
+                int index = node.searchIndex(bound);
+                if (index >= 0) {
+                    // the bound itself is the next key, which is where the walk starts for an inclusive bound.
+                    indexes[depth - 1] = reverse ? index + 1 : index;
+                    return;
+                }
+
+                index = -index - 1;
+                indexes[depth - 1] = index;
+                if (node.isLeafNode()) {
+                    return;
+                }
+                prefetchAhead(node, index);
+                node = node.getChild(index);
+            }
+        }
+
+        // goes down the leftmost (rightmost in reverse) edge of a subtree.
+        private void descend(Node node) throws IOException {
+            while (true) {
+                push(node, 0);
+                if (reverse) {
+                    indexes[depth - 1] = node.getKeyDataListSize();
+                }
+                if (node.isLeafNode()) {
+                    return;
+                }
+                prefetchAhead(node, reverse ? node.getChildNodesSize() - 1 : 0);
+                node = reverse ? node.getLastChild() : node.getFirstChild();
+            }
+        }
+
+        // the next entry in the tree's nodes, deleted separators included.
+        private KeyData<K, V> advanceInNodes() throws IOException {
+            while (depth > 0) {
+                Node node = nodes.get(depth - 1);
+                int index = indexes[depth - 1];
+
+                if (!reverse && index < node.getKeyDataListSize()) {
+                    indexes[depth - 1] = index + 1;
+                    if (!node.isLeafNode()) {
+                        enter(node, index + 1);
+                    }
+                    return node.getKeyData(index);
+                } else if (reverse && index > 0) {
+                    indexes[depth - 1] = index - 1;
+                    if (!node.isLeafNode()) {
+                        enter(node, index - 1);
+                    }
+                    return node.getKeyData(index - 1);
+                }
+
+                pop();
+            }
+
+            return null;
+        }
+
+        // the next of the tree's entries and the buffered messages, a message replaces the tree's entry for its key
+        // and deletes are skipped.
+        private KeyData<K, V> advance() throws IOException {
+            while (true) {
+                Map.Entry<K, V> nextMessage = peekMessage();
+                if (nextTreeKeyData == null && nextMessage == null) {
+                    return null;
+                }
+
+                int compare;
+                if (nextMessage == null) {
+                    compare = -1;
+                } else if (nextTreeKeyData == null) {
+                    compare = 1;
+                } else {
+                    compare = comparator.compare(nextTreeKeyData.getKey(), nextMessage.getKey());
+                    compare = reverse ? -compare : compare;
+                }
+
+                KeyData<K, V> keyData;
+                if (compare < 0) {
+                    keyData = nextTreeKeyData;
+                    nextTreeKeyData = advanceInNodes();
+                } else {
+                    keyData = new KeyData<>(nextMessage.getKey(), nextMessage.getValue());
+                    pendingMessages.remove(nextMessage.getKey());
+                    if (compare == 0) {
+                        nextTreeKeyData = advanceInNodes();
+                    }
+                }
+                // past the end the walk is over either way, hasNext() stops at it.
+                if (keyData.getData() != null || isPastEnd(keyData)) {
+                    return keyData;
+                }
+            }
+        }
+
+        private boolean isPastEnd(KeyData<K, V> keyData) {
+            if (reverse) {
+                return fromKey != null && comparator.compare(keyData.getKey(), fromKey) < 0;
+            }
+            return toKey != null && comparator.compare(keyData.getKey(), toKey) > 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextKeyData != null && isPastEnd(nextKeyData)) {
+                close();
+            }
+
+            return nextKeyData != null;
+        }
+
+        @Override
+        public KeyData<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            synchronized (BTreeDisk.this) {
+                if (expectedModificationCount != getModificationCount()) {
+                    throw new ConcurrentModificationException();
+                }
+
+                KeyData<K, V> keyData = nextKeyData;
+                try {
+                    nextKeyData = advance();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return keyData;
+            }
+        }
+
+        // releases the pins on the remaining path, needed only when a scan is abandoned before its end.
+        @Override
+        public void close() {
+            synchronized (BTreeDisk.this) {
+                while (depth > 0) {
+                    pop();
+                }
+                nextKeyData = null;
+                nextTreeKeyData = null;
+                pendingMessages = null;
+            }
+        }
+    }
+
+    // This constructs a BTreeDisk of string keys and values.
+    static BTreeDisk<String, String> create(int thresholdCount) throws IOException {
+        return create(Paths.get(BTREE_DATA_FILENAME), thresholdCount, NodePage.DEFAULT_PAGE_SIZE);
+    }
+
+    static BTreeDisk<String, String> create(Path dataFile, int thresholdCount, int pageSize) throws IOException {
+        return new BTreeDisk<>(dataFile, thresholdCount, pageSize, Comparator.naturalOrder(), Codec.STRING,
+                Codec.STRING);
+    }
+
+    static BTreeDisk<String, String> create(Path dataFile, int thresholdCount, int pageSize,
+                                            PageStore.Compression compression) throws IOException {
+        return new BTreeDisk<>(dataFile, new Metadata(thresholdCount, pageSize, compression),
+                Comparator.naturalOrder(), Codec.STRING, Codec.STRING);
+    }
+
+    // This constructs a BTreeDisk in a new data file whose nodes are stored in pages of the given size.
+    BTreeDisk(Path dataFile, int thresholdCount, int pageSize, Comparator<? super K> comparator, Codec<K> keyCodec,
+              Codec<V> valueCodec) throws IOException {
+        this(dataFile, new Metadata(thresholdCount, pageSize), comparator, keyCodec, valueCodec);
+    }
+
+    // This constructs a BTreeDisk in a new data file laid out as the metadata describes.
+    BTreeDisk(Path dataFile, Metadata metadata, Comparator<? super K> comparator, Codec<K> keyCodec,
+              Codec<V> valueCodec) throws IOException {
+        setComparator(comparator);
+        setKeyCodec(keyCodec);
+        setValueCodec(valueCodec);
+        setMetadata(metadata);
+        setPageStore(PageStore.create(dataFile, metadata));
+        pageStore.setMetrics(metrics);
+        setLowerThreshold(metadata.getThresholdCount() - 1);
+        setHigherThreshold(2 * metadata.getThresholdCount() - 1);
+    }
+
+    // This builds a online BTreeDisk from an opened data file, the codecs have to be the ones it was written with.
+    // a root that cannot be read fails the open, and the page store is closed again.
+    BTreeDisk(PageStore pageStore, Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        setComparator(comparator);
+        setKeyCodec(keyCodec);
+        setValueCodec(valueCodec);
+        setPageStore(pageStore);
+        pageStore.setMetrics(metrics);
+        setMetadata(pageStore.getMetadata());
+        setLowerThreshold(metadata.getThresholdCount() - 1);
+        setHigherThreshold(2 * metadata.getThresholdCount() - 1);
+        if (metadata.getRootId() == NO_PAGE_ID) {
+            return;
+        }
+        root = new Node(metadata.getRootId());
+        try {
+            fault(root);
+            metrics.setHeight(measureHeight());
+        } catch (IOException | RuntimeException e) {
+            try {
+                pageStore.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+    }
+
+    // walks down the leftmost path, every leaf is at the same depth so that is the height of the tree.
+    private int measureHeight() throws IOException {
+        Node node = getRoot();
+        int height = 1;
+        bufferPool.pin(node);
+        try {
+            fault(node);
+            while (!node.isLeafNode()) {
+                Node child = node.getFirstChild();
+                bufferPool.pin(child);
+                bufferPool.unpin(node);
+                node = child;
+                fault(node);
+                height++;
+            }
+        } finally {
+            bufferPool.unpin(node);
+        }
+
+        return height;
+    }
+
+    static boolean isOnDisk() {
+        return Files.exists(Paths.get(BTREE_DATA_FILENAME));
+    }
+
+    // checkpoints the tree, writing out every dirty resident node and then the header.
+    // with a write ahead log the writes are logged as one batch before any of them are applied, so the data file
+    // always holds a complete checkpoint and the log only needs the operations since.
+    synchronized void serializeToDisk() throws IOException {
+        // the checkpoint empties the log, so whatever the log holds for the write buffer has to be in the tree first.
+        applyWriteBuffer();
+        // The root Id does not need to be kept uptodate until we serialize, so evaluate it here.
+        if (getRoot() != null) {
+            metadata.setRootId(getRoot().getId());
+        } else {
+            metadata.setRootId(NO_PAGE_ID);
+        }
+
+        if (writeAheadLog != null) {
+            pageStore.beginBatch();
+        }
+        for (Node node : bufferPool.getDirtyNodes()) {
+            node.serializeToDisk();
+        }
+        // the header page carries the metadata along with the page allocator state.
+        pageStore.flush();
+
+        if (writeAheadLog != null) {
+            List<PageStore.PendingWrite> pendingWrites = pageStore.endBatch();
+            writeAheadLog.logCheckpoint(pendingWrites);
+            PageStore.applyWrites(pageStore.getChannel(), pendingWrites);
+            writeAheadLog.reset();
+        }
+
+        // the nodes just written are clean, so the pool can shrink back to its budget.
+        bufferPool.evictToCapacity();
+        setCheckpointFailure(null);
+    }
+
+    // the write buffer and the message buffers take a null value for a delete, so a null value is refused
+    // instead of quietly deleting the key.
+    private void checkData(V data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Values cannot be null.");
+        }
+    }
+
+    // an entry that does not fit a full node is refused up front, once it is in a node that node could never be
+    // written out again and every checkpoint after would fail.
+    private void checkEntrySize(byte[] key, byte[] data) {
+        int maxEntrySize = metadata.getMaxEntrySize();
+        if (key.length + data.length > maxEntrySize) {
+            throw new IllegalArgumentException(String.format("An entry of %d bytes is larger than the %d bytes a " +
+                    "node has room for.", key.length + data.length, maxEntrySize));
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        IOException checkpointFailure = getCheckpointFailure();
+        if (checkpointFailure != null) {
+            throw new IOException("The last background checkpoint failed.", checkpointFailure);
+        }
+    }
+
+    static BTreeDisk<String, String> deserializeFromDisk() throws IOException {
+        return deserializeFromDisk(Paths.get(BTREE_DATA_FILENAME));
+    }
+
+    static BTreeDisk<String, String> deserializeFromDisk(Path dataFile) throws IOException {
+        return deserializeFromDisk(dataFile, Comparator.naturalOrder(), Codec.STRING, Codec.STRING);
+    }
+
+    // opens the tree in the data file, recovering it from its write ahead log if it has one.
+    static <K, V> BTreeDisk<K, V> deserializeFromDisk(Path dataFile, Comparator<? super K> comparator,
+                                                      Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return deserializeFromDisk(dataFile, comparator, keyCodec, valueCodec,
+                WriteAheadLog.SyncPolicy.EVERY_OPERATION, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    // the same, a recovered log goes on with the given sync policy.
+    static <K, V> BTreeDisk<K, V> deserializeFromDisk(Path dataFile, Comparator<? super K> comparator,
+                                                      Codec<K> keyCodec, Codec<V> valueCodec,
+                                                      WriteAheadLog.SyncPolicy syncPolicy,
+                                                      long syncIntervalMillis) throws IOException {
+        Path logFile = WriteAheadLog.getLogFile(dataFile);
+        if (!Files.exists(logFile)) {
+            return new BTreeDisk<>(PageStore.open(dataFile), comparator, keyCodec, valueCodec);
+        }
+
+        WriteAheadLog writeAheadLog = WriteAheadLog.open(logFile);
+        List<WriteAheadLog.Record> records = writeAheadLog.readRecords();
+
+        // first finish a checkpoint that made it into the log, its page writes may only have partly been applied.
+        List<PageStore.PendingWrite> pendingWrites = new ArrayList<>();
+        List<PageStore.PendingWrite> checkpointWrites = new ArrayList<>();
+        int replayFrom = 0;
+        for (int i = 0; i < records.size(); i++) {
+            WriteAheadLog.Record record = records.get(i);
+            if (record.getType() == WriteAheadLog.PAGE_WRITE) {
+                pendingWrites.add(record.getPageWrite());
+            } else if (record.getType() == WriteAheadLog.CHECKPOINT) {
+                checkpointWrites.addAll(pendingWrites);
+                pendingWrites.clear();
+                replayFrom = i + 1;
+            }
+        }
+        if (!checkpointWrites.isEmpty()) {
+            try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+                PageStore.applyWrites(channel, checkpointWrites);
+            }
+        }
+
+        // then replay the operations logged after it on top of the checkpointed tree. the log stays detached while
+        // it is replayed, so nothing checkpoints and resets it before every record is back in the tree, and without
+        // stealing the data file stays at the checkpoint until then.
+        BTreeDisk<K, V> bTreeDisk = new BTreeDisk<>(PageStore.open(dataFile), comparator, keyCodec, valueCodec);
+        bTreeDisk.getBufferPool().setNoSteal(true);
+        for (WriteAheadLog.Record record : records.subList(replayFrom, records.size())) {
+            if (record.getType() == WriteAheadLog.INSERT) {
+                bTreeDisk.applyInsert(new KeyData<>(keyCodec.decode(record.getKey()),
+                        valueCodec.decode(record.getData())));
+            } else if (record.getType() == WriteAheadLog.DELETE) {
+                bTreeDisk.applyDelete(keyCodec.decode(record.getKey()));
+            }
+        }
+        // a single checkpoint for the whole replay, logged like any other so that a crash in the middle of it is
+        // repaired the next time.
+        bTreeDisk.attachWriteAheadLog(writeAheadLog);
+        bTreeDisk.serializeToDisk();
+        writeAheadLog.setSyncPolicy(syncPolicy, syncIntervalMillis);
+
+        return bTreeDisk;
+    }
+
+    // starts logging every insert and delete, after a checkpoint that covers everything done so far.
+    void enableWriteAheadLog(WriteAheadLog.SyncPolicy syncPolicy, long syncIntervalMillis) throws IOException {
+        serializeToDisk();
+        WriteAheadLog writeAheadLog = WriteAheadLog.create(WriteAheadLog.getLogFile(pageStore.getPath()));
+        writeAheadLog.setSyncPolicy(syncPolicy, syncIntervalMillis);
+        attachWriteAheadLog(writeAheadLog);
+    }
+
+    private void attachWriteAheadLog(WriteAheadLog writeAheadLog) {
+        setWriteAheadLog(writeAheadLog);
+        // the data file has to stay at the last checkpoint, so dirty nodes wait for the next one.
+        bufferPool.setNoSteal(true);
+    }
+
+    // buffers inserts and deletes in memory and applies them to the tree in sorted batches of up to capacity entries,
+    // so a burst of writes to random keys dirties each node once per batch instead of once per key. with a write
+    // ahead log every write is still logged before it returns, so the buffer is as durable as the tree. scans
+    // apply the buffer to the tree before they start.
+    synchronized void enableWriteBuffer(int capacity) throws IOException {
+        flushWriteBuffer();
+        setWriteBuffer(new TreeMap<>(comparator));
+        setWriteBufferCapacity(capacity);
+    }
+
+    // applies the buffered writes to the tree, then checkpoints if that left the pool over capacity.
+    synchronized void flushWriteBuffer() throws IOException {
+        applyWriteBuffer();
+        checkpointIfOverCapacity();
+    }
+
+    // applies the buffered writes to the tree, the inserts as a single putAll, with checkpoints held off until all
+    // of them are in.
+    private void applyWriteBuffer() throws IOException {
+        if (writeBuffer == null || writeBuffer.isEmpty()) {
+            return;
+        }
+
+        // the writes go back into the buffer if applying them fails, the ones that did make it into the tree are
+        // harmless to apply again. no checkpoint ran in between, so the log still has all of them.
+        TreeMap<K, V> flushed = writeBuffer;
+        setWriteBuffer(new TreeMap<>(comparator));
+        List<KeyData<K, V>> inserts = new ArrayList<>();
+        List<K> deletes = new ArrayList<>();
+        for (Map.Entry<K, V> entry : flushed.entrySet()) {
+            if (entry.getValue() != null) {
+                inserts.add(new KeyData<>(entry.getKey(), entry.getValue()));
+            } else {
+                deletes.add(entry.getKey());
+            }
+        }
+
+        setCheckpointsDeferred(true);
+        try {
+            if (!inserts.isEmpty()) {
+                applyPutAll(inserts);
+            }
+            for (K key : deletes) {
+                applyDelete(key);
+            }
+        } catch (IOException | RuntimeException e) {
+            setWriteBuffer(flushed);
+            throw e;
+        } finally {
+            setCheckpointsDeferred(false);
+        }
+    }
+
+    // takes a logged write into the buffer, flushing it once it is full.
+    private void buffer(K key, V data) throws IOException {
+        writeBuffer.put(key, data);
+        if (writeBuffer.size() >= writeBufferCapacity) {
+            flushWriteBuffer();
+        }
+    }
+
+    // reads pages ahead on ioThreads background threads, a scan keeps distance subtrees in flight ahead of it.
+    void enablePrefetch(int ioThreads, int distance) {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        setPrefetcher(new Prefetcher(pageStore, ioThreads, Prefetcher.DEFAULT_MAX_PENDING));
+        setPrefetchDistance(distance);
+    }
+
+    void close() throws IOException {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+        pageStore.close();
+    }
+
+    // brings an evicted node back into memory, the caller is expected to hold a pin on it.
+    // a page read ahead for the node is used if there is one, which at most waits for the rest of that read.
+    private void fault(Node node) throws IOException {
+        if (node.isInMemory()) {
+            metrics.getCacheHits().increment();
+        } else {
+            metrics.getNodeFaults().increment();
+            NodePage page = (prefetcher != null) ? prefetcher.take(node.getId()) : null;
+            if (page != null) {
+                node.deserializeFromDisk(page);
+            } else {
+                node.deserializeFromDisk();
+            }
+            bufferPool.admit(node);
+        }
+    }
+
+    // faults the node in if needed and pins it until the current operation finishes.
+    Node pin(Node node) throws IOException {
+        bufferPool.pin(node);
+        pinnedNodes.add(node);
+        fault(node);
+
+        return node;
+    }
+
+    // reads a node ahead of when it is needed. with a prefetcher the read goes on in the background, without one
+    // the node is faulted in right away, as long as that does not push anything else out of the pool.
+    void prefetch(Node node) throws IOException {
+        if (node.isInMemory()) {
+            return;
+        }
+        if (prefetcher != null) {
+            prefetcher.prefetch(node.getId());
+        } else if (bufferPool.getResidentCount() < bufferPool.getCapacity()) {
+            fault(node);
+        }
+    }
+
+    // asks for the children the batch's runs will go down into, so that their reads overlap with the work on the
+    // runs before them. without a prefetcher this would only read them early on the calling thread, so it is skipped.
+    private void prefetchRuns(Node node, List<KeyData<K, V>> batch, int from, int to) {
+        if (prefetcher == null || node.isLeafNode()) {
+            return;
+        }
+
+        int i = from;
+        while (i < to) {
+            int index = node.searchIndex(batch.get(i).getKey());
+            if (index >= 0) {
+                i++;
+                continue;
+            }
+
+            Node child = node.getChild(-index - 1);
+            if (!child.isInMemory()) {
+                prefetcher.prefetch(child.getId());
+            }
+            i = getSubtreeRunEnd(node, -index - 1, batch, i, to);
+        }
+    }
+
+    private void unpinAll() {
+        for (Node node : pinnedNodes) {
+            bufferPool.unpin(node);
+        }
+        pinnedNodes.clear();
+    }
+
+    // new nodes start out dirty and pinned, as they have no page image yet.
+    private Node allocateNode() throws IOException {
+        Node node = new Node();
+        node.setInMemory(true);
+        bufferPool.pin(node);
+        pinnedNodes.add(node);
+        bufferPool.admit(node);
+        node.markDirty();
+
+        return node;
+    }
+
+    private int getSubtreeIndexOrInsertLeaf(Node node, KeyData<K, V> insertKeyData) {
+        int i = node.searchIndex(insertKeyData.getKey());
+        if (i >= 0) {
+            // for duplicates, we just replace current value.
+            node.getKeyData(i).setData(insertKeyData.getData());
+            node.markDirty();
+            return -1;
+        }
+
+        // the key belongs at the insertion point, either in this leaf or in the subtree at that index.
+        i = -i - 1;
+        if (node.isLeafNode()) {
+            node.insertKeyData(insertKeyData, i);
+            return -1;
+        }
+
+        return i;
+    }
+
+    private Node split(Node node, int index) throws IOException {
+        metrics.getSplits().increment();
+        // allocate the sibling node.
+        Node sibling = allocateNode();
+        // cache the key data list size as it will be the end marker for sibling lists.
+        int keyDataListSize = node.getKeyDataListSize();
+        // split the node's keydata and find the median, also split the childnodes.
+        List<List<KeyData<K, V>>> splitKeyDataList = node.splitKeyDataList(index, keyDataListSize);
+
+        // attach the split lists to appropriate nodes.
+        node.setKeyDataList(splitKeyDataList.get(0));
+        sibling.setKeyDataList(splitKeyDataList.get(1));
+        node.markDirty();
+        if (!node.isLeafNode()) {
+            List<List<Node>> splitChildList = node.splitChildList(index, keyDataListSize);
+
+            node.setChildNodes(splitChildList.get(0));
+            sibling.setChildNodes(splitChildList.get(1));
+        }
+
+        return sibling;
+    }
+
+    private Node connectNodeToNewRoot(Node node) throws IOException {
+        Node parent = allocateNode();
+        // we need to reset root here.
+        setRoot(parent);
+        parent.addChild(node);
+        metrics.setHeight(metrics.getHeight() + 1);
+
+        return parent;
+    }
+
+    private void insertAsRoot(KeyData<K, V> keyData) throws IOException {
+        Node node = allocateNode();
+        node.addKeyData(keyData);
+        setRoot(node);
+        metrics.setHeight(1);
+    }
+
+    private void insert(Node node, Node parent, int nodeIndex, KeyData<K, V> insertKeyData) throws IOException {
+        //               n1-n2-n3
+        if (node.isKeyDataAtHighThreshold()) {
+            // if the node is the root, create a new root and make node its child.
+            if (parent == null) {
+                parent = connectNodeToNewRoot(node);
+                nodeIndex = 0;
+            }
+
+            // split into 2, and push the median above.
+            //      n2
+            //    n1  n3
+            int newSize = (node.getKeyDataListSize() - 1)/ 2;
+            KeyData<K, V> medianKeyData = node.getKeyData(newSize);
+            Node sibling = split(node, newSize);
+            // attach the previous median and the sibling to the parent.
+            parent.insertKeyData(medianKeyData, nodeIndex);
+            parent.insertChild(sibling, nodeIndex + 1);
+
+            // after the split we need to reinsert from the parent.
+            node = parent;
+        }
+
+        // a negative implies the keydata either was added to a leaf node, or overwrote an existing key.
+        int i = getSubtreeIndexOrInsertLeaf(node, insertKeyData);
+        if (i >= 0) {
+            // bring node into memory, it stays pinned until the insert finishes.
+            Node child = pin(node.getChild(i));
+            insert(child, node, i, insertKeyData);
+        }
+    }
+
+    // copies of the entries sorted by key, the sort is stable so equal keys stay in the order they were given.
+    private List<KeyData<K, V>> sortedBatch(List<KeyData<K, V>> entries) {
+        List<KeyData<K, V>> batch = new ArrayList<>(entries.size());
+        for (KeyData<K, V> keyData : entries) {
+            batch.add(keyData.copy());
+        }
+        batch.sort(getKeyDataComparator());
+
+        return batch;
+    }
+
+    Comparator<KeyData<K, V>> getKeyDataComparator() {
+        return (a, b) -> comparator.compare(a.getKey(), b.getKey());
+    }
+
+    // null data (a deleted separator or a delete message) is stored as a tombstone.
+    private byte[] encodeData(V data) {
+        return (data != null) ? valueCodec.encode(data) : null;
+    }
+
+    private V decodeData(byte[] bytes) {
+        return (bytes != null) ? valueCodec.decode(bytes) : null;
+    }
+
+    // the end of the run of batch entries from 'from' on that go down into the child at childIndex, that is the
+    // entries below the key that follows the child in the node.
+    private int getSubtreeRunEnd(Node node, int childIndex, List<KeyData<K, V>> batch, int from, int to) {
+        if (childIndex == node.getKeyDataListSize()) {
+            return to;
+        }
+
+        K bound = node.getKeyData(childIndex).getKey();
+        int end = from + 1;
+        while (end < to && comparator.compare(batch.get(end).getKey(), bound) < 0) {
+            end++;
+        }
+
+        return end;
+    }
+
+    // a batch can grow a child well past the high threshold, so instead of splitting in two the child is cut into
+    // as many nodes as it takes to bring each back within the thresholds, with a separator moved up for each cut.
+    private void splitOverflow(Node parent, int childIndex) throws IOException {
+        Node child = parent.getChild(childIndex);
+        int size = child.getKeyDataListSize();
+        if (size <= getHigherThreshold()) {
+            return;
+        }
+
+        // n pieces hold size - (n - 1) keys between them, which averages out between the two thresholds.
+        int pieces = size / (getHigherThreshold() + 1) + 1;
+        int keys = size - (pieces - 1);
+        List<KeyData<K, V>> keyDataList = child.getKeyDataList();
+        List<Node> childNodes = child.getChildNodes();
+        metrics.getSplits().add(pieces - 1);
+
+        int start = 0;
+        for (int piece = 0; piece < pieces; piece++) {
+            int pieceSize = keys / pieces + (piece < keys % pieces ? 1 : 0);
+            Node node = (piece == 0) ? child : allocateNode();
+            node.setKeyDataList(new ArrayList<>(keyDataList.subList(start, start + pieceSize)));
+            if (!childNodes.isEmpty()) {
+                node.setChildNodes(new ArrayList<>(childNodes.subList(start, start + pieceSize + 1)));
+            }
+            node.markDirty();
+            if (piece > 0) {
+                parent.insertKeyData(keyDataList.get(start - 1), childIndex + piece - 1);
+                parent.insertChild(node, childIndex + piece);
+                applyBufferedMessage(parent, childIndex + piece - 1);
+            }
+            start += pieceSize + 1;
+        }
+
+        // the messages follow their keys into the pieces, the child keeps the ones below the first separator.
+        for (int piece = pieces - 1; piece > 0 && !child.getMessages().isEmpty(); piece--) {
+            SortedMap<K, V> above = child.getMessages().tailMap(parent.getKeyData(childIndex + piece - 1).getKey(),
+                    false);
+            if (!above.isEmpty()) {
+                parent.getChild(childIndex + piece).getMessageBuffer().putAll(above);
+                above.clear();
+            }
+        }
+    }
+
+    // applies the sorted batch to the subtree, a node is allowed to go over the high threshold until its parent
+    // has finished with it and splits it back. each child is faulted in and pinned once for its whole run.
+    private void putAll(Node node, List<KeyData<K, V>> batch, int from, int to) throws IOException {
+        prefetchRuns(node, batch, from, to);
+        int i = from;
+        while (i < to) {
+            // a negative implies the keydata either was added to a leaf node, or overwrote an existing key.
+            int index = getSubtreeIndexOrInsertLeaf(node, batch.get(i));
+            if (index < 0) {
+                i++;
+                continue;
+            }
+
+            int end = getSubtreeRunEnd(node, index, batch, i, to);
+            Node child = node.getChild(index);
+            bufferPool.pin(child);
+            try {
+                fault(child);
+                putAll(child, batch, i, end);
+                splitOverflow(node, index);
+            } finally {
+                bufferPool.unpin(child);
+            }
+            i = end;
+        }
+    }
+
+    // finds each batch entry's key, setting its data to the value found or null.
+    private void getAll(Node node, List<KeyData<K, V>> batch, int from, int to) throws IOException {
+        if (!node.getMessages().isEmpty()) {
+            // the probes with a message here are answered by it, the rest go on down as a batch of their own.
+            List<KeyData<K, V>> pending = new ArrayList<>(to - from);
+            for (KeyData<K, V> probe : batch.subList(from, to)) {
+                if (node.getMessages().containsKey(probe.getKey())) {
+                    probe.setData(node.getMessages().get(probe.getKey()));
+                } else {
+                    pending.add(probe);
+                }
+            }
+            batch = pending;
+            from = 0;
+            to = pending.size();
+        }
+        prefetchRuns(node, batch, from, to);
+        int i = from;
+        while (i < to) {
+            KeyData<K, V> probe = batch.get(i);
+            int index = node.searchIndex(probe.getKey());
+            if (index >= 0 || node.isLeafNode()) {
+                probe.setData(index >= 0 ? node.getKeyData(index).getData() : null);
+                i++;
+                continue;
+            }
+
+            int end = getSubtreeRunEnd(node, -index - 1, batch, i, to);
+            Node child = node.getChild(-index - 1);
+            bufferPool.pin(child);
+            try {
+                fault(child);
+                getAll(child, batch, i, end);
+            } finally {
+                bufferPool.unpin(child);
+            }
+            i = end;
+        }
+    }
+
+    private Node getSibling(Node node, Node parent) {
+        int index = parent.getIndex(node);
+
+        if (index > 0) {
+            return parent.getChild(index - 1);
+        } else {
+            return parent.getChild(index + 1);
+        }
+    }
+
+    private void inorder(Node node) throws IOException {
+        if (node == null) {
+            return;
+        }
+
+        // the node is only pinned while it is being walked, so a full walk stays within the pool budget.
+        bufferPool.pin(node);
+        try {
+            fault(node);
+            List<KeyData<K, V>> keyDataList = node.getKeyDataList();
+
+            for (int i = 0; i < keyDataList.size(); i++) {
+                inorder(node.getChild(i));
+                System.out.println(keyDataList.get(i));
+            }
+
+            // there will be one more child node than the number of keys in this node for every intermediate node.
+            inorder(node.getChild(keyDataList.size()));
+        } finally {
+            bufferPool.unpin(node);
+        }
+    }
+
+    // the log record is appended and the tree updated under the tree's monitor, but the wait for the record to be
+    // durable happens outside of it so that concurrent writers can share an fsync.
+    public void insert(K key, V data) throws IOException {
+        checkData(data);
+        long start = System.nanoTime();
+        KeyData<K, V> keyData = new KeyData<>(key, data);
+        byte[] encodedKey = keyCodec.encode(key);
+        byte[] encodedData = valueCodec.encode(data);
+        long lsn = 0;
+
+        synchronized (this) {
+            checkWritable();
+            checkEntrySize(encodedKey, encodedData);
+            if (writeAheadLog != null) {
+                lsn = writeAheadLog.logInsert(encodedKey, encodedData);
+            }
+            if (writeBuffer != null) {
+                buffer(key, data);
+            } else {
+                applyInsert(keyData);
+            }
+            modificationCount++;
+        }
+
+        if (writeAheadLog != null) {
+            writeAheadLog.commit(lsn);
+        }
+        metrics.getInsertLatency().recordSince(start);
+    }
+
+    public V get(K key) throws IOException {
+        long start = System.nanoTime();
+        V data = find(key);
+        metrics.getLookupLatency().recordSince(start);
+
+        return data;
+    }
+
+    // point lookup, nodes are faulted in and pinned hand over hand on the way down, and for resident nodes nothing
+    // is allocated.
+    private synchronized V find(K key) throws IOException {
+        if (writeBuffer != null && writeBuffer.containsKey(key)) {
+            return writeBuffer.get(key);
+        }
+
+        Node node = getRoot();
+        if (node == null) {
+            return null;
+        }
+
+        bufferPool.pin(node);
+        try {
+            fault(node);
+            while (true) {
+                // a message is newer than anything below it.
+                if (!node.getMessages().isEmpty() && node.getMessages().containsKey(key)) {
+                    return node.getMessages().get(key);
+                }
+                int index = node.searchIndex(key);
+                if (index >= 0) {
+                    return node.getKeyData(index).getData();
+                }
+                if (node.isLeafNode()) {
+                    return null;
+                }
+
+                Node child = node.getChild(-index - 1);
+                bufferPool.pin(child);
+                bufferPool.unpin(node);
+                node = child;
+                fault(node);
+            }
+        } finally {
+            bufferPool.unpin(node);
+        }
+    }
+
+    public boolean containsKey(K key) throws IOException {
+        return get(key) != null;
+    }
+
+    // looks up a batch of keys in a single walk of the tree, so a node that several keys go through is faulted in
+    // once per batch rather than once per key. the values come back in the order of keys, null for a missing key.
+    public List<V> getAll(List<K> keys) throws IOException {
+        List<KeyData<K, V>> probes = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            probes.add(new KeyData<>(key, null));
+        }
+
+        synchronized (this) {
+            // the batch shares the probes, so the values found land in them. keys in the write buffer are answered
+            // from it.
+            List<KeyData<K, V>> batch = new ArrayList<>(probes.size());
+            for (KeyData<K, V> probe : probes) {
+                if (writeBuffer != null && writeBuffer.containsKey(probe.getKey())) {
+                    probe.setData(writeBuffer.get(probe.getKey()));
+                } else {
+                    batch.add(probe);
+                }
+            }
+
+            Node root = getRoot();
+            if (root != null) {
+                batch.sort(getKeyDataComparator());
+                bufferPool.pin(root);
+                try {
+                    fault(root);
+                    getAll(root, batch, 0, batch.size());
+                } finally {
+                    bufferPool.unpin(root);
+                }
+            }
+        }
+
+        List<V> values = new ArrayList<>(keys.size());
+        for (KeyData<K, V> probe : probes) {
+            values.add(probe.getData());
+        }
+
+        return values;
+    }
+
+    // inserts a batch of entries in a single walk of the tree, the entries that land in the same node are applied
+    // together. every entry is logged, but the batch only waits for the log once. for equal keys the last one
+    // wins, as if they had been inserted one by one.
+    public void putAll(List<KeyData<K, V>> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<byte[]> encodedKeys = new ArrayList<>(entries.size());
+        List<byte[]> encodedDataList = new ArrayList<>(entries.size());
+        for (KeyData<K, V> keyData : entries) {
+            checkData(keyData.getData());
+            encodedKeys.add(keyCodec.encode(keyData.getKey()));
+            encodedDataList.add(valueCodec.encode(keyData.getData()));
+        }
+        List<KeyData<K, V>> batch = sortedBatch(entries);
+        long lsn = 0;
+
+        synchronized (this) {
+            checkWritable();
+            for (int i = 0; i < entries.size(); i++) {
+                checkEntrySize(encodedKeys.get(i), encodedDataList.get(i));
+            }
+            if (writeAheadLog != null) {
+                // logged in the order given, so a replay leaves the same entry behind for equal keys.
+                for (int i = 0; i < entries.size(); i++) {
+                    lsn = writeAheadLog.logInsert(encodedKeys.get(i), encodedDataList.get(i));
+                }
+            }
+            if (writeBuffer != null) {
+                for (KeyData<K, V> keyData : batch) {
+                    buffer(keyData.getKey(), keyData.getData());
+                }
+            } else {
+                applyPutAll(batch);
+            }
+            modificationCount++;
+        }
+
+        if (writeAheadLog != null) {
+            writeAheadLog.commit(lsn);
+        }
+    }
+
+    public boolean delete(K key) throws IOException {
+        long start = System.nanoTime();
+        byte[] encodedKey = keyCodec.encode(key);
+        boolean deleted;
+        long lsn = 0;
+
+        synchronized (this) {
+            checkWritable();
+            // a key too large to have been inserted is not in the tree, and a delete message for it would not fit
+            // a node either.
+            if (encodedKey.length > metadata.getMaxEntrySize()) {
+                return false;
+            }
+            if (writeBuffer != null) {
+                // a delete reports whether the key was there, so a buffered delete still has to look for it.
+                deleted = find(key) != null;
+                if (deleted && writeAheadLog != null) {
+                    lsn = writeAheadLog.logDelete(encodedKey);
+                }
+                if (deleted) {
+                    buffer(key, null);
+                }
+            } else {
+                if (writeAheadLog != null) {
+                    lsn = writeAheadLog.logDelete(encodedKey);
+                }
+                deleted = applyDelete(key);
+            }
+            modificationCount++;
+        }
+
+        if (writeAheadLog != null) {
+            writeAheadLog.commit(lsn);
+        }
+        metrics.getDeleteLatency().recordSince(start);
+
+        return deleted;
+    }
+
+    private void applyInsert(KeyData<K, V> keyData) throws IOException {
+        if (isMessageBuffered()) {
+            TreeMap<K, V> messages = new TreeMap<>(comparator);
+            messages.put(keyData.getKey(), keyData.getData());
+            applyMessages(messages);
+            return;
+        }
+
+        try {
+            if (getRoot() == null) {
+                insertAsRoot(keyData);
+            } else {
+                insert(pin(getRoot()), null, -1, keyData);
+            }
+        } finally {
+            unpinAll();
+        }
+        checkpointIfOverCapacity();
+    }
+
+    private void applyPutAll(List<KeyData<K, V>> batch) throws IOException {
+        if (isMessageBuffered()) {
+            // the batch is sorted stably, so the last of equal keys is the one left in the map.
+            TreeMap<K, V> messages = new TreeMap<>(comparator);
+            for (KeyData<K, V> keyData : batch) {
+                messages.put(keyData.getKey(), keyData.getData());
+            }
+            applyMessages(messages);
+            return;
+        }
+
+        try {
+            if (getRoot() == null) {
+                setRoot(allocateNode());
+                metrics.setHeight(1);
+            }
+            putAll(pin(getRoot()), batch, 0, batch.size());
+            // the root has no parent to split it, so it gets new roots until it is back within the threshold.
+            while (getRoot().getKeyDataListSize() > getHigherThreshold()) {
+                splitOverflow(connectNodeToNewRoot(getRoot()), 0);
+            }
+        } finally {
+            unpinAll();
+        }
+        checkpointIfOverCapacity();
+    }
+
+    private boolean applyDelete(K key) throws IOException {
+        if (isMessageBuffered()) {
+            // a delete message for a key that is not there would only take up room on its way down.
+            if (find(key) == null) {
+                return false;
+            }
+            TreeMap<K, V> messages = new TreeMap<>(comparator);
+            messages.put(key, null);
+            applyMessages(messages);
+            return true;
+        }
+
+        if (getRoot() == null) {
+            return false;
+        }
+
+        try {
+            return delete(pin(getRoot()), key);
+        } finally {
+            unpinAll();
+            checkpointIfOverCapacity();
+        }
+    }
+
+    boolean isMessageBuffered() {
+        return metadata.getMessageBufferCapacity() > 0;
+    }
+
+    // turns the tree into a B-epsilon tree: inserts and deletes become messages that are buffered in the root and
+    // pushed down a level at a time, a run of messages for one child at once, whenever a node's buffer holds more
+    // than capacity of them. a write then dirties the root instead of a whole path, and a node further down is
+    // written once per flush into it rather than once per key. lookups check the buffers on the way down and scans
+    // merge them in, so reads see every write as before.
+    // the setting is kept in the data file and cannot be turned off again. a node page has to have room for the
+    // buffer next to the node's keys, which leaves less room for each entry, so the entries already in the tree are
+    // checked against the smaller limit first.
+    synchronized void enableMessageBuffers(int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The message buffer capacity has to be positive.");
+        }
+        if (isMessageBuffered()) {
+            throw new IllegalStateException("Message buffers are already enabled.");
+        }
+        int maxEntrySize = NodePage.getMaxEntrySize(metadata.getNodeSize(), higherThreshold, capacity);
+        if (maxEntrySize < 0) {
+            throw new IllegalArgumentException(String.format("A node with %d messages does not fit in a %d byte " +
+                    "node image.", capacity, metadata.getNodeSize()));
+        }
+        try (Cursor cursor = scan(null, null)) {
+            while (cursor.hasNext()) {
+                KeyData<K, V> keyData = cursor.next();
+                int entrySize = keyCodec.encode(keyData.getKey()).length +
+                        valueCodec.encode(keyData.getData()).length;
+                if (entrySize > maxEntrySize) {
+                    throw new IllegalArgumentException(String.format("The tree holds an entry of %d bytes, with " +
+                            "%d messages a node only has room for %d bytes.", entrySize, capacity, maxEntrySize));
+                }
+            }
+        }
+
+        metadata.setMessageBufferCapacity(capacity);
+        // the checkpoint records the setting, so a recovery replays the log the same way.
+        serializeToDisk();
+    }
+
+    // hands the messages to the root, and flushes it until its buffer is back within capacity.
+    private void applyMessages(TreeMap<K, V> messages) throws IOException {
+        try {
+            if (getRoot() == null) {
+                // an empty tree only has to hear about the upserts.
+                messages.values().removeIf(Objects::isNull);
+                if (messages.isEmpty()) {
+                    return;
+                }
+                setRoot(allocateNode());
+                metrics.setHeight(1);
+            }
+
+            Node root = pin(getRoot());
+            receive(root, messages);
+            while (!root.isLeafNode() && root.getMessages().size() > metadata.getMessageBufferCapacity()) {
+                flushLargestRun(root);
+            }
+            fixRoot();
+        } finally {
+            unpinAll();
+        }
+        checkpointIfOverCapacity();
+    }
+
+    // takes messages into a node, over whatever older messages it has for the same keys. a message for one of the
+    // node's own keys is applied to it, in an internal node a delete leaves the key behind with null data as it still
+    // separates the subtrees. a leaf applies every message, an internal node buffers the rest for its subtrees.
+    private void receive(Node node, SortedMap<K, V> incoming) {
+        for (Map.Entry<K, V> message : incoming.entrySet()) {
+            int index = node.searchIndex(message.getKey());
+            if (index >= 0) {
+                if (message.getValue() == null && node.isLeafNode()) {
+                    node.deleteKeyData(index);
+                } else {
+                    node.getKeyData(index).setData(message.getValue());
+                }
+            } else if (node.isLeafNode()) {
+                if (message.getValue() != null) {
+                    node.insertKeyData(new KeyData<>(message.getKey(), message.getValue()), -index - 1);
+                }
+            } else {
+                node.getMessageBuffer().put(message.getKey(), message.getValue());
+            }
+        }
+        node.markDirty();
+    }
+
+    // a key that has just become one of the node's own takes the node's message for it, if there is one.
+    private void applyBufferedMessage(Node node, int index) {
+        KeyData<K, V> keyData = node.getKeyData(index);
+        if (!node.getMessages().isEmpty() && node.getMessages().containsKey(keyData.getKey())) {
+            keyData.setData(node.getMessages().remove(keyData.getKey()));
+            node.markDirty();
+        }
+    }
+
+    // the node's messages for the subtree at childIndex, that is the ones between the keys either side of it.
+    private NavigableMap<K, V> getSubtreeMessages(Node node, int childIndex) {
+        NavigableMap<K, V> messages = node.getMessages();
+        if (childIndex > 0) {
+            messages = messages.tailMap(node.getKeyData(childIndex - 1).getKey(), false);
+        }
+        if (childIndex < node.getKeyDataListSize()) {
+            messages = messages.headMap(node.getKeyData(childIndex).getKey(), false);
+        }
+
+        return messages;
+    }
+
+    // moves the biggest run of messages for a single child down into it, so each flush writes the child once for
+    // as many messages as possible.
+    private void flushLargestRun(Node node) throws IOException {
+        // the messages are in key order, so the ones for a child come in a single run.
+        int largestIndex = -1;
+        int largestSize = 0;
+        int runIndex = -1;
+        int runSize = 0;
+        for (K key : node.getMessages().keySet()) {
+            int index = -node.searchIndex(key) - 1;
+            if (index != runIndex) {
+                runIndex = index;
+                runSize = 0;
+            }
+            if (++runSize > largestSize) {
+                largestIndex = runIndex;
+                largestSize = runSize;
+            }
+        }
+
+        metrics.getFlushes().increment();
+        Node child = pin(node.getChild(largestIndex));
+        NavigableMap<K, V> run = getSubtreeMessages(node, largestIndex);
+        receive(child, run);
+        run.clear();
+        node.markDirty();
+        rebalanceChild(node, largestIndex);
+    }
+
+    // brings a child that was just changed back within its buffer capacity and the key thresholds.
+    private void rebalanceChild(Node node, int index) throws IOException {
+        settle(node, index);
+        if (node.getChild(index).getKeyDataListSize() < getLowerThreshold() && node.getChildNodesSize() > 1) {
+            fixUnderflow(node, index);
+        }
+    }
+
+    // flushes the child's buffer until it is within capacity, then splits the child if it has too many keys.
+    // the pieces of a split share out its messages, so they stay within capacity as well.
+    private void settle(Node node, int index) throws IOException {
+        Node child = node.getChild(index);
+        while (!child.isLeafNode() && child.getMessages().size() > metadata.getMessageBufferCapacity()) {
+            flushLargestRun(child);
+        }
+        splitOverflow(node, index);
+    }
+
+    // merges a child that fell under the low threshold with a sibling, or if the two hold too many keys for one node
+    // shares the keys out evenly between them. a flush can leave a child with few or no keys, so unlike a delete this
+    // works with any sizes. a node that something further down takes keys from again stays under the threshold until
+    // a later flush gets to it, which only costs space.
+    private void fixUnderflow(Node node, int index) throws IOException {
+        int left = (index < node.getChildNodesSize() - 1) ? index : index - 1;
+        Node leftNode = pin(node.getChild(left));
+        Node rightNode = pin(node.getChild(left + 1));
+        KeyData<K, V> separator = node.getKeyData(left);
+
+        // a deleted separator only has to stay while it separates subtrees, between two leaves it can go.
+        List<KeyData<K, V>> keyDataList = new ArrayList<>(leftNode.getKeyDataList());
+        if (!leftNode.isLeafNode() || separator.getData() != null) {
+            keyDataList.add(separator);
+        }
+        keyDataList.addAll(rightNode.getKeyDataList());
+        List<Node> childNodes = new ArrayList<>(leftNode.getChildNodes());
+        childNodes.addAll(rightNode.getChildNodes());
+        // the two buffers hold messages for disjoint key ranges.
+        if (!rightNode.getMessages().isEmpty()) {
+            leftNode.getMessageBuffer().putAll(rightNode.getMessages());
+            rightNode.setMessages(null);
+        }
+        NavigableMap<K, V> messages = leftNode.getMessages();
+
+        if (keyDataList.size() <= getHigherThreshold()) {
+            metrics.getMerges().increment();
+            leftNode.setKeyDataList(keyDataList);
+            leftNode.setChildNodes(childNodes);
+            leftNode.markDirty();
+            node.deleteKeyData(left);
+            node.deleteChild(left + 1);
+
+            // the right node is gone, its page can be reused.
+            rightNode.getKeyDataList().clear();
+            rightNode.getChildNodes().clear();
+            bufferPool.remove(rightNode);
+            pageStore.freePage(rightNode.getId());
+            settle(node, left);
+            return;
+        }
+
+        metrics.getRotations().increment();
+        int middle = keyDataList.size() / 2;
+        KeyData<K, V> middleKeyData = keyDataList.get(middle);
+        leftNode.setKeyDataList(new ArrayList<>(keyDataList.subList(0, middle)));
+        rightNode.setKeyDataList(new ArrayList<>(keyDataList.subList(middle + 1, keyDataList.size())));
+        if (!childNodes.isEmpty()) {
+            leftNode.setChildNodes(new ArrayList<>(childNodes.subList(0, middle + 1)));
+            rightNode.setChildNodes(new ArrayList<>(childNodes.subList(middle + 1, childNodes.size())));
+        }
+        SortedMap<K, V> above = messages.tailMap(middleKeyData.getKey(), false);
+        if (!above.isEmpty()) {
+            rightNode.getMessageBuffer().putAll(above);
+            above.clear();
+        }
+        leftNode.markDirty();
+        rightNode.markDirty();
+        node.getKeyDataList().set(left, middleKeyData);
+        node.markDirty();
+        applyBufferedMessage(node, left);
+
+        // either side can have ended up with more messages than fit, the right one goes first so left stays put.
+        settle(node, left + 1);
+        settle(node, left);
+    }
+
+    // the root has no parent to split or merge it, so it gets a new root while it has too many keys, and without
+    // keys it hands its messages to its only child, which becomes the root.
+    private void fixRoot() throws IOException {
+        while (true) {
+            Node root = getRoot();
+            if (root.getKeyDataListSize() > getHigherThreshold()) {
+                splitOverflow(connectNodeToNewRoot(root), 0);
+            } else if (root.getKeyDataListSize() > 0) {
+                return;
+            } else if (root.isLeafNode()) {
+                // the last key is gone, so the tree is empty.
+                setRoot(null);
+                bufferPool.remove(root);
+                pageStore.freePage(root.getId());
+                metrics.setHeight(0);
+                return;
+            } else {
+                Node child = pin(root.getFirstChild());
+                receive(child, root.getMessages());
+                setRoot(child);
+                root.setMessages(null);
+                root.getChildNodes().clear();
+                bufferPool.remove(root);
+                pageStore.freePage(root.getId());
+                metrics.setHeight(metrics.getHeight() - 1);
+                while (!child.isLeafNode() && child.getMessages().size() > metadata.getMessageBufferCapacity()) {
+                    flushLargestRun(child);
+                }
+            }
+        }
+    }
+
+    // without stealing, dirty nodes pile up in the pool until a checkpoint cleans them.
+    private void checkpointIfOverCapacity() throws IOException {
+        if (writeAheadLog == null || checkpointsDeferred || !bufferPool.isOverCapacity()) {
+            return;
+        }
+
+        // the pins just released may be all that kept clean nodes around.
+        bufferPool.evictToCapacity();
+        if (bufferPool.isOverCapacity()) {
+            serializeToDisk();
+        }
+    }
+
+    private boolean delete(Node node, K key) throws IOException {
+
+        // every node other than root is pre-vetted for minimum threshold.
+        while (!node.isLeafNode()) {
+            // check if node has the key.
+            SearchData searchData = node.search(key);
+
+            if (searchData.found) {
+                // For a successful find, index i and i+1 will both point to valid child nodes.
+                // For the last node the only valid sibling is the previous node.
+                // verify that this logic works for the last key as well.
+                Node child = pin(node.getChild(searchData.keyIndex));
+                Node sibling = pin(node.getSibling(searchData.keyIndex));
+                //i, i + 1
+                if (child.isKeyDataAtLowThreshold() && sibling.isKeyDataAtLowThreshold()) {
+                    node.mergeSubTrees(searchData.keyIndex);
+                    node = child;
+                    continue;
+                } else if (!child.isKeyDataAtLowThreshold()) {
+                    // we need to find the predecessor in the left subtree. since this will be a leaf.
+                    KeyData<K, V> predecessorKeyData = child.getNodeWithLargestKey().getLastKeyData().copy();
+                    node.replaceKeyData(predecessorKeyData, searchData.keyIndex);
+                    node = child;
+                    key = predecessorKeyData.getKey();
+                } else {
+                    // we need to find the successor in the right subtree. since this will be a leaf.
+                    KeyData<K, V> successorKeyData = sibling.getNodeWithSmallestKey().getFirstKeyData().copy();
+                    node.replaceKeyData(successorKeyData, searchData.keyIndex);
+                    node = sibling;
+                    key = successorKeyData.getKey();
+                }
+            } else {
+                // here searchdata.keyIndex refers to the child index for subtree where key if present will be found.
+                Node child = pin(node.getChild(searchData.childIndex));
+                Node sibling = pin(node.getSibling(searchData.childIndex));
+                int childKeyIndex = (searchData.childIndex < node.getChildNodesSize() - 1) ?
+                        searchData.childIndex : searchData.childIndex - 1;
+
+                if (child.isKeyDataAtLowThreshold() && sibling.isKeyDataAtLowThreshold()) {
+                    // if both child and sibling are at lower threshold merge them with the node keydata into new child node.
+                    // this will reduce a keydata in the node, but since node is already above low threshold this is fine.
+                    node.mergeSubTrees(childKeyIndex);
+                    // the merged node will always be the left child of the node, so set it to sibling if it is the left node.
+                    if (childKeyIndex == searchData.childIndex) {
+                        node = child;
+                    } else {
+                        node = sibling;
+                    }
+                } else if (child.isKeyDataAtLowThreshold()) {
+                    // we need to ensure child has enough keys for the invariant to be made as child will become node.
+                    KeyData<K, V> keyData = node.getKeyData(childKeyIndex).copy();
+                    metrics.getRotations().increment();
+
+                    if (searchData.childIndex < node.getChildNodesSize() - 1) {
+                        // rotate left.
+                        node.replaceKeyData(sibling.deleteAndReturnFirstKeyData(), childKeyIndex);
+                        child.addKeyData(keyData);
+                        if (!child.isLeafNode()) {
+                            child.addChild(sibling.deleteAndReturnFirstChild());
+                        }
+                    } else {
+                        // rotate right.
+                        node.replaceKeyData(sibling.deleteAndReturnLastKeyData(), childKeyIndex);
+                        child.insertHeadKeyData(keyData);
+                        if (!child.isLeafNode()) {
+                            child.insertHeadChild(sibling.deleteAndReturnLastChild());
+                        }
+                    }
+                    // child is the candidate to continue the search into.
+                    node = child;
+                } else {
+                    // child is the candidate to continue the search into.
+                    node = child;
+                }
+            }
+        }
+
+        // if the search has concluded in a leaf, its a simple yes/no answer.
+        if (node.isLeafNode()) {
+            SearchData searchData = node.search(key);
+            if (searchData.found) {
+                node.deleteAndReturnKeyData(searchData.keyIndex);
+
+                // if this is the last key deleted from a root leaf, then the BTree is empty.
+                if (node == getRoot() && node.getKeyDataListSize() == 0) {
+                    setRoot(null);
+                    bufferPool.remove(node);
+                    pageStore.freePage(node.getId());
+                    metrics.setHeight(0);
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // ordered range scan over [fromKey, toKey], a null bound leaves that end open.
+    // the write buffer is flushed and the cursor positioned under one hold of the monitor, so no write lands in
+    // between and goes missing from the scan.
+    public synchronized Cursor scan(K fromKey, K toKey) throws IOException {
+        flushWriteBuffer();
+        return new Cursor(fromKey, toKey, false);
+    }
+
+    public synchronized Cursor scanReverse(K fromKey, K toKey) throws IOException {
+        flushWriteBuffer();
+        return new Cursor(fromKey, toKey, true);
+    }
+
+    // closing the stream releases the cursor's pins if it is not read to the end.
+    public Stream<KeyData<K, V>> stream(K fromKey, K toKey) throws IOException {
+        Cursor cursor = scan(fromKey, toKey);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(cursor::close);
+    }
+
+    // serializing no longer walks the tree, it checkpoints just the dirty nodes once each.
+    public synchronized void inorder(boolean serialize) throws IOException {
+        if (serialize) {
+            serializeToDisk();
+        } else {
+            inorder(getRoot());
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        BTreeDisk<String, String> bTreeDisk;
+        // we serialize the btree on disk on 2 occasions.
+        // once on creation and the other time when root changes.
+        if (BTreeDisk.isOnDisk()) {
+            bTreeDisk = BTreeDisk.deserializeFromDisk();
+        } else {
+            bTreeDisk = BTreeDisk.create(5);
+        }
+
+        for (int i = 0; i < 300; i++) {
+            bTreeDisk.insert("key" + i, "data" + i);
+        }
+        bTreeDisk.serializeToDisk();
+
+        for (int i = 0; i < 100; i++) {
+            bTreeDisk.delete("key" + i * 2);
+        }
+        bTreeDisk.serializeToDisk();
+        bTreeDisk.close();
+    }
+}
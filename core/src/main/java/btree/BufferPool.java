@@ -0,0 +1,135 @@
+package btree;
+
+import lombok.*;
+
+import java.io.IOException;
+import java.util.*;
+
+// Keeps a bounded number of BTreeDisk nodes resident, evicting with the CLOCK algorithm.
+//
+// every resident node sits in the clock ring and in the page table, a node that is pinned is never evicted and a
+// node that has been used since the clock hand last passed it gets a second chance. dirty victims are written back
+// to their page before they are dropped, and an evicted node stays linked to its parent as a non resident stub
+// which is faulted back in on the next access.
+//
+// with noSteal set dirty nodes are never evicted, the tree checkpoints them instead. this keeps the data file at
+// the last checkpoint, which is what the write ahead log is replayed against.
+@Getter @Setter
+public class BufferPool<K, V> {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    int capacity;
+    Map<Long, BTreeDisk<K, V>.Node> residentNodes = new HashMap<>();
+    List<BTreeDisk<K, V>.Node> clock = new ArrayList<>();
+    int clockHand;
+    boolean noSteal;
+    // resident nodes modified since they were last written, in the order they were first modified.
+    Set<BTreeDisk<K, V>.Node> dirtyNodes = new LinkedHashSet<>();
+
+    BufferPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer pool needs room for at least one node.");
+        }
+        this.capacity = capacity;
+    }
+
+    static <K, V> BufferPool<K, V> withByteBudget(long budgetBytes, int pageSize) {
+        return new BufferPool<>((int) Math.max(1, budgetBytes / pageSize));
+    }
+
+    int getResidentCount() {
+        return clock.size();
+    }
+
+    boolean isOverCapacity() {
+        return clock.size() > capacity;
+    }
+
+    // a copy, as writing the nodes out removes them from the dirty set.
+    List<BTreeDisk<K, V>.Node> getDirtyNodes() {
+        return new ArrayList<>(dirtyNodes);
+    }
+
+    int getDirtyCount() {
+        return dirtyNodes.size();
+    }
+
+    void addDirty(BTreeDisk<K, V>.Node node) {
+        dirtyNodes.add(node);
+    }
+
+    void removeDirty(BTreeDisk<K, V>.Node node) {
+        dirtyNodes.remove(node);
+    }
+
+    BTreeDisk<K, V>.Node lookup(long pageId) {
+        return residentNodes.get(pageId);
+    }
+
+    void pin(BTreeDisk<K, V>.Node node) {
+        node.setPinCount(node.getPinCount() + 1);
+        node.setReferenced(true);
+    }
+
+    void unpin(BTreeDisk<K, V>.Node node) {
+        node.setPinCount(node.getPinCount() - 1);
+    }
+
+    // makes a node that was just faulted in or allocated resident, evicting others if the pool is over capacity.
+    void admit(BTreeDisk<K, V>.Node node) throws IOException {
+        residentNodes.put(node.getId(), node);
+        node.setFrameIndex(clock.size());
+        node.setReferenced(true);
+        clock.add(node);
+
+        evictToCapacity();
+    }
+
+    // drops a node from the pool without writing it back, used when its page is freed.
+    void remove(BTreeDisk<K, V>.Node node) {
+        int frameIndex = node.getFrameIndex();
+        if (frameIndex < 0 || frameIndex >= clock.size() || clock.get(frameIndex) != node) {
+            return;
+        }
+
+        // move the last frame into the hole, so the ring stays dense.
+        BTreeDisk<K, V>.Node last = clock.remove(clock.size() - 1);
+        if (last != node) {
+            clock.set(frameIndex, last);
+            last.setFrameIndex(frameIndex);
+        }
+        residentNodes.remove(node.getId());
+        dirtyNodes.remove(node);
+        node.setFrameIndex(-1);
+    }
+
+    private void evict(BTreeDisk<K, V>.Node node) throws IOException {
+        if (node.isDirty()) {
+            node.serializeToDisk();
+        }
+        remove(node);
+        node.evict();
+    }
+
+    void evictToCapacity() throws IOException {
+        // each node is looked at most twice, once to clear its reference bit and once to evict it.
+        // if everything is pinned the pool is allowed to run over capacity until the pins are released.
+        int looks = 2 * clock.size();
+        while (clock.size() > capacity && looks-- > 0) {
+            if (clockHand >= clock.size()) {
+                clockHand = 0;
+            }
+
+            BTreeDisk<K, V>.Node node = clock.get(clockHand);
+            if (node.getPinCount() > 0 || (noSteal && node.isDirty())) {
+                clockHand++;
+            } else if (node.isReferenced()) {
+                node.setReferenced(false);
+                clockHand++;
+            } else {
+                // the last frame is moved into the hand's slot, so the hand stays where it is.
+                evict(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package btree;
+
+import lombok.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+// Builds a BTreeDisk bottom up from entries in key order, instead of inserting them one at a time.
+//
+// each level has one open node that entries (or separators and children) are appended to. once the open node holds
+// the target number of keys, the next key that reaches the level becomes the separator after it, and the node is
+// closed. a closed node is held back together with that separator until the next node on the level closes, only
+// then is it written and handed to the level above. so when the input ends, the last two nodes of every level and
+// the separator between them are still in hand, and an underfull last node can be merged with or topped up from its
+// neighbour before anything above is fixed.
+//
+// page ids are only allocated when a node is written, children before parents, so every page is written exactly
+// once and in file order.
+@Getter @Setter
+public class BulkLoader<K, V> {
+    static final double DEFAULT_FILL_FACTOR = 0.9;
+
+    @Getter @Setter
+    class PendingNode {
+        List<BTreeDisk.KeyData<K, V>> keyDataList = new ArrayList<>();
+        List<Long> childIds = new ArrayList<>();
+    }
+
+    @Getter @Setter
+    class Level {
+        PendingNode open = new PendingNode();
+        // the last closed node and the separator after it, not yet handed to the level above.
+        PendingNode closed;
+        BTreeDisk.KeyData<K, V> closedSeparator;
+    }
+
+    PageStore pageStore;
+    Comparator<? super K> comparator;
+    Codec<K> keyCodec;
+    Codec<V> valueCodec;
+    int lowerThreshold;
+    int higherThreshold;
+    int targetKeys;
+    List<Level> levels = new ArrayList<>();
+    NodePage page;
+    BTreeDisk.KeyData<K, V> lastKeyData;
+
+    BulkLoader(PageStore pageStore, double fillFactor, Comparator<? super K> comparator, Codec<K> keyCodec,
+               Codec<V> valueCodec) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor has to be in (0, 1].");
+        }
+        this.pageStore = pageStore;
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.page = NodePage.allocate(pageStore.getMetadata().getNodeSize());
+        this.lowerThreshold = pageStore.getMetadata().getThresholdCount() - 1;
+        this.higherThreshold = 2 * pageStore.getMetadata().getThresholdCount() - 1;
+
+        // nodes are filled to the target, but never below what a delete would leave behind.
+        int target = (int) Math.round(fillFactor * higherThreshold);
+        this.targetKeys = Math.max(Math.max(1, lowerThreshold), Math.min(higherThreshold, target));
+    }
+
+    static BTreeDisk<String, String> load(Path dataFile, int thresholdCount, int pageSize,
+                                          Iterator<BTreeDisk.KeyData<String, String>> sortedKeyData,
+                                          double fillFactor) throws IOException {
+        return load(dataFile, thresholdCount, pageSize, sortedKeyData, fillFactor, Comparator.naturalOrder(),
+                Codec.STRING, Codec.STRING);
+    }
+
+    static <K, V> BTreeDisk<K, V> load(Path dataFile, int thresholdCount, int pageSize,
+                                       Iterator<BTreeDisk.KeyData<K, V>> sortedKeyData, double fillFactor,
+                                       Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        return load(dataFile, new BTreeDisk.Metadata(thresholdCount, pageSize), sortedKeyData, fillFactor,
+                comparator, keyCodec, valueCodec);
+    }
+
+    // builds a new tree in dataFile from entries sorted by key, for equal keys the last one wins.
+    static <K, V> BTreeDisk<K, V> load(Path dataFile, BTreeDisk.Metadata metadata,
+                                       Iterator<BTreeDisk.KeyData<K, V>> sortedKeyData, double fillFactor,
+                                       Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        // a log left behind by an earlier tree in this file would be replayed on top of the new one.
+        Files.deleteIfExists(WriteAheadLog.getLogFile(dataFile));
+        PageStore pageStore = PageStore.create(dataFile, metadata);
+
+        BulkLoader<K, V> bulkLoader = new BulkLoader<>(pageStore, fillFactor, comparator, keyCodec, valueCodec);
+        while (sortedKeyData.hasNext()) {
+            bulkLoader.add(sortedKeyData.next());
+        }
+        pageStore.getMetadata().setRootId(bulkLoader.finish());
+        pageStore.flush();
+
+        return new BTreeDisk<>(pageStore, comparator, keyCodec, valueCodec);
+    }
+
+    static BTreeDisk<String, String> loadUnsorted(Path dataFile, int thresholdCount, int pageSize,
+                                                  Iterator<BTreeDisk.KeyData<String, String>> keyData,
+                                                  double fillFactor, int runSize) throws IOException {
+        return loadUnsorted(dataFile, thresholdCount, pageSize, keyData, fillFactor, runSize,
+                Comparator.naturalOrder(), Codec.STRING, Codec.STRING);
+    }
+
+    // sorts the entries with an external merge sort first, keeping at most runSize entries in memory.
+    static <K, V> BTreeDisk<K, V> loadUnsorted(Path dataFile, int thresholdCount, int pageSize,
+                                               Iterator<BTreeDisk.KeyData<K, V>> keyData, double fillFactor,
+                                               int runSize, Comparator<? super K> comparator, Codec<K> keyCodec,
+                                               Codec<V> valueCodec) throws IOException {
+        try (ExternalSorter<K, V> externalSorter = new ExternalSorter<>(runSize, comparator, keyCodec, valueCodec)) {
+            return load(dataFile, thresholdCount, pageSize, externalSorter.sort(keyData), fillFactor, comparator,
+                    keyCodec, valueCodec);
+        }
+    }
+
+    void add(BTreeDisk.KeyData<K, V> keyData) throws IOException {
+        if (lastKeyData != null) {
+            int compare = comparator.compare(lastKeyData.getKey(), keyData.getKey());
+            if (compare > 0) {
+                throw new IllegalArgumentException(String.format("Bulk load input is not sorted at %s.",
+                        keyData.getKey()));
+            } else if (compare == 0) {
+                // the entry is still in hand, so a duplicate just replaces its data.
+                lastKeyData.setData(keyData.getData());
+                return;
+            }
+        }
+
+        lastKeyData = keyData.copy();
+        addKeyData(0, lastKeyData);
+    }
+
+    private Level getLevel(int index) {
+        while (levels.size() <= index) {
+            levels.add(new Level());
+        }
+
+        return levels.get(index);
+    }
+
+    // a key arriving at a level, it goes into the open node unless that is already at its target.
+    private void addKeyData(int levelIndex, BTreeDisk.KeyData<K, V> keyData) throws IOException {
+        Level level = getLevel(levelIndex);
+        if (level.getOpen().getKeyDataList().size() < targetKeys) {
+            level.getOpen().getKeyDataList().add(keyData);
+            return;
+        }
+
+        // the open node is done, so the previously closed node is final and can go up.
+        if (level.getClosed() != null) {
+            handUp(levelIndex, level.getClosed(), level.getClosedSeparator());
+        }
+        level.setClosed(level.getOpen());
+        level.setClosedSeparator(keyData);
+        level.setOpen(new PendingNode());
+    }
+
+    private void addChild(int levelIndex, long childId) {
+        getLevel(levelIndex).getOpen().getChildIds().add(childId);
+    }
+
+    // writes the node and hands it and the separator after it to the level above.
+    private void handUp(int levelIndex, PendingNode node, BTreeDisk.KeyData<K, V> separator) throws IOException {
+        addChild(levelIndex + 1, write(node));
+        addKeyData(levelIndex + 1, separator);
+    }
+
+    private long write(PendingNode node) throws IOException {
+        long pageId = pageStore.allocatePage();
+        long[] childIds = new long[node.getChildIds().size()];
+        for (int i = 0; i < childIds.length; i++) {
+            childIds[i] = node.getChildIds().get(i);
+        }
+
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> data = new ArrayList<>();
+        int maxEntrySize = pageStore.getMetadata().getMaxEntrySize();
+        for (BTreeDisk.KeyData<K, V> keyData : node.getKeyDataList()) {
+            byte[] key = keyCodec.encode(keyData.getKey());
+            byte[] value = valueCodec.encode(keyData.getData());
+            // the same limit as an insert, a node that only just fits here could not take another key later.
+            if (key.length + value.length > maxEntrySize) {
+                throw new IllegalArgumentException(String.format("An entry of %d bytes is larger than the %d " +
+                        "bytes a node has room for.", key.length + value.length, maxEntrySize));
+            }
+            keys.add(key);
+            data.add(value);
+        }
+        page.write(keys, data, childIds);
+        pageStore.writeNode(pageId, page);
+
+        return pageId;
+    }
+
+    // closes out every level from the leaves up and returns the root page id.
+    long finish() throws IOException {
+        if (levels.isEmpty()) {
+            return BTreeDisk.NO_PAGE_ID;
+        }
+
+        for (int levelIndex = 0; levelIndex < levels.size(); levelIndex++) {
+            Level level = levels.get(levelIndex);
+            PendingNode last = level.getOpen();
+            boolean isTop = levelIndex == levels.size() - 1 && level.getClosed() == null;
+
+            if (isTop) {
+                // an internal root left with a single child just hands the root role down to it.
+                if (last.getKeyDataList().isEmpty() && last.getChildIds().size() == 1) {
+                    return last.getChildIds().get(0);
+                }
+                return write(last);
+            }
+
+            if (level.getClosed() != null && last.getKeyDataList().size() < lowerThreshold) {
+                rebalance(levelIndex, level.getClosed(), level.getClosedSeparator(), last);
+            } else {
+                if (level.getClosed() != null) {
+                    handUp(levelIndex, level.getClosed(), level.getClosedSeparator());
+                }
+                addChild(levelIndex + 1, write(last));
+            }
+        }
+
+        // the loop always returns once it reaches the top level.
+        throw new IllegalStateException("Bulk load ended without a root.");
+    }
+
+    // fixes an underfull last node using its left neighbour and the separator between them, either folding them into
+    // one node or splitting their keys evenly, and hands the result up.
+    private void rebalance(int levelIndex, PendingNode left, BTreeDisk.KeyData<K, V> separator, PendingNode last)
+            throws IOException {
+        List<BTreeDisk.KeyData<K, V>> keyDataList = new ArrayList<>(left.getKeyDataList());
+        keyDataList.add(separator);
+        keyDataList.addAll(last.getKeyDataList());
+        List<Long> childIds = new ArrayList<>(left.getChildIds());
+        childIds.addAll(last.getChildIds());
+
+        if (keyDataList.size() <= higherThreshold) {
+            PendingNode merged = new PendingNode();
+            merged.setKeyDataList(keyDataList);
+            merged.setChildIds(childIds);
+            addChild(levelIndex + 1, write(merged));
+            return;
+        }
+
+        int leftSize = (keyDataList.size() - 1) / 2;
+        PendingNode newLeft = new PendingNode();
+        PendingNode newLast = new PendingNode();
+        newLeft.setKeyDataList(new ArrayList<>(keyDataList.subList(0, leftSize)));
+        newLast.setKeyDataList(new ArrayList<>(keyDataList.subList(leftSize + 1, keyDataList.size())));
+        if (!childIds.isEmpty()) {
+            newLeft.setChildIds(new ArrayList<>(childIds.subList(0, leftSize + 1)));
+            newLast.setChildIds(new ArrayList<>(childIds.subList(leftSize + 1, childIds.size())));
+        }
+
+        handUp(levelIndex, newLeft, keyDataList.get(leftSize));
+        addChild(levelIndex + 1, write(newLast));
+    }
+}
@@ -0,0 +1,85 @@
+package btree;
+
+import lombok.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+// Checkpoints a BTreeDisk on a background thread.
+//
+// the tree is checked every poll interval and checkpointed once it has collected dirtyThreshold dirty nodes, or
+// once maxIntervalMillis have passed with any dirty node at all. a checkpoint only writes the dirty nodes, so its
+// cost follows the pages touched since the last one rather than the size of the tree.
+@Getter @Setter
+public class Checkpointer implements Closeable {
+    static final long DEFAULT_POLL_MILLIS = 100;
+    static final long DEFAULT_MAX_INTERVAL_MILLIS = 5000;
+    static final int DEFAULT_DIRTY_THRESHOLD = 256;
+
+    BTreeDisk<?, ?> bTreeDisk;
+    int dirtyThreshold;
+    long maxIntervalMillis;
+    long lastCheckpointMillis;
+    ScheduledExecutorService executor;
+
+    Checkpointer(BTreeDisk<?, ?> bTreeDisk) {
+        this(bTreeDisk, DEFAULT_DIRTY_THRESHOLD, DEFAULT_MAX_INTERVAL_MILLIS);
+    }
+
+    Checkpointer(BTreeDisk<?, ?> bTreeDisk, int dirtyThreshold, long maxIntervalMillis) {
+        this.bTreeDisk = bTreeDisk;
+        this.dirtyThreshold = dirtyThreshold;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    void start(long pollMillis) {
+        lastCheckpointMillis = System.currentTimeMillis();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "btree-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void start() {
+        start(DEFAULT_POLL_MILLIS);
+    }
+
+    // a failure is handed to the tree, which fails writes with it until a later poll (or any other checkpoint)
+    // succeeds.
+    private void poll() {
+        try {
+            checkpointIfNeeded();
+        } catch (IOException e) {
+            bTreeDisk.setCheckpointFailure(e);
+        }
+    }
+
+    void checkpointIfNeeded() throws IOException {
+        // the dirty count is read under the tree's monitor, the same one insert, delete and checkpoint hold.
+        synchronized (bTreeDisk) {
+            int dirtyCount = bTreeDisk.getBufferPool().getDirtyCount();
+            long elapsed = System.currentTimeMillis() - lastCheckpointMillis;
+            if (dirtyCount >= dirtyThreshold || (dirtyCount > 0 && elapsed >= maxIntervalMillis)) {
+                bTreeDisk.serializeToDisk();
+                lastCheckpointMillis = System.currentTimeMillis();
+            }
+        }
+    }
+
+    // stops the background thread and takes a final checkpoint.
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(maxIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        bTreeDisk.serializeToDisk();
+    }
+}
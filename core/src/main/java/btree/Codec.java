@@ -0,0 +1,37 @@
+package btree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+// Turns keys or values into the bytes BTreeDisk stores in its node pages and log records, and back again.
+//
+// a codec only decides the stored form, the order of keys always comes from the tree's comparator.
+public interface Codec<T> {
+    Codec<String> STRING = of(value -> value.getBytes(StandardCharsets.UTF_8),
+            bytes -> new String(bytes, StandardCharsets.UTF_8));
+    Codec<Long> LONG = of(value -> ByteBuffer.allocate(Long.BYTES).putLong(value).array(),
+            bytes -> ByteBuffer.wrap(bytes).getLong());
+    Codec<Integer> INTEGER = of(value -> ByteBuffer.allocate(Integer.BYTES).putInt(value).array(),
+            bytes -> ByteBuffer.wrap(bytes).getInt());
+    // stored as is, the caller must not change an array after handing it to the tree.
+    Codec<byte[]> BYTES = of(value -> value, bytes -> bytes);
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+
+    static <T> Codec<T> of(Function<T, byte[]> encoder, Function<byte[], T> decoder) {
+        return new Codec<T>() {
+            @Override
+            public byte[] encode(T value) {
+                return encoder.apply(value);
+            }
+
+            @Override
+            public T decode(byte[] bytes) {
+                return decoder.apply(bytes);
+            }
+        };
+    }
+}
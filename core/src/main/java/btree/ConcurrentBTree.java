@@ -0,0 +1,512 @@
+package btree;
+
+import lombok.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// A thread safe BTree, every node carries a read write latch and operations crab down the tree with them.
+//
+// a reader latches the child it moves to before letting go of the node it is in, so readers never block each other.
+// writers run the same top down proactive split (insert) and merge/rotate (delete) as BTree. that leaves every node
+// a writer moves past with room for whatever happens below it, so a writer only holds the node it is in and the
+// children it is fixing up, and lets go of the parent as soon as it moves down. the one exception is a delete of a
+// key found in an internal node, which keeps that node latched until the predecessor (or successor) taking its place
+// has been taken out of its leaf.
+//
+// the root pointer has a latch of its own. a writer holds it while working on the root node, as a split or merge
+// there replaces the root, readers only hold it long enough to latch the root node.
+//
+// that would still line every writer up behind the root, so writers first go down optimistically: read latches like
+// a reader, and a write latch on the leaf only. most inserts and deletes change nothing but the leaf, and those are
+// done without ever write latching the root. only when the leaf is full (insert), at its minimum (delete), or the key
+// sits in an internal node does the writer let go and do it again with the splits and merges above.
+@Getter @Setter
+public class ConcurrentBTree {
+    int lowerThreshold;
+    int higherThreshold;
+    Node root = new Node();
+    ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock();
+
+    @Getter @Setter @AllArgsConstructor
+    static class KeyData {
+        String key;
+        String data;
+
+        @Override
+        public String toString() {
+            return  key + ":" + data;
+        }
+    }
+
+    // what a delete is looking for below the node it is in.
+    enum Target {
+        KEY,
+        // the predecessor or successor of a key found in an internal node.
+        LARGEST,
+        SMALLEST
+    }
+
+    @Getter @Setter
+    class Node {
+        List<KeyData> keyDataList = new ArrayList<>();
+        List<Node> childNodes = new ArrayList<>();
+        ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
+        boolean isLeafNode() {
+            return childNodes.isEmpty();
+        }
+
+        int getKeyDataListSize() {
+            return keyDataList.size();
+        }
+
+        int getChildNodesSize() {
+            return childNodes.size();
+        }
+
+        boolean isKeyDataAtHighThreshold() {
+            return getKeyDataListSize() == getHigherThreshold();
+        }
+
+        boolean isKeyDataAtLowThreshold() {
+            return getKeyDataListSize() == getLowerThreshold();
+        }
+
+        KeyData getKeyData(int index) {
+            return keyDataList.get(index);
+        }
+
+        Node getChild(int index) {
+            return isLeafNode() ? null : childNodes.get(index);
+        }
+
+        void replaceKeyData(KeyData replacement, int index) {
+            KeyData keyData = getKeyData(index);
+            keyData.setKey(replacement.getKey());
+            keyData.setData(replacement.getData());
+        }
+
+        // binary search over the keys, returns the index of the key if found, else (-(child index) - 1).
+        int searchIndex(String key) {
+            int low = 0;
+            int high = keyDataList.size() - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = keyDataList.get(mid).getKey().compareTo(key);
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        void readLatch() {
+            latch.readLock().lock();
+        }
+
+        void readUnlatch() {
+            latch.readLock().unlock();
+        }
+
+        void writeLatch() {
+            latch.writeLock().lock();
+        }
+
+        void writeUnlatch() {
+            latch.writeLock().unlock();
+        }
+    }
+
+    ConcurrentBTree(int thresholdCount) {
+        setLowerThreshold(thresholdCount - 1);
+        setHigherThreshold(2 * thresholdCount - 1);
+    }
+
+    // splits the full child at index around its median, which moves up into the parent. both are write latched.
+    Node splitChild(Node parent, int index) {
+        Node node = parent.getChild(index);
+        Node sibling = new Node();
+        int keyDataListSize = node.getKeyDataListSize();
+        int newSize = (keyDataListSize - 1) / 2;
+        KeyData medianKeyData = node.getKeyData(newSize);
+
+        sibling.setKeyDataList(new ArrayList<>(node.getKeyDataList().subList(newSize + 1, keyDataListSize)));
+        node.setKeyDataList(new ArrayList<>(node.getKeyDataList().subList(0, newSize)));
+        if (!node.isLeafNode()) {
+            sibling.setChildNodes(new ArrayList<>(node.getChildNodes().subList(newSize + 1, keyDataListSize + 1)));
+            node.setChildNodes(new ArrayList<>(node.getChildNodes().subList(0, newSize + 1)));
+        }
+
+        parent.getKeyDataList().add(index, medianKeyData);
+        parent.getChildNodes().add(index + 1, sibling);
+
+        return sibling;
+    }
+
+    // merges the children at index and index + 1 with the key between them, into the left one. the parent and both
+    // children are write latched, the right child is unlatched and dropped.
+    Node mergeSubTrees(Node parent, int index) {
+        Node node = parent.getChild(index);
+        Node sibling = parent.getChild(index + 1);
+
+        node.getKeyDataList().add(parent.getKeyDataList().remove(index));
+        node.getKeyDataList().addAll(sibling.getKeyDataList());
+        node.getChildNodes().addAll(sibling.getChildNodes());
+        parent.getChildNodes().remove(index + 1);
+
+        // nobody else can reach the sibling without the parent latch, so it is safe to let go of it here.
+        sibling.getKeyDataList().clear();
+        sibling.getChildNodes().clear();
+        sibling.writeUnlatch();
+
+        if (parent == getRoot() && parent.getChildNodesSize() == 1) {
+            // root is now reduced to a single child, so instead use that child as new root.
+            setRoot(node);
+        }
+
+        return node;
+    }
+
+    // crabs down with read latches and write latches the leaf the key belongs in. returns null, with nothing
+    // latched, if the key is in an internal node instead.
+    private Node writeLatchLeaf(String key) {
+        rootLatch.readLock().lock();
+        Node node = getRoot();
+        // only a writer holding the parent's latch (the root latch for the root) can add or remove a node, so
+        // whether a node is a leaf does not change between looking and latching it.
+        if (node.isLeafNode()) {
+            node.writeLatch();
+        } else {
+            node.readLatch();
+        }
+        rootLatch.readLock().unlock();
+
+        while (!node.isLeafNode()) {
+            int index = node.searchIndex(key);
+            if (index >= 0) {
+                node.readUnlatch();
+                return null;
+            }
+
+            Node child = node.getChild(-index - 1);
+            if (child.isLeafNode()) {
+                child.writeLatch();
+            } else {
+                child.readLatch();
+            }
+            node.readUnlatch();
+            node = child;
+        }
+
+        return node;
+    }
+
+    void insert(String key, String data) {
+        Node leaf = writeLatchLeaf(key);
+        if (leaf != null) {
+            int index = leaf.searchIndex(key);
+            boolean inserted = true;
+            if (index >= 0) {
+                leaf.getKeyData(index).setData(data);
+            } else if (!leaf.isKeyDataAtHighThreshold()) {
+                leaf.getKeyDataList().add(-index - 1, new KeyData(key, data));
+            } else {
+                inserted = false;
+            }
+            leaf.writeUnlatch();
+            if (inserted) {
+                return;
+            }
+        }
+
+        // the leaf is full or the key is higher up, so go down again splitting full nodes on the way.
+        splitInsert(key, data);
+    }
+
+    private void splitInsert(String key, String data) {
+        rootLatch.writeLock().lock();
+        Node node = getRoot();
+        node.writeLatch();
+        if (node.isKeyDataAtHighThreshold()) {
+            // split the root under a new one, and continue from the new root.
+            Node parent = new Node();
+            parent.writeLatch();
+            parent.getChildNodes().add(node);
+            setRoot(parent);
+            splitChild(parent, 0);
+            node.writeUnlatch();
+            node = parent;
+        }
+        // the root has room now, so nothing below can replace it.
+        rootLatch.writeLock().unlock();
+
+        while (true) {
+            int i = node.searchIndex(key);
+            if (i >= 0) {
+                // for duplicates, we just replace current value.
+                node.getKeyData(i).setData(data);
+                break;
+            }
+
+            i = -i - 1;
+            if (node.isLeafNode()) {
+                node.getKeyDataList().add(i, new KeyData(key, data));
+                break;
+            }
+
+            Node child = node.getChild(i);
+            child.writeLatch();
+            if (child.isKeyDataAtHighThreshold()) {
+                // split the child while its parent is still latched, so the parent has room for the median.
+                Node sibling = splitChild(node, i);
+                int compare = key.compareTo(node.getKeyData(i).getKey());
+                if (compare == 0) {
+                    node.getKeyData(i).setData(data);
+                    child.writeUnlatch();
+                    break;
+                } else if (compare > 0) {
+                    sibling.writeLatch();
+                    child.writeUnlatch();
+                    child = sibling;
+                }
+            }
+
+            // the child has room, so the node will not change anymore.
+            node.writeUnlatch();
+            node = child;
+        }
+
+        node.writeUnlatch();
+    }
+
+    // point lookup, crabbing down with read latches.
+    public String get(String key) {
+        rootLatch.readLock().lock();
+        Node node = getRoot();
+        node.readLatch();
+        rootLatch.readLock().unlock();
+
+        while (true) {
+            int index = node.searchIndex(key);
+            Node child = index >= 0 ? null : node.getChild(-index - 1);
+            if (child == null) {
+                String data = index >= 0 ? node.getKeyData(index).getData() : null;
+                node.readUnlatch();
+                return data;
+            }
+
+            child.readLatch();
+            node.readUnlatch();
+            node = child;
+        }
+    }
+
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    boolean delete(String key) {
+        Node leaf = writeLatchLeaf(key);
+        if (leaf != null) {
+            int index = leaf.searchIndex(key);
+            if (index < 0) {
+                leaf.writeUnlatch();
+                return false;
+            }
+            if (!leaf.isKeyDataAtLowThreshold()) {
+                leaf.getKeyDataList().remove(index);
+                leaf.writeUnlatch();
+                return true;
+            }
+            leaf.writeUnlatch();
+        }
+
+        // the leaf has no key to spare or the key is higher up, so go down again merging and rotating on the way.
+        return mergeDelete(key);
+    }
+
+    private boolean mergeDelete(String key) {
+        rootLatch.writeLock().lock();
+        boolean rootLatched = true;
+        Node node = getRoot();
+        node.writeLatch();
+
+        Target target = Target.KEY;
+        // the internal node holding the key being deleted, and the key's index in it, while a replacement is found.
+        Node pendingNode = null;
+        int pendingIndex = -1;
+
+        // every node other than root is pre-vetted for minimum threshold.
+        while (!node.isLeafNode()) {
+            int index = target == Target.KEY ? node.searchIndex(key) : -1;
+            Node next;
+
+            if (index >= 0) {
+                Node child = node.getChild(index);
+                Node sibling = node.getChild(index + 1);
+                child.writeLatch();
+                sibling.writeLatch();
+
+                if (child.isKeyDataAtLowThreshold() && sibling.isKeyDataAtLowThreshold()) {
+                    // the key moves down into the merged child, and is looked for again there.
+                    next = mergeSubTrees(node, index);
+                } else {
+                    // the predecessor (or successor) is taken from whichever side can spare a key, the node stays
+                    // latched until it has been found.
+                    pendingNode = node;
+                    pendingIndex = index;
+                    if (!child.isKeyDataAtLowThreshold()) {
+                        target = Target.LARGEST;
+                        sibling.writeUnlatch();
+                        next = child;
+                    } else {
+                        target = Target.SMALLEST;
+                        child.writeUnlatch();
+                        next = sibling;
+                    }
+                }
+            } else {
+                int childIndex = target == Target.KEY ? -index - 1 :
+                        target == Target.LARGEST ? node.getChildNodesSize() - 1 : 0;
+                boolean rightSibling = childIndex < node.getChildNodesSize() - 1;
+                int childKeyIndex = rightSibling ? childIndex : childIndex - 1;
+                Node child = node.getChild(childIndex);
+                child.writeLatch();
+                next = child;
+
+                if (child.isKeyDataAtLowThreshold()) {
+                    Node sibling = node.getChild(rightSibling ? childIndex + 1 : childIndex - 1);
+                    sibling.writeLatch();
+
+                    if (sibling.isKeyDataAtLowThreshold()) {
+                        // the merged node will always be the left child of the node.
+                        next = mergeSubTrees(node, childKeyIndex);
+                    } else {
+                        KeyData keyData = node.getKeyData(childKeyIndex);
+                        KeyData separator = new KeyData(keyData.getKey(), keyData.getData());
+                        if (rightSibling) {
+                            // rotate left.
+                            node.replaceKeyData(sibling.getKeyDataList().remove(0), childKeyIndex);
+                            child.getKeyDataList().add(separator);
+                            if (!child.isLeafNode()) {
+                                child.getChildNodes().add(sibling.getChildNodes().remove(0));
+                            }
+                        } else {
+                            // rotate right.
+                            node.replaceKeyData(sibling.getKeyDataList().remove(sibling.getKeyDataListSize() - 1),
+                                    childKeyIndex);
+                            child.getKeyDataList().add(0, separator);
+                            if (!child.isLeafNode()) {
+                                child.getChildNodes().add(0,
+                                        sibling.getChildNodes().remove(sibling.getChildNodesSize() - 1));
+                            }
+                        }
+                        sibling.writeUnlatch();
+                    }
+                }
+            }
+
+            // next has a key to spare now, so the node will not change anymore unless it is waiting on a replacement.
+            if (node != pendingNode) {
+                node.writeUnlatch();
+            }
+            node = next;
+            if (rootLatched && node != getRoot()) {
+                rootLatch.writeLock().unlock();
+                rootLatched = false;
+            }
+        }
+
+        // if the search has concluded in a leaf, its a simple yes/no answer.
+        boolean deleted = false;
+        if (target == Target.KEY) {
+            int index = node.searchIndex(key);
+            if (index >= 0) {
+                node.getKeyDataList().remove(index);
+                deleted = true;
+            }
+        } else {
+            List<KeyData> keyDataList = node.getKeyDataList();
+            KeyData replacement = keyDataList.remove(target == Target.LARGEST ? keyDataList.size() - 1 : 0);
+            pendingNode.replaceKeyData(replacement, pendingIndex);
+            pendingNode.writeUnlatch();
+            deleted = true;
+        }
+
+        node.writeUnlatch();
+        if (rootLatched) {
+            rootLatch.writeLock().unlock();
+        }
+
+        return deleted;
+    }
+
+    // the node is read latched by the caller, children are latched on the way down.
+    void inorder(Node node) {
+        List<KeyData> keyDataList = node.getKeyDataList();
+
+        // there will be one more child node than the number of keys in this node for every intermediate node.
+        for (int i = 0; i <= keyDataList.size(); i++) {
+            Node child = node.getChild(i);
+            if (child != null) {
+                child.readLatch();
+                inorder(child);
+                child.readUnlatch();
+            }
+            if (i < keyDataList.size()) {
+                System.out.println(keyDataList.get(i));
+            }
+        }
+    }
+
+    void inorder() {
+        rootLatch.readLock().lock();
+        Node node = getRoot();
+        node.readLatch();
+        rootLatch.readLock().unlock();
+
+        inorder(node);
+        node.readUnlatch();
+    }
+
+    public static void main(String args[]) throws Exception {
+        System.out.println("I am in the main routine.");
+        ConcurrentBTree bTree = new ConcurrentBTree(2);
+        int threadCount = 4;
+        int keysPerThread = 100000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < keysPerThread; i++) {
+                    bTree.insert("key" + thread + "-" + i, "data" + i);
+                }
+                for (int i = 0; i < keysPerThread; i += 2) {
+                    bTree.delete("key" + thread + "-" + i);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        for (int t = 0; t < threadCount; t++) {
+            for (int i = 0; i < keysPerThread; i++) {
+                if (bTree.containsKey("key" + t + "-" + i) != (i % 2 == 1)) {
+                    System.out.println("Unexpected state for key" + t + "-" + i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package btree;
+
+import lombok.*;
+
+import java.lang.ref.Cleaner;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A BTree whose published nodes are never modified, so readers need no locks at all.
+//
+// insert and delete run the same top down proactive split (insert) and merge/rotate (delete) as BTree, but copy
+// every node before they change it, the root to leaf path along with any sibling a split, merge or rotate touches.
+// the copies are private to the writer until the new root is published with a single atomic swap, and everything
+// off the path is shared with the previous version.
+//
+// a reader takes a snapshot, which is just the root it saw, and can walk it for as long as it likes while writers
+// move on. writers are serialized with each other. an old version is reclaimed by the garbage collector once the
+// last snapshot holding its root is gone. snapshots should be closed, best with try-with-resources, but the tree
+// only keeps the version number of an open one, never the snapshot or its root, so a snapshot that is dropped
+// without close() is still collected. a cleaner then drops its registration and counts it as leaked.
+@Getter @Setter
+public class CopyOnWriteBTree {
+    static final Cleaner CLEANER = Cleaner.create();
+
+    int lowerThreshold;
+    int higherThreshold;
+    AtomicReference<Version> current = new AtomicReference<>(new Version(null, 0));
+    Set<Registration> openSnapshots = ConcurrentHashMap.newKeySet();
+    // snapshots the garbage collector found before they were closed.
+    LongAdder leakedSnapshots = new LongAdder();
+
+    // key data is shared between versions, so it is never changed in place.
+    @Getter @AllArgsConstructor
+    static class KeyData {
+        final String key;
+        final String data;
+
+        @Override
+        public String toString() {
+            return  key + ":" + data;
+        }
+    }
+
+    @Getter @AllArgsConstructor
+    static class Version {
+        final Node root;
+        final long number;
+    }
+
+    @Getter @Setter
+    class Node {
+        List<KeyData> keyDataList;
+        List<Node> childNodes;
+
+        Node() {
+            this(new ArrayList<>(), new ArrayList<>());
+        }
+
+        Node(List<KeyData> keyDataList, List<Node> childNodes) {
+            this.keyDataList = keyDataList;
+            this.childNodes = childNodes;
+        }
+
+        // a private copy the writer can change, the children themselves are still shared.
+        Node copy() {
+            return new Node(new ArrayList<>(keyDataList), new ArrayList<>(childNodes));
+        }
+
+        // replaces the child at index with a private copy and returns it.
+        Node copyChild(int index) {
+            Node child = childNodes.get(index).copy();
+            childNodes.set(index, child);
+
+            return child;
+        }
+
+        boolean isLeafNode() {
+            return childNodes.isEmpty();
+        }
+
+        int getKeyDataListSize() {
+            return keyDataList.size();
+        }
+
+        int getChildNodesSize() {
+            return childNodes.size();
+        }
+
+        boolean isKeyDataAtHighThreshold() {
+            return getKeyDataListSize() == getHigherThreshold();
+        }
+
+        boolean isKeyDataAtLowThreshold() {
+            return getKeyDataListSize() == getLowerThreshold();
+        }
+
+        KeyData getKeyData(int index) {
+            return keyDataList.get(index);
+        }
+
+        Node getChild(int index) {
+            return isLeafNode() ? null : childNodes.get(index);
+        }
+
+        // binary search over the keys, returns the index of the key if found, else (-(child index) - 1).
+        int searchIndex(String key) {
+            int low = 0;
+            int high = keyDataList.size() - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = keyDataList.get(mid).getKey().compareTo(key);
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        // only reads, so it can walk shared nodes.
+        KeyData getLargestKeyData() {
+            Node node = this;
+            while (!node.isLeafNode()) {
+                node = node.getChild(node.getChildNodesSize() - 1);
+            }
+
+            return node.getKeyData(node.getKeyDataListSize() - 1);
+        }
+
+        KeyData getSmallestKeyData() {
+            Node node = this;
+            while (!node.isLeafNode()) {
+                node = node.getChild(0);
+            }
+
+            return node.getKeyData(0);
+        }
+    }
+
+    // what the tree keeps of an open snapshot. it must not reach the snapshot, or the cleaner would never run.
+    @Getter
+    static class Registration implements Runnable {
+        final Set<Registration> openSnapshots;
+        final LongAdder leakedSnapshots;
+        final long versionNumber;
+        volatile boolean closed;
+
+        Registration(Set<Registration> openSnapshots, LongAdder leakedSnapshots, long versionNumber) {
+            this.openSnapshots = openSnapshots;
+            this.leakedSnapshots = leakedSnapshots;
+            this.versionNumber = versionNumber;
+        }
+
+        // runs once, from close() or from the cleaner after the snapshot became unreachable.
+        @Override
+        public void run() {
+            openSnapshots.remove(this);
+            if (!closed) {
+                leakedSnapshots.increment();
+            }
+        }
+    }
+
+    // a consistent view of the tree as of one version, it does not change however the tree is written afterwards.
+    @Getter
+    class Snapshot implements AutoCloseable {
+        final Version version;
+        final Registration registration;
+        final Cleaner.Cleanable cleanable;
+
+        Snapshot(Version version) {
+            this.version = version;
+            registration = new Registration(openSnapshots, leakedSnapshots, version.getNumber());
+            openSnapshots.add(registration);
+            cleanable = CLEANER.register(this, registration);
+        }
+
+        public String get(String key) {
+            return CopyOnWriteBTree.get(version.getRoot(), key);
+        }
+
+        public boolean containsKey(String key) {
+            return get(key) != null;
+        }
+
+        public Iterator<KeyData> scan(String fromKey, String toKey) {
+            return new Cursor(this, fromKey, toKey);
+        }
+
+        public Stream<KeyData> stream(String fromKey, String toKey) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scan(fromKey, toKey),
+                    Spliterator.ORDERED | Spliterator.NONNULL), false);
+        }
+
+        @Override
+        public void close() {
+            registration.closed = true;
+            cleanable.clean();
+        }
+    }
+
+    // walks the keys between fromKey and toKey (both inclusive, null for an open end) of one version.
+    static class Cursor implements Iterator<KeyData> {
+        // keeps the snapshot registered for as long as the cursor is walking its version.
+        Snapshot snapshot;
+        String toKey;
+        Deque<Node> nodes = new ArrayDeque<>();
+        // the next key index to return in each node on the path.
+        Deque<Integer> indexes = new ArrayDeque<>();
+        KeyData nextKeyData;
+
+        Cursor(Snapshot snapshot, String fromKey, String toKey) {
+            this.snapshot = snapshot;
+            this.toKey = toKey;
+
+            Node node = snapshot.getVersion().getRoot();
+            while (node != null) {
+                int index = fromKey == null ? 0 : node.searchIndex(fromKey);
+                if (index >= 0) {
+                    nodes.push(node);
+                    indexes.push(index);
+                    if (fromKey == null) {
+                        node = node.getChild(0);
+                        continue;
+                    }
+                    break;
+                }
+                index = -index - 1;
+                nodes.push(node);
+                indexes.push(index);
+                node = node.getChild(index);
+            }
+            nextKeyData = advance();
+        }
+
+        private void descend(Node node) {
+            while (node != null) {
+                nodes.push(node);
+                indexes.push(0);
+                node = node.getChild(0);
+            }
+        }
+
+        private KeyData advance() {
+            while (!nodes.isEmpty()) {
+                Node node = nodes.peek();
+                int index = indexes.pop();
+
+                if (index < node.getKeyDataListSize()) {
+                    indexes.push(index + 1);
+                    descend(node.getChild(index + 1));
+                    return node.getKeyData(index);
+                }
+                nodes.pop();
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextKeyData != null && toKey != null && nextKeyData.getKey().compareTo(toKey) > 0) {
+                nextKeyData = null;
+                nodes.clear();
+            }
+
+            return nextKeyData != null;
+        }
+
+        @Override
+        public KeyData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            KeyData keyData = nextKeyData;
+            nextKeyData = advance();
+
+            return keyData;
+        }
+    }
+
+    CopyOnWriteBTree(int thresholdCount) {
+        setLowerThreshold(thresholdCount - 1);
+        setHigherThreshold(2 * thresholdCount - 1);
+    }
+
+    Node getRoot() {
+        return current.get().getRoot();
+    }
+
+    long getVersionNumber() {
+        return current.get().getNumber();
+    }
+
+    private void publish(Node root) {
+        Version version = current.get();
+        current.set(new Version(root, version.getNumber() + 1));
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(current.get());
+    }
+
+    int getOpenSnapshotCount() {
+        return openSnapshots.size();
+    }
+
+    long getLeakedSnapshotCount() {
+        return leakedSnapshots.sum();
+    }
+
+    // the oldest version an open snapshot still holds, or the current one if there are none.
+    long getOldestSnapshotVersionNumber() {
+        long oldest = getVersionNumber();
+        for (Registration registration : openSnapshots) {
+            oldest = Math.min(oldest, registration.getVersionNumber());
+        }
+
+        return oldest;
+    }
+
+    // point lookup against the current version, it needs no lock.
+    public String get(String key) {
+        return get(getRoot(), key);
+    }
+
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    static String get(Node node, String key) {
+        while (node != null) {
+            int index = node.searchIndex(key);
+            if (index >= 0) {
+                return node.getKeyData(index).getData();
+            }
+            node = node.getChild(-index - 1);
+        }
+
+        return null;
+    }
+
+    // splits the full child at index around its median, which moves up into the parent. both are private copies.
+    Node splitChild(Node parent, int index) {
+        Node node = parent.getChild(index);
+        int keyDataListSize = node.getKeyDataListSize();
+        int newSize = (keyDataListSize - 1) / 2;
+        KeyData medianKeyData = node.getKeyData(newSize);
+
+        Node sibling = new Node(new ArrayList<>(node.getKeyDataList().subList(newSize + 1, keyDataListSize)),
+                new ArrayList<>());
+        node.setKeyDataList(new ArrayList<>(node.getKeyDataList().subList(0, newSize)));
+        if (!node.isLeafNode()) {
+            sibling.setChildNodes(new ArrayList<>(node.getChildNodes().subList(newSize + 1, keyDataListSize + 1)));
+            node.setChildNodes(new ArrayList<>(node.getChildNodes().subList(0, newSize + 1)));
+        }
+
+        parent.getKeyDataList().add(index, medianKeyData);
+        parent.getChildNodes().add(index + 1, sibling);
+
+        return sibling;
+    }
+
+    // merges the children at index and index + 1 with the key between them, into a copy of the left one.
+    Node mergeSubTrees(Node parent, int index) {
+        Node node = parent.copyChild(index);
+        Node sibling = parent.getChild(index + 1);
+
+        node.getKeyDataList().add(parent.getKeyDataList().remove(index));
+        node.getKeyDataList().addAll(sibling.getKeyDataList());
+        node.getChildNodes().addAll(sibling.getChildNodes());
+        parent.getChildNodes().remove(index + 1);
+
+        return node;
+    }
+
+    synchronized void insert(String key, String data) {
+        KeyData insertKeyData = new KeyData(key, data);
+        if (getRoot() == null) {
+            Node root = new Node();
+            root.getKeyDataList().add(insertKeyData);
+            publish(root);
+            return;
+        }
+
+        Node node = getRoot().copy();
+        Node root = node;
+        if (node.isKeyDataAtHighThreshold()) {
+            // split the root under a new one, and continue from the new root.
+            root = new Node();
+            root.getChildNodes().add(node);
+            splitChild(root, 0);
+            node = root;
+        }
+
+        while (true) {
+            int i = node.searchIndex(key);
+            if (i >= 0) {
+                // for duplicates, we just replace current value.
+                node.getKeyDataList().set(i, insertKeyData);
+                break;
+            }
+
+            i = -i - 1;
+            if (node.isLeafNode()) {
+                node.getKeyDataList().add(i, insertKeyData);
+                break;
+            }
+
+            Node child = node.copyChild(i);
+            if (child.isKeyDataAtHighThreshold()) {
+                Node sibling = splitChild(node, i);
+                int compare = key.compareTo(node.getKeyData(i).getKey());
+                if (compare == 0) {
+                    node.getKeyDataList().set(i, insertKeyData);
+                    break;
+                } else if (compare > 0) {
+                    child = sibling;
+                }
+            }
+            node = child;
+        }
+
+        publish(root);
+    }
+
+    synchronized boolean delete(String key) {
+        if (getRoot() == null) {
+            return false;
+        }
+
+        Node node = getRoot().copy();
+        Node root = node;
+
+        // every node other than root is pre-vetted for minimum threshold.
+        while (!node.isLeafNode()) {
+            int index = node.searchIndex(key);
+            Node next;
+
+            if (index >= 0) {
+                if (node.getChild(index).isKeyDataAtLowThreshold() && node.getChild(index + 1).isKeyDataAtLowThreshold()) {
+                    // the key moves down into the merged child, and is looked for again there.
+                    next = mergeSubTrees(node, index);
+                } else if (!node.getChild(index).isKeyDataAtLowThreshold()) {
+                    // replace the key with its predecessor, which is then deleted from the left subtree.
+                    next = node.copyChild(index);
+                    KeyData predecessorKeyData = next.getLargestKeyData();
+                    node.getKeyDataList().set(index, predecessorKeyData);
+                    key = predecessorKeyData.getKey();
+                } else {
+                    // or with its successor from the right subtree.
+                    next = node.copyChild(index + 1);
+                    KeyData successorKeyData = next.getSmallestKeyData();
+                    node.getKeyDataList().set(index, successorKeyData);
+                    key = successorKeyData.getKey();
+                }
+            } else {
+                int childIndex = -index - 1;
+                boolean rightSibling = childIndex < node.getChildNodesSize() - 1;
+                int siblingIndex = rightSibling ? childIndex + 1 : childIndex - 1;
+                int childKeyIndex = rightSibling ? childIndex : childIndex - 1;
+
+                if (!node.getChild(childIndex).isKeyDataAtLowThreshold()) {
+                    next = node.copyChild(childIndex);
+                } else if (node.getChild(siblingIndex).isKeyDataAtLowThreshold()) {
+                    // the merged node will always be the left child of the node.
+                    next = mergeSubTrees(node, childKeyIndex);
+                } else {
+                    Node child = node.copyChild(childIndex);
+                    Node sibling = node.copyChild(siblingIndex);
+                    KeyData keyData = node.getKeyData(childKeyIndex);
+                    if (rightSibling) {
+                        // rotate left.
+                        node.getKeyDataList().set(childKeyIndex, sibling.getKeyDataList().remove(0));
+                        child.getKeyDataList().add(keyData);
+                        if (!child.isLeafNode()) {
+                            child.getChildNodes().add(sibling.getChildNodes().remove(0));
+                        }
+                    } else {
+                        // rotate right.
+                        node.getKeyDataList().set(childKeyIndex,
+                                sibling.getKeyDataList().remove(sibling.getKeyDataListSize() - 1));
+                        child.getKeyDataList().add(0, keyData);
+                        if (!child.isLeafNode()) {
+                            child.getChildNodes().add(0, sibling.getChildNodes().remove(sibling.getChildNodesSize() - 1));
+                        }
+                    }
+                    next = child;
+                }
+            }
+
+            if (node == root && node.getChildNodesSize() == 1) {
+                // root is now reduced to a single child, so instead use that child as new root.
+                root = next;
+            }
+            node = next;
+        }
+
+        int index = node.searchIndex(key);
+        if (index < 0) {
+            // nothing was deleted, so the copies are simply dropped.
+            return false;
+        }
+        node.getKeyDataList().remove(index);
+        publish(root);
+
+        return true;
+    }
+
+    void inorder(Node node) {
+        if (node == null) {
+            return;
+        }
+
+        List<KeyData> keyDataList = node.getKeyDataList();
+
+        for (int i = 0; i < keyDataList.size(); i++) {
+            inorder(node.getChild(i));
+            System.out.println(keyDataList.get(i));
+        }
+
+        // there will be one more child node than the number of keys in this node for every intermediate node.
+        inorder(node.getChild(keyDataList.size()));
+    }
+
+    void inorder() {
+        inorder(getRoot());
+    }
+
+    public static void main(String args[]) {
+        System.out.println("I am in the main routine.");
+        CopyOnWriteBTree bTree = new CopyOnWriteBTree(2);
+
+        for (int i = 0; i < 1000; i++) {
+            bTree.insert("key" + i, "data" + i);
+        }
+        try (CopyOnWriteBTree.Snapshot snapshot = bTree.snapshot()) {
+            for (int i = 0; i < 1000; i++) {
+                bTree.delete("key" + i);
+            }
+            // the snapshot still sees every key, the tree itself is empty.
+            System.out.println(snapshot.stream(null, null).count() + " " + bTree.containsKey("key0"));
+        }
+    }
+}
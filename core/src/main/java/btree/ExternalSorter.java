@@ -0,0 +1,158 @@
+package btree;
+
+import lombok.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Sorts more key data than fits in memory, for the BulkLoader.
+//
+// the input is cut into runs of at most runSize entries, each run is sorted in memory and spilled to a temporary
+// file, and the runs are then merged through a priority queue while they are read back. equal keys keep the entry
+// that came last in the input, matching what inserting them one by one would leave in the tree.
+@Getter @Setter
+public class ExternalSorter<K, V> implements Closeable {
+    static final int DEFAULT_RUN_SIZE = 1 << 16;
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    @Getter @Setter @AllArgsConstructor
+    class RunHead {
+        BTreeDisk.KeyData<K, V> keyData;
+        int runIndex;
+        DataInputStream in;
+    }
+
+    int runSize;
+    Comparator<? super K> comparator;
+    Codec<K> keyCodec;
+    Codec<V> valueCodec;
+    List<Path> runFiles = new ArrayList<>();
+    List<DataInputStream> openRuns = new ArrayList<>();
+
+    ExternalSorter(int runSize, Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("A run needs room for at least one entry.");
+        }
+        this.runSize = runSize;
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    // spills the input into sorted runs and returns an iterator over their merge.
+    Iterator<BTreeDisk.KeyData<K, V>> sort(Iterator<BTreeDisk.KeyData<K, V>> keyData) throws IOException {
+        List<BTreeDisk.KeyData<K, V>> run = new ArrayList<>();
+        while (keyData.hasNext()) {
+            run.add(keyData.next());
+            if (run.size() == runSize) {
+                spill(run);
+                run.clear();
+            }
+        }
+        if (!run.isEmpty()) {
+            spill(run);
+        }
+
+        PriorityQueue<RunHead> heads = new PriorityQueue<>((a, b) -> {
+            int compare = comparator.compare(a.getKeyData().getKey(), b.getKeyData().getKey());
+            return compare != 0 ? compare : Integer.compare(a.getRunIndex(), b.getRunIndex());
+        });
+        for (int i = 0; i < runFiles.size(); i++) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFiles.get(i)),
+                    STREAM_BUFFER_SIZE));
+            openRuns.add(in);
+            RunHead head = new RunHead(null, i, in);
+            if (advance(head)) {
+                heads.add(head);
+            }
+        }
+
+        return new Iterator<BTreeDisk.KeyData<K, V>>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public BTreeDisk.KeyData<K, V> next() {
+                if (heads.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+
+                // the queue hands out equal keys in run order, so the last one taken is the latest.
+                BTreeDisk.KeyData<K, V> next = null;
+                while (!heads.isEmpty() && (next == null ||
+                        comparator.compare(heads.peek().getKeyData().getKey(), next.getKey()) == 0)) {
+                    RunHead head = heads.poll();
+                    next = head.getKeyData();
+                    try {
+                        if (advance(head)) {
+                            heads.add(head);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                return next;
+            }
+        };
+    }
+
+    // sorts the run, keeping only the last of equal keys, and writes it out.
+    private void spill(List<BTreeDisk.KeyData<K, V>> run) throws IOException {
+        // the sort is stable, so equal keys stay in input order.
+        run.sort((a, b) -> comparator.compare(a.getKey(), b.getKey()));
+
+        Path runFile = Files.createTempFile("btree-run", ".tmp");
+        runFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile),
+                STREAM_BUFFER_SIZE))) {
+            for (int i = 0; i < run.size(); i++) {
+                if (i + 1 < run.size() && comparator.compare(run.get(i + 1).getKey(), run.get(i).getKey()) == 0) {
+                    continue;
+                }
+                putBytes(out, keyCodec.encode(run.get(i).getKey()));
+                putBytes(out, valueCodec.encode(run.get(i).getData()));
+            }
+        }
+    }
+
+    private boolean advance(RunHead head) throws IOException {
+        DataInputStream in = head.getIn();
+        try {
+            K key = keyCodec.decode(getBytes(in));
+            head.setKeyData(new BTreeDisk.KeyData<>(key, valueCodec.decode(getBytes(in))));
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    // runs hold keys and data in their encoded form, each as a length and the bytes.
+    private static void putBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] getBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+
+    // deletes the run files, the merged iterator can not be used after this.
+    @Override
+    public void close() throws IOException {
+        for (DataInputStream in : openRuns) {
+            in.close();
+        }
+        for (Path runFile : runFiles) {
+            Files.deleteIfExists(runFile);
+        }
+        openRuns.clear();
+        runFiles.clear();
+    }
+}
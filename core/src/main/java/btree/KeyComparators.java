@@ -0,0 +1,17 @@
+package btree;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Key orders for the trees that are not simply the keys' natural order.
+public final class KeyComparators {
+    // lexicographic over unsigned bytes, so 0x80 sorts after 0x7f and a prefix sorts before any longer key.
+    static final Comparator<byte[]> UNSIGNED_BYTES = Arrays::compareUnsigned;
+
+    private KeyComparators() {}
+
+    @SuppressWarnings("unchecked")
+    static <K> Comparator<K> naturalOrder() {
+        return (Comparator<K>) Comparator.naturalOrder();
+    }
+}
@@ -0,0 +1,141 @@
+package btree;
+
+import lombok.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// A histogram of latencies in nanoseconds, laid out like an HdrHistogram with a fixed precision.
+//
+// values below SUB_BUCKET_COUNT get a bucket each, above that every power of two is cut into SUB_BUCKET_COUNT
+// buckets of equal width, so a value is always counted in a bucket at most 1/SUB_BUCKET_COUNT wider than itself.
+// that covers every long in BUCKET_COUNT buckets, so recording is a couple of shifts and an add and never
+// allocates. percentiles are read as the highest value of the bucket they fall into.
+//
+// the buckets are LongAdders like the counters in TreeMetrics, so threads recording similar latencies at the same
+// time add into cells of their own instead of contending for the same bucket.
+@Getter
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    final LongAdder[] counts = new LongAdder[BUCKET_COUNT];
+    final LongAdder count = new LongAdder();
+    final LongAdder totalNanos = new LongAdder();
+    final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    // an immutable summary of the histogram at the time it was taken.
+    @Getter @AllArgsConstructor
+    public static class Snapshot {
+        long count;
+        long meanNanos;
+        long p50Nanos;
+        long p90Nanos;
+        long p99Nanos;
+        long p999Nanos;
+        long maxNanos;
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%dns p50=%dns p90=%dns p99=%dns p99.9=%dns max=%dns", count,
+                    meanNanos, p50Nanos, p90Nanos, p99Nanos, p999Nanos, maxNanos);
+        }
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+
+        // the shift that leaves the top SUB_BUCKET_BITS + 1 bits of the value, the leading one picks the power of two.
+        int shift = Long.SIZE - SUB_BUCKET_BITS - 1 - Long.numberOfLeadingZeros(value);
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    static long getBucketHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    void record(long nanos) {
+        counts[getBucketIndex(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        // the max only moves when it is beaten, which is rare, so the plain read keeps the common case cheap.
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    // records the time since a System.nanoTime() taken when the operation started.
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    // the value below which the given fraction of the recorded values fall, 0 if nothing was recorded.
+    long getValueAtPercentile(double percentile) {
+        return getValueAtPercentile(copyCounts(), percentile);
+    }
+
+    private long[] copyCounts() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts[i].sum();
+        }
+
+        return copy;
+    }
+
+    private long getValueAtPercentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketHighestValue(i), maxNanos.get());
+            }
+        }
+
+        return maxNanos.get();
+    }
+
+    // the buckets are read one at a time while recording goes on, so the summary is only consistent to within the
+    // values recorded while it was being taken.
+    Snapshot snapshot() {
+        long[] copy = copyCounts();
+        long count = this.count.sum();
+        long mean = (count == 0) ? 0 : totalNanos.sum() / count;
+
+        return new Snapshot(count, mean, getValueAtPercentile(copy, 50), getValueAtPercentile(copy, 90),
+                getValueAtPercentile(copy, 99), getValueAtPercentile(copy, 99.9), maxNanos.get());
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i].reset();
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,291 @@
+package btree;
+
+import lombok.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// A fixed size binary image of a single BTreeDisk node, laid out as a slotted page.
+//
+//   | header | key prefix | child page ids | slot directory | free space | cells |
+//
+// header         - magic, key count, child count, the offset where the cell area starts, the length of the key
+//                  prefix and the message count (all 2 bytes).
+// key prefix     - the bytes every encoded key (and message key) in the node starts with, stored once for the
+//                  whole node.
+// child page ids - one 8 byte page number per child, in child order.
+// slot directory - one 2 byte cell offset per key in key order, followed by one per message in key order.
+// cells          - grow down from the end of the page, each is a length prefixed key suffix followed by a length
+//                  prefixed data value (2 byte lengths, bytes from the tree's codecs). a data length of
+//                  TOMBSTONE_LENGTH stands for no data, a deleted key.
+//
+// messages are the inserts and deletes an internal node buffers for the subtrees below it, they are only written
+// when the tree buffers messages. pages from before messages (LEGACY_MAGIC) have a shorter header and no messages.
+//
+// since the slot directory is in key order, a single key can be read (or binary searched) without decoding
+// the rest of the node. keys that share long prefixes (tenant or table names) only pay for the prefix once per
+// node, which leaves room for more keys in a page.
+@Getter @Setter
+public class NodePage {
+    static final int DEFAULT_PAGE_SIZE = 4096;
+    static final int MAX_PAGE_SIZE = 1 << 15;
+    // 0xB7EE was the layout without a key prefix.
+    static final short MAGIC = (short) 0xB7F0;
+    static final short LEGACY_MAGIC = (short) 0xB7EF;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int KEY_COUNT_OFFSET = 2;
+    static final int CHILD_COUNT_OFFSET = 4;
+    static final int CELL_START_OFFSET = 6;
+    static final int PREFIX_LENGTH_OFFSET = 8;
+    static final int MESSAGE_COUNT_OFFSET = 10;
+    static final int HEADER_SIZE = 12;
+    static final int LEGACY_HEADER_SIZE = 10;
+    static final int CHILD_ID_SIZE = 8;
+    static final int SLOT_SIZE = 2;
+    static final int LENGTH_SIZE = 2;
+    static final int TOMBSTONE_LENGTH = 0xFFFF;
+
+    ByteBuffer buffer;
+    // the key prefix, read from the page the first time a key is needed.
+    byte[] prefix;
+
+    NodePage(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    static NodePage allocate(int pageSize) {
+        if (pageSize <= HEADER_SIZE || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Unsupported page size " + pageSize);
+        }
+        return new NodePage(ByteBuffer.allocate(pageSize));
+    }
+
+    int getPageSize() {
+        return buffer.capacity();
+    }
+
+    // the most bytes an encoded key and data value together may take so that any node of up to keyCount keys, one
+    // more child than that and messageCount messages fits in a page, whatever their sizes. a shared key prefix only
+    // ever frees up room, so it is left out.
+    static int getMaxEntrySize(int pageSize, int keyCount, int messageCount) {
+        int cellCount = keyCount + messageCount;
+        int cellArea = pageSize - HEADER_SIZE - (keyCount + 1) * CHILD_ID_SIZE - cellCount * SLOT_SIZE;
+
+        return Math.min(cellArea / cellCount - 2 * LENGTH_SIZE, MAX_PAGE_SIZE - 1);
+    }
+
+    boolean isFormatted() {
+        return buffer.getShort(MAGIC_OFFSET) == MAGIC || isLegacy();
+    }
+
+    private boolean isLegacy() {
+        return buffer.getShort(MAGIC_OFFSET) == LEGACY_MAGIC;
+    }
+
+    private int getHeaderSize() {
+        return isLegacy() ? LEGACY_HEADER_SIZE : HEADER_SIZE;
+    }
+
+    int getKeyCount() {
+        return Short.toUnsignedInt(buffer.getShort(KEY_COUNT_OFFSET));
+    }
+
+    int getChildCount() {
+        return Short.toUnsignedInt(buffer.getShort(CHILD_COUNT_OFFSET));
+    }
+
+    int getMessageCount() {
+        return isLegacy() ? 0 : Short.toUnsignedInt(buffer.getShort(MESSAGE_COUNT_OFFSET));
+    }
+
+    int getPrefixLength() {
+        return Short.toUnsignedInt(buffer.getShort(PREFIX_LENGTH_OFFSET));
+    }
+
+    byte[] getPrefix() {
+        if (prefix == null) {
+            prefix = new byte[getPrefixLength()];
+            buffer.get(getHeaderSize(), prefix);
+        }
+        return prefix;
+    }
+
+    private int getChildIdsOffset() {
+        return getHeaderSize() + getPrefixLength();
+    }
+
+    long getChildPageId(int index) {
+        return buffer.getLong(getChildIdsOffset() + index * CHILD_ID_SIZE);
+    }
+
+    private int getSlotDirectoryOffset() {
+        return getChildIdsOffset() + getChildCount() * CHILD_ID_SIZE;
+    }
+
+    private int getCellOffset(int slot) {
+        return Short.toUnsignedInt(buffer.getShort(getSlotDirectoryOffset() + slot * SLOT_SIZE));
+    }
+
+    // null for a tombstone.
+    private byte[] readBytes(int offset) {
+        int length = Short.toUnsignedInt(buffer.getShort(offset));
+        if (length == TOMBSTONE_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        // absolute bulk get so the shared buffer position is never touched.
+        buffer.get(offset + LENGTH_SIZE, bytes);
+
+        return bytes;
+    }
+
+    // the encoded key with the node's prefix put back, the tree's key codec turns it back into a key.
+    byte[] readKey(int slot) {
+        byte[] keyPrefix = getPrefix();
+        int cellOffset = getCellOffset(slot);
+        int suffixLength = Short.toUnsignedInt(buffer.getShort(cellOffset));
+        byte[] key = Arrays.copyOf(keyPrefix, keyPrefix.length + suffixLength);
+        buffer.get(cellOffset + LENGTH_SIZE, key, keyPrefix.length, suffixLength);
+
+        return key;
+    }
+
+    // null for a deleted key.
+    byte[] readData(int slot) {
+        int cellOffset = getCellOffset(slot);
+        int suffixLength = Short.toUnsignedInt(buffer.getShort(cellOffset));
+
+        return readBytes(cellOffset + LENGTH_SIZE + suffixLength);
+    }
+
+    // the messages have the slots after the keys.
+    byte[] readMessageKey(int index) {
+        return readKey(getKeyCount() + index);
+    }
+
+    // null for a delete.
+    byte[] readMessageData(int index) {
+        return readData(getKeyCount() + index);
+    }
+
+    // binary search over the slot directory, decoding only the keys that are probed.
+    // returns the slot of the key if found, else (-(insertion point) - 1) like Arrays.binarySearch.
+    <K> int search(K key, Codec<K> keyCodec, Comparator<? super K> comparator) {
+        int low = 0;
+        int high = getKeyCount() - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = comparator.compare(keyCodec.decode(readKey(mid)), key);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    // the longest run of leading bytes all the keys have in common.
+    static int commonPrefixLength(List<byte[]> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+
+        // keys are in comparator order, which need not be byte order, so the first key is checked against all.
+        byte[] first = keys.get(0);
+        int prefixLength = first.length;
+        for (int i = 1; i < keys.size() && prefixLength > 0; i++) {
+            int mismatch = Arrays.mismatch(first, 0, prefixLength, keys.get(i), 0,
+                    Math.min(prefixLength, keys.get(i).length));
+            if (mismatch >= 0) {
+                prefixLength = mismatch;
+            }
+        }
+
+        return prefixLength;
+    }
+
+    // lays out the node into this page, failing if the keys and children do not fit.
+    // keys and data come already encoded, in key order.
+    void write(List<byte[]> keys, List<byte[]> dataList, long[] childPageIds) throws IOException {
+        write(keys, dataList, childPageIds, List.of(), List.of());
+    }
+
+    // the same with the node's messages, a null data value (or message data value) is stored as a tombstone.
+    void write(List<byte[]> keys, List<byte[]> dataList, long[] childPageIds, List<byte[]> messageKeys,
+               List<byte[]> messageDataList) throws IOException {
+        int pageSize = getPageSize();
+        List<byte[]> cellKeys = keys;
+        List<byte[]> cellDataList = dataList;
+        if (!messageKeys.isEmpty()) {
+            cellKeys = new ArrayList<>(keys);
+            cellKeys.addAll(messageKeys);
+            cellDataList = new ArrayList<>(dataList);
+            cellDataList.addAll(messageDataList);
+        }
+        int prefixLength = commonPrefixLength(cellKeys);
+        int childIdsOffset = HEADER_SIZE + prefixLength;
+        int slotDirectoryOffset = childIdsOffset + childPageIds.length * CHILD_ID_SIZE;
+        int freeStart = slotDirectoryOffset + cellKeys.size() * SLOT_SIZE;
+        int cellStart = pageSize;
+        if (freeStart > pageSize) {
+            throw new IOException(String.format("Node with %d keys and %d messages does not fit in a %d byte page.",
+                    keys.size(), messageKeys.size(), pageSize));
+        }
+
+        buffer.clear();
+        prefix = null;
+        if (prefixLength > 0) {
+            buffer.put(HEADER_SIZE, cellKeys.get(0), 0, prefixLength);
+        }
+        for (int i = 0; i < childPageIds.length; i++) {
+            buffer.putLong(childIdsOffset + i * CHILD_ID_SIZE, childPageIds[i]);
+        }
+
+        for (int i = 0; i < cellKeys.size(); i++) {
+            byte[] key = cellKeys.get(i);
+            byte[] data = cellDataList.get(i);
+            int suffixLength = key.length - prefixLength;
+            int dataLength = (data != null) ? data.length : 0;
+
+            cellStart -= 2 * LENGTH_SIZE + suffixLength + dataLength;
+            if (cellStart < freeStart || suffixLength >= MAX_PAGE_SIZE || dataLength >= MAX_PAGE_SIZE) {
+                throw new IOException(String.format("Node with %d keys and %d messages does not fit in a %d byte " +
+                        "page.", keys.size(), messageKeys.size(), pageSize));
+            }
+
+            buffer.putShort(slotDirectoryOffset + i * SLOT_SIZE, (short) cellStart);
+            int offset = cellStart;
+            buffer.putShort(offset, (short) suffixLength);
+            offset += LENGTH_SIZE;
+            buffer.put(offset, key, prefixLength, suffixLength);
+            offset += suffixLength;
+            buffer.putShort(offset, (short) (data != null ? dataLength : TOMBSTONE_LENGTH));
+            offset += LENGTH_SIZE;
+            if (data != null) {
+                buffer.put(offset, data);
+            }
+        }
+
+        // zero the free space so stale bytes from a previous image never reach the disk.
+        for (int i = freeStart; i < cellStart; i++) {
+            buffer.put(i, (byte) 0);
+        }
+
+        buffer.putShort(MAGIC_OFFSET, MAGIC);
+        buffer.putShort(KEY_COUNT_OFFSET, (short) keys.size());
+        buffer.putShort(CHILD_COUNT_OFFSET, (short) childPageIds.length);
+        buffer.putShort(CELL_START_OFFSET, (short) cellStart);
+        buffer.putShort(PREFIX_LENGTH_OFFSET, (short) prefixLength);
+        buffer.putShort(MESSAGE_COUNT_OFFSET, (short) messageKeys.size());
+    }
+}
@@ -0,0 +1,605 @@
+package btree;
+
+import lombok.*;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+// A BTree over long keys and long values whose nodes live outside the Java heap.
+//
+// every node is a fixed size block in a direct memory slab, laid out as
+//
+//   | key count | leaf flag | keys | values | child node addresses |
+//
+// and nodes refer to each other by address (slab index and offset packed into a long) rather than by reference.
+// the tree itself is a handful of heap objects however many entries it holds, so the garbage collector has next to
+// nothing to trace. freed blocks go onto a free list threaded through the blocks themselves, and close() hands the
+// slabs back to the OS instead of waiting for the collector.
+//
+// insert, delete, get and scan are the same top down proactive split (insert) and merge/rotate (delete) as BTree,
+// keys are ordered as signed longs.
+@Getter @Setter
+public class OffHeapBTree implements Closeable {
+    static final long NO_NODE = -1;
+    static final int DEFAULT_SLAB_SHIFT = 24;
+
+    static final int KEY_COUNT_OFFSET = 0;
+    static final int LEAF_OFFSET = 4;
+    static final int KEYS_OFFSET = 8;
+
+    int lowerThreshold;
+    int higherThreshold;
+    long root = NO_NODE;
+    Arena arena;
+    int valuesOffset;
+    int childrenOffset;
+    int nodeSize;
+    long size;
+
+    // hands out fixed size blocks from direct memory slabs, reusing freed blocks first.
+    @Getter @Setter
+    static class Arena implements Closeable {
+        int blockSize;
+        int slabShift;
+        int slabSize;
+        List<ByteBuffer> slabs = new ArrayList<>();
+        // offset of the next never used block in the last slab.
+        int slabPosition;
+        long freeList = NO_NODE;
+        long blockCount;
+        boolean closed;
+
+        Arena(int blockSize, int slabShift) {
+            if (blockSize > (1 << slabShift)) {
+                throw new IllegalArgumentException("A node does not fit in a slab.");
+            }
+            this.blockSize = blockSize;
+            this.slabShift = slabShift;
+            this.slabSize = 1 << slabShift;
+            this.slabPosition = slabSize;
+        }
+
+        ByteBuffer getSlab(long address) {
+            return slabs.get((int) (address >>> slabShift));
+        }
+
+        int getOffset(long address) {
+            return (int) (address & (slabSize - 1));
+        }
+
+        void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("The tree has been closed.");
+            }
+        }
+
+        long allocate() {
+            checkOpen();
+
+            blockCount++;
+            if (freeList != NO_NODE) {
+                // a free block holds the address of the next free one.
+                long address = freeList;
+                freeList = getSlab(address).getLong(getOffset(address));
+                return address;
+            }
+
+            if (slabPosition + blockSize > slabSize) {
+                slabs.add(ByteBuffer.allocateDirect(slabSize).order(ByteOrder.nativeOrder()));
+                slabPosition = 0;
+            }
+            long address = ((long) (slabs.size() - 1) << slabShift) | slabPosition;
+            slabPosition += blockSize;
+
+            return address;
+        }
+
+        void free(long address) {
+            getSlab(address).putLong(getOffset(address), freeList);
+            freeList = address;
+            blockCount--;
+        }
+
+        long getReservedBytes() {
+            return (long) slabs.size() * slabSize;
+        }
+
+        @Override
+        public void close() {
+            for (ByteBuffer slab : slabs) {
+                release(slab);
+            }
+            slabs.clear();
+            freeList = NO_NODE;
+            closed = true;
+        }
+
+        // frees a direct buffer right away, the collector would only get to it once the buffer is unreachable.
+        private static void release(ByteBuffer buffer) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // left to the garbage collector.
+            }
+        }
+    }
+
+    // walks the keys between fromKey and toKey (both inclusive) in order, without allocating per entry.
+    //
+    //   while (cursor.hasNext()) { long key = cursor.next(); long value = cursor.getValue(); }
+    class Cursor {
+        long toKey;
+        long[] nodes = new long[8];
+        // the next key index to return in each node on the path.
+        int[] indexes = new int[8];
+        int depth;
+        boolean hasNext;
+        long nextKey;
+        long nextValue;
+        long value;
+
+        Cursor(long fromKey, long toKey) {
+            this.toKey = toKey;
+
+            long node = getRoot();
+            while (node != NO_NODE) {
+                int index = searchIndex(node, fromKey);
+                if (index >= 0) {
+                    push(node, index);
+                    break;
+                }
+                index = -index - 1;
+                push(node, index);
+                node = getChild(node, index);
+            }
+            advance();
+        }
+
+        private void push(long node, int index) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * depth);
+                indexes = Arrays.copyOf(indexes, 2 * depth);
+            }
+            nodes[depth] = node;
+            indexes[depth] = index;
+            depth++;
+        }
+
+        private void descend(long node) {
+            while (node != NO_NODE) {
+                push(node, 0);
+                node = getChild(node, 0);
+            }
+        }
+
+        private void advance() {
+            while (depth > 0) {
+                long node = nodes[depth - 1];
+                int index = indexes[depth - 1];
+
+                if (index < getKeyCount(node)) {
+                    indexes[depth - 1] = index + 1;
+                    nextKey = getKey(node, index);
+                    nextValue = OffHeapBTree.this.getValue(node, index);
+                    hasNext = nextKey <= toKey;
+                    descend(getChild(node, index + 1));
+                    return;
+                }
+                depth--;
+            }
+            hasNext = false;
+        }
+
+        boolean hasNext() {
+            return hasNext;
+        }
+
+        // returns the next key, its value is then available from getValue().
+        long next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            // the nodes the cursor is on are gone once the tree is closed.
+            arena.checkOpen();
+
+            long key = nextKey;
+            value = nextValue;
+            advance();
+
+            return key;
+        }
+
+        long getValue() {
+            return value;
+        }
+    }
+
+    OffHeapBTree(int thresholdCount) {
+        this(thresholdCount, DEFAULT_SLAB_SHIFT);
+    }
+
+    OffHeapBTree(int thresholdCount, int slabShift) {
+        setLowerThreshold(thresholdCount - 1);
+        setHigherThreshold(2 * thresholdCount - 1);
+
+        valuesOffset = KEYS_OFFSET + 8 * higherThreshold;
+        childrenOffset = valuesOffset + 8 * higherThreshold;
+        nodeSize = childrenOffset + 8 * (higherThreshold + 1);
+        arena = new Arena(nodeSize, slabShift);
+    }
+
+    long allocateNode(boolean leafNode) {
+        long node = arena.allocate();
+        ByteBuffer slab = arena.getSlab(node);
+        int offset = arena.getOffset(node);
+        slab.putInt(offset + KEY_COUNT_OFFSET, 0);
+        slab.putInt(offset + LEAF_OFFSET, leafNode ? 1 : 0);
+
+        return node;
+    }
+
+    int getKeyCount(long node) {
+        return arena.getSlab(node).getInt(arena.getOffset(node) + KEY_COUNT_OFFSET);
+    }
+
+    void setKeyCount(long node, int keyCount) {
+        arena.getSlab(node).putInt(arena.getOffset(node) + KEY_COUNT_OFFSET, keyCount);
+    }
+
+    boolean isLeafNode(long node) {
+        return arena.getSlab(node).getInt(arena.getOffset(node) + LEAF_OFFSET) != 0;
+    }
+
+    boolean isKeyDataAtHighThreshold(long node) {
+        return getKeyCount(node) == getHigherThreshold();
+    }
+
+    boolean isKeyDataAtLowThreshold(long node) {
+        return getKeyCount(node) == getLowerThreshold();
+    }
+
+    long getKey(long node, int index) {
+        return arena.getSlab(node).getLong(arena.getOffset(node) + KEYS_OFFSET + 8 * index);
+    }
+
+    long getValue(long node, int index) {
+        return arena.getSlab(node).getLong(arena.getOffset(node) + valuesOffset + 8 * index);
+    }
+
+    void setKeyData(long node, int index, long key, long value) {
+        ByteBuffer slab = arena.getSlab(node);
+        int offset = arena.getOffset(node);
+        slab.putLong(offset + KEYS_OFFSET + 8 * index, key);
+        slab.putLong(offset + valuesOffset + 8 * index, value);
+    }
+
+    // the child at index, or NO_NODE for a leaf.
+    long getChild(long node, int index) {
+        if (isLeafNode(node)) {
+            return NO_NODE;
+        }
+        return arena.getSlab(node).getLong(arena.getOffset(node) + childrenOffset + 8 * index);
+    }
+
+    void setChild(long node, int index, long child) {
+        arena.getSlab(node).putLong(arena.getOffset(node) + childrenOffset + 8 * index, child);
+    }
+
+    void insertKeyData(long node, int index, long key, long value) {
+        int keyCount = getKeyCount(node);
+        for (int i = keyCount; i > index; i--) {
+            setKeyData(node, i, getKey(node, i - 1), getValue(node, i - 1));
+        }
+        setKeyData(node, index, key, value);
+        setKeyCount(node, keyCount + 1);
+    }
+
+    void deleteKeyData(long node, int index) {
+        int keyCount = getKeyCount(node);
+        for (int i = index; i < keyCount - 1; i++) {
+            setKeyData(node, i, getKey(node, i + 1), getValue(node, i + 1));
+        }
+        setKeyCount(node, keyCount - 1);
+    }
+
+    // call after the key next to it has been inserted, so keyCount + 1 counts the children including this one.
+    void insertChild(long node, int index, long child) {
+        for (int i = getKeyCount(node); i > index; i--) {
+            setChild(node, i, getChild(node, i - 1));
+        }
+        setChild(node, index, child);
+    }
+
+    // call after the key next to it has been removed, so keyCount + 1 counts the children left.
+    long deleteChild(long node, int index) {
+        long child = getChild(node, index);
+        for (int i = index; i <= getKeyCount(node); i++) {
+            setChild(node, i, getChild(node, i + 1));
+        }
+
+        return child;
+    }
+
+    // binary search over the keys, returns the index of the key if found, else (-(child index) - 1).
+    int searchIndex(long node, long key) {
+        int low = 0;
+        int high = getKeyCount(node) - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = Long.compare(getKey(node, mid), key);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    // splits the full child at index around its median, which moves up into the parent.
+    long split(long parent, int index) {
+        long node = getChild(parent, index);
+        boolean leafNode = isLeafNode(node);
+        long sibling = allocateNode(leafNode);
+        int keyDataListSize = getKeyCount(node);
+        int newSize = (keyDataListSize - 1) / 2;
+
+        for (int i = newSize + 1; i < keyDataListSize; i++) {
+            setKeyData(sibling, i - newSize - 1, getKey(node, i), getValue(node, i));
+        }
+        if (!leafNode) {
+            for (int i = newSize + 1; i <= keyDataListSize; i++) {
+                setChild(sibling, i - newSize - 1, getChild(node, i));
+            }
+        }
+        setKeyCount(sibling, keyDataListSize - newSize - 1);
+
+        insertKeyData(parent, index, getKey(node, newSize), getValue(node, newSize));
+        insertChild(parent, index + 1, sibling);
+        setKeyCount(node, newSize);
+
+        return sibling;
+    }
+
+    // merges the children at index and index + 1 with the key between them, into the left one.
+    long mergeSubTrees(long parent, int index) {
+        long node = getChild(parent, index);
+        long sibling = getChild(parent, index + 1);
+        int keyCount = getKeyCount(node);
+        int siblingKeyCount = getKeyCount(sibling);
+
+        setKeyData(node, keyCount, getKey(parent, index), getValue(parent, index));
+        for (int i = 0; i < siblingKeyCount; i++) {
+            setKeyData(node, keyCount + 1 + i, getKey(sibling, i), getValue(sibling, i));
+        }
+        if (!isLeafNode(node)) {
+            for (int i = 0; i <= siblingKeyCount; i++) {
+                setChild(node, keyCount + 1 + i, getChild(sibling, i));
+            }
+        }
+        setKeyCount(node, keyCount + 1 + siblingKeyCount);
+
+        deleteKeyData(parent, index);
+        deleteChild(parent, index + 1);
+        arena.free(sibling);
+
+        if (parent == getRoot() && getKeyCount(parent) == 0) {
+            // root is now reduced to a single child, so instead use that child as new root.
+            arena.free(parent);
+            setRoot(node);
+        }
+
+        return node;
+    }
+
+    void insert(long key, long value) {
+        arena.checkOpen();
+        if (getRoot() == NO_NODE) {
+            setRoot(allocateNode(true));
+        }
+
+        long node = getRoot();
+        if (isKeyDataAtHighThreshold(node)) {
+            // split the root under a new one, and continue from the new root.
+            long parent = allocateNode(false);
+            setChild(parent, 0, node);
+            setRoot(parent);
+            split(parent, 0);
+            node = parent;
+        }
+
+        while (true) {
+            int i = searchIndex(node, key);
+            if (i >= 0) {
+                // for duplicates, we just replace current value.
+                setKeyData(node, i, key, value);
+                return;
+            }
+
+            i = -i - 1;
+            if (isLeafNode(node)) {
+                insertKeyData(node, i, key, value);
+                size++;
+                return;
+            }
+
+            long child = getChild(node, i);
+            if (isKeyDataAtHighThreshold(child)) {
+                long sibling = split(node, i);
+                long median = getKey(node, i);
+                if (median == key) {
+                    setKeyData(node, i, key, value);
+                    return;
+                } else if (median < key) {
+                    child = sibling;
+                }
+            }
+            node = child;
+        }
+    }
+
+    // point lookup, returns defaultValue when the key is not in the tree.
+    public long get(long key, long defaultValue) {
+        arena.checkOpen();
+        long node = getRoot();
+
+        while (node != NO_NODE) {
+            int index = searchIndex(node, key);
+            if (index >= 0) {
+                return getValue(node, index);
+            }
+            node = getChild(node, -index - 1);
+        }
+
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        arena.checkOpen();
+        long node = getRoot();
+
+        while (node != NO_NODE) {
+            int index = searchIndex(node, key);
+            if (index >= 0) {
+                return true;
+            }
+            node = getChild(node, -index - 1);
+        }
+
+        return false;
+    }
+
+    boolean delete(long key) {
+        arena.checkOpen();
+        long node = getRoot();
+        if (node == NO_NODE) {
+            return false;
+        }
+
+        // every node other than root is pre-vetted for minimum threshold.
+        while (!isLeafNode(node)) {
+            int index = searchIndex(node, key);
+
+            if (index >= 0) {
+                long child = getChild(node, index);
+                long sibling = getChild(node, index + 1);
+
+                if (isKeyDataAtLowThreshold(child) && isKeyDataAtLowThreshold(sibling)) {
+                    node = mergeSubTrees(node, index);
+                } else if (!isKeyDataAtLowThreshold(child)) {
+                    // we need to find the predecessor in the left subtree. since this will be a leaf.
+                    long leaf = child;
+                    while (!isLeafNode(leaf)) {
+                        leaf = getChild(leaf, getKeyCount(leaf));
+                    }
+                    int last = getKeyCount(leaf) - 1;
+                    key = getKey(leaf, last);
+                    setKeyData(node, index, key, getValue(leaf, last));
+                    node = child;
+                } else {
+                    // we need to find the successor in the right subtree. since this will be a leaf.
+                    long leaf = sibling;
+                    while (!isLeafNode(leaf)) {
+                        leaf = getChild(leaf, 0);
+                    }
+                    key = getKey(leaf, 0);
+                    setKeyData(node, index, key, getValue(leaf, 0));
+                    node = sibling;
+                }
+            } else {
+                int childIndex = -index - 1;
+                boolean rightSibling = childIndex < getKeyCount(node);
+                int childKeyIndex = rightSibling ? childIndex : childIndex - 1;
+                long child = getChild(node, childIndex);
+                long sibling = getChild(node, rightSibling ? childIndex + 1 : childIndex - 1);
+
+                if (isKeyDataAtLowThreshold(child) && isKeyDataAtLowThreshold(sibling)) {
+                    // the merged node will always be the left child of the node.
+                    node = mergeSubTrees(node, childKeyIndex);
+                } else if (isKeyDataAtLowThreshold(child)) {
+                    int childKeyCount = getKeyCount(child);
+                    if (rightSibling) {
+                        // rotate left.
+                        insertKeyData(child, childKeyCount, getKey(node, childKeyIndex), getValue(node, childKeyIndex));
+                        setKeyData(node, childKeyIndex, getKey(sibling, 0), getValue(sibling, 0));
+                        deleteKeyData(sibling, 0);
+                        if (!isLeafNode(child)) {
+                            setChild(child, childKeyCount + 1, deleteChild(sibling, 0));
+                        }
+                    } else {
+                        // rotate right.
+                        int last = getKeyCount(sibling) - 1;
+                        insertKeyData(child, 0, getKey(node, childKeyIndex), getValue(node, childKeyIndex));
+                        setKeyData(node, childKeyIndex, getKey(sibling, last), getValue(sibling, last));
+                        deleteKeyData(sibling, last);
+                        if (!isLeafNode(child)) {
+                            insertChild(child, 0, deleteChild(sibling, last + 1));
+                        }
+                    }
+                    node = child;
+                } else {
+                    node = child;
+                }
+            }
+        }
+
+        // if the search has concluded in a leaf, its a simple yes/no answer.
+        int index = searchIndex(node, key);
+        if (index >= 0) {
+            deleteKeyData(node, index);
+            size--;
+            return true;
+        }
+
+        return false;
+    }
+
+    // ordered range scan over [fromKey, toKey].
+    public Cursor scan(long fromKey, long toKey) {
+        arena.checkOpen();
+        return new Cursor(fromKey, toKey);
+    }
+
+    public Cursor scan() {
+        return scan(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    void inorder() {
+        Cursor cursor = scan();
+        while (cursor.hasNext()) {
+            long key = cursor.next();
+            System.out.println(key + ":" + cursor.getValue());
+        }
+    }
+
+    // releases the native memory, the tree can not be used afterwards and throws IllegalStateException if it is.
+    @Override
+    public void close() {
+        arena.close();
+        root = NO_NODE;
+        size = 0;
+    }
+
+    public static void main(String args[]) {
+        System.out.println("I am in the main routine.");
+        try (OffHeapBTree bTree = new OffHeapBTree(16)) {
+            for (long i = 0; i < 1000000; i++) {
+                bTree.insert(i, 2 * i);
+            }
+            for (long i = 0; i < 1000000; i += 2) {
+                bTree.delete(i);
+            }
+            System.out.println(bTree.getSize() + " keys in " + bTree.getArena().getReservedBytes() + " bytes");
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package btree;
+
+import lombok.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// A BTree whose nodes keep their entries packed into arrays instead of a KeyData object per entry.
+//
+// every node has one byte arena holding its entries back to back, each entry is the key bytes followed by the
+// value bytes. offsets[i] is where entry i starts (offsets[keyCount] is the end of the last one) and keyLengths[i]
+// is how much of it is key. children are a plain array. a node is five objects however many keys it holds, and
+// moving entries around for an insert, split, merge or rotate is a System.arraycopy over the arena and the two
+// int arrays.
+//
+// keys compare as unsigned bytes, for strings stored as UTF-8 that is code point order, which only differs from
+// String.compareTo for characters outside the basic multilingual plane.
+@Getter @Setter
+public class PackedBTree {
+    static final int INITIAL_ARENA_SIZE = 256;
+
+    int lowerThreshold;
+    int higherThreshold;
+    Node root;
+
+    @Getter @Setter
+    class Node {
+        int keyCount;
+        byte[] arena = new byte[INITIAL_ARENA_SIZE];
+        int[] offsets = new int[getHigherThreshold() + 1];
+        int[] keyLengths = new int[getHigherThreshold()];
+        // null for a leaf, else keyCount + 1 children.
+        Node[] childNodes;
+
+        Node(boolean leafNode) {
+            if (!leafNode) {
+                childNodes = new Node[getHigherThreshold() + 1];
+            }
+        }
+
+        boolean isLeafNode() {
+            return childNodes == null;
+        }
+
+        boolean isKeyDataAtHighThreshold() {
+            return keyCount == getHigherThreshold();
+        }
+
+        boolean isKeyDataAtLowThreshold() {
+            return keyCount == getLowerThreshold();
+        }
+
+        int getUsedBytes() {
+            return offsets[keyCount];
+        }
+
+        int getEntryLength(int index) {
+            return offsets[index + 1] - offsets[index];
+        }
+
+        byte[] getKey(int index) {
+            return Arrays.copyOfRange(arena, offsets[index], offsets[index] + keyLengths[index]);
+        }
+
+        byte[] getValue(int index) {
+            return Arrays.copyOfRange(arena, offsets[index] + keyLengths[index], offsets[index + 1]);
+        }
+
+        int compareKey(int index, byte[] key) {
+            return Arrays.compareUnsigned(arena, offsets[index], offsets[index] + keyLengths[index],
+                    key, 0, key.length);
+        }
+
+        Node getChild(int index) {
+            return isLeafNode() ? null : childNodes[index];
+        }
+
+        // binary search over the keys, returns the index of the key if found, else (-(child index) - 1).
+        int searchIndex(byte[] key) {
+            int low = 0;
+            int high = keyCount - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = compareKey(mid, key);
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        private void ensureArenaCapacity(int size) {
+            if (size > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(size, 2 * arena.length));
+            }
+        }
+
+        // opens a hole of length bytes for a new entry at index, and returns where it starts.
+        private int makeRoom(int index, int keyLength, int length) {
+            int start = offsets[index];
+            int used = getUsedBytes();
+            ensureArenaCapacity(used + length);
+
+            System.arraycopy(arena, start, arena, start + length, used - start);
+            System.arraycopy(offsets, index, offsets, index + 1, keyCount - index + 1);
+            for (int i = index + 1; i <= keyCount + 1; i++) {
+                offsets[i] += length;
+            }
+            System.arraycopy(keyLengths, index, keyLengths, index + 1, keyCount - index);
+            keyLengths[index] = keyLength;
+            keyCount++;
+
+            return start;
+        }
+
+        void insertKeyData(int index, byte[] key, byte[] value) {
+            int start = makeRoom(index, key.length, key.length + value.length);
+            System.arraycopy(key, 0, arena, start, key.length);
+            System.arraycopy(value, 0, arena, start + key.length, value.length);
+        }
+
+        // copies entry sourceIndex of another node in at index.
+        void insertKeyData(int index, Node source, int sourceIndex) {
+            int length = source.getEntryLength(sourceIndex);
+            int start = makeRoom(index, source.getKeyLengths()[sourceIndex], length);
+            System.arraycopy(source.getArena(), source.getOffsets()[sourceIndex], arena, start, length);
+        }
+
+        void deleteKeyData(int index) {
+            int start = offsets[index];
+            int length = getEntryLength(index);
+            int used = getUsedBytes();
+
+            System.arraycopy(arena, start + length, arena, start, used - start - length);
+            System.arraycopy(offsets, index + 2, offsets, index + 1, keyCount - index - 1);
+            for (int i = index + 1; i < keyCount; i++) {
+                offsets[i] -= length;
+            }
+            System.arraycopy(keyLengths, index + 1, keyLengths, index, keyCount - index - 1);
+            keyCount--;
+        }
+
+        void replaceKeyData(int index, Node source, int sourceIndex) {
+            deleteKeyData(index);
+            insertKeyData(index, source, sourceIndex);
+        }
+
+        void insertChild(int index, Node child) {
+            int childCount = keyCount + 1;
+            System.arraycopy(childNodes, index, childNodes, index + 1, childCount - 1 - index);
+            childNodes[index] = child;
+        }
+
+        // call after the key next to it has been removed, so keyCount + 1 counts the children left.
+        Node deleteChild(int index) {
+            Node child = childNodes[index];
+            int childCount = keyCount + 2;
+            System.arraycopy(childNodes, index + 1, childNodes, index, childCount - index - 1);
+            childNodes[childCount - 1] = null;
+
+            return child;
+        }
+
+        // appends entries [from, to) of another node, any children are moved by the caller.
+        void appendKeyData(Node source, int from, int to) {
+            int sourceStart = source.getOffsets()[from];
+            int length = source.getOffsets()[to] - sourceStart;
+            int used = getUsedBytes();
+            ensureArenaCapacity(used + length);
+
+            System.arraycopy(source.getArena(), sourceStart, arena, used, length);
+            for (int i = from; i < to; i++) {
+                offsets[keyCount + i - from + 1] = used + source.getOffsets()[i + 1] - sourceStart;
+            }
+            System.arraycopy(source.getKeyLengths(), from, keyLengths, keyCount, to - from);
+            keyCount += to - from;
+        }
+
+        // drops the entries from index on, the arena bytes behind them are simply reused.
+        void truncate(int index) {
+            if (!isLeafNode()) {
+                Arrays.fill(childNodes, index + 1, keyCount + 1, null);
+            }
+            keyCount = index;
+        }
+    }
+
+    PackedBTree(int thresholdCount) {
+        setLowerThreshold(thresholdCount - 1);
+        setHigherThreshold(2 * thresholdCount - 1);
+    }
+
+    // splits the full child at index around its median, which moves up into the parent.
+    Node split(Node parent, int index) {
+        Node node = parent.getChild(index);
+        Node sibling = new Node(node.isLeafNode());
+        int keyDataListSize = node.getKeyCount();
+        int newSize = (keyDataListSize - 1) / 2;
+
+        sibling.appendKeyData(node, newSize + 1, keyDataListSize);
+        if (!node.isLeafNode()) {
+            System.arraycopy(node.getChildNodes(), newSize + 1, sibling.getChildNodes(), 0,
+                    keyDataListSize - newSize);
+        }
+        parent.insertKeyData(index, node, newSize);
+        parent.insertChild(index + 1, sibling);
+        node.truncate(newSize);
+
+        return sibling;
+    }
+
+    // merges the children at index and index + 1 with the key between them, into the left one.
+    Node mergeSubTrees(Node parent, int index) {
+        Node node = parent.getChild(index);
+        Node sibling = parent.getChild(index + 1);
+        int nodeChildCount = node.getKeyCount() + 1;
+
+        node.appendKeyData(parent, index, index + 1);
+        node.appendKeyData(sibling, 0, sibling.getKeyCount());
+        if (!node.isLeafNode()) {
+            System.arraycopy(sibling.getChildNodes(), 0, node.getChildNodes(), nodeChildCount,
+                    sibling.getKeyCount() + 1);
+        }
+        parent.deleteKeyData(index);
+        parent.deleteChild(index + 1);
+
+        if (parent == getRoot() && parent.getKeyCount() == 0) {
+            // root is now reduced to a single child, so instead use that child as new root.
+            setRoot(node);
+        }
+
+        return node;
+    }
+
+    void insert(byte[] key, byte[] value) {
+        if (getRoot() == null) {
+            setRoot(new Node(true));
+        }
+
+        Node node = getRoot();
+        if (node.isKeyDataAtHighThreshold()) {
+            // split the root under a new one, and continue from the new root.
+            Node parent = new Node(false);
+            parent.getChildNodes()[0] = node;
+            setRoot(parent);
+            split(parent, 0);
+            node = parent;
+        }
+
+        while (true) {
+            int i = node.searchIndex(key);
+            if (i >= 0) {
+                // for duplicates, we just replace current value.
+                node.deleteKeyData(i);
+                node.insertKeyData(i, key, value);
+                return;
+            }
+
+            i = -i - 1;
+            if (node.isLeafNode()) {
+                node.insertKeyData(i, key, value);
+                return;
+            }
+
+            Node child = node.getChild(i);
+            if (child.isKeyDataAtHighThreshold()) {
+                Node sibling = split(node, i);
+                int compare = node.compareKey(i, key);
+                if (compare == 0) {
+                    node.deleteKeyData(i);
+                    node.insertKeyData(i, key, value);
+                    return;
+                } else if (compare < 0) {
+                    child = sibling;
+                }
+            }
+            node = child;
+        }
+    }
+
+    void insert(String key, String data) {
+        insert(key.getBytes(StandardCharsets.UTF_8), data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // point lookup, the value is the only thing allocated.
+    public byte[] get(byte[] key) {
+        Node node = getRoot();
+
+        while (node != null) {
+            int index = node.searchIndex(key);
+            if (index >= 0) {
+                return node.getValue(index);
+            }
+            node = node.getChild(-index - 1);
+        }
+
+        return null;
+    }
+
+    public String get(String key) {
+        byte[] value = get(key.getBytes(StandardCharsets.UTF_8));
+
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    public boolean containsKey(byte[] key) {
+        return get(key) != null;
+    }
+
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    boolean delete(byte[] key) {
+        Node node = getRoot();
+        if (node == null) {
+            return false;
+        }
+
+        // every node other than root is pre-vetted for minimum threshold.
+        while (!node.isLeafNode()) {
+            int index = node.searchIndex(key);
+
+            if (index >= 0) {
+                Node child = node.getChild(index);
+                Node sibling = node.getChild(index + 1);
+
+                if (child.isKeyDataAtLowThreshold() && sibling.isKeyDataAtLowThreshold()) {
+                    node = mergeSubTrees(node, index);
+                } else if (!child.isKeyDataAtLowThreshold()) {
+                    // we need to find the predecessor in the left subtree. since this will be a leaf.
+                    Node leaf = child;
+                    while (!leaf.isLeafNode()) {
+                        leaf = leaf.getChild(leaf.getKeyCount());
+                    }
+                    node.replaceKeyData(index, leaf, leaf.getKeyCount() - 1);
+                    key = node.getKey(index);
+                    node = child;
+                } else {
+                    // we need to find the successor in the right subtree. since this will be a leaf.
+                    Node leaf = sibling;
+                    while (!leaf.isLeafNode()) {
+                        leaf = leaf.getChild(0);
+                    }
+                    node.replaceKeyData(index, leaf, 0);
+                    key = node.getKey(index);
+                    node = sibling;
+                }
+            } else {
+                int childIndex = -index - 1;
+                boolean rightSibling = childIndex < node.getKeyCount();
+                int childKeyIndex = rightSibling ? childIndex : childIndex - 1;
+                Node child = node.getChild(childIndex);
+                Node sibling = node.getChild(rightSibling ? childIndex + 1 : childIndex - 1);
+
+                if (child.isKeyDataAtLowThreshold() && sibling.isKeyDataAtLowThreshold()) {
+                    // the merged node will always be the left child of the node.
+                    node = mergeSubTrees(node, childKeyIndex);
+                } else if (child.isKeyDataAtLowThreshold()) {
+                    if (rightSibling) {
+                        // rotate left.
+                        child.appendKeyData(node, childKeyIndex, childKeyIndex + 1);
+                        node.replaceKeyData(childKeyIndex, sibling, 0);
+                        sibling.deleteKeyData(0);
+                        if (!child.isLeafNode()) {
+                            child.getChildNodes()[child.getKeyCount()] = sibling.deleteChild(0);
+                        }
+                    } else {
+                        // rotate right.
+                        int last = sibling.getKeyCount() - 1;
+                        child.insertKeyData(0, node, childKeyIndex);
+                        node.replaceKeyData(childKeyIndex, sibling, last);
+                        sibling.deleteKeyData(last);
+                        if (!child.isLeafNode()) {
+                            child.insertChild(0, sibling.deleteChild(last + 1));
+                        }
+                    }
+                    node = child;
+                } else {
+                    node = child;
+                }
+            }
+        }
+
+        // if the search has concluded in a leaf, its a simple yes/no answer.
+        int index = node.searchIndex(key);
+        if (index >= 0) {
+            node.deleteKeyData(index);
+            return true;
+        }
+
+        return false;
+    }
+
+    boolean delete(String key) {
+        return delete(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void inorder(Node node) {
+        if (node == null) {
+            return;
+        }
+
+        for (int i = 0; i < node.getKeyCount(); i++) {
+            inorder(node.getChild(i));
+            System.out.println(new String(node.getKey(i), StandardCharsets.UTF_8) + ":" +
+                    new String(node.getValue(i), StandardCharsets.UTF_8));
+        }
+
+        // there will be one more child node than the number of keys in this node for every intermediate node.
+        inorder(node.getChild(node.getKeyCount()));
+    }
+
+    void inorder() {
+        inorder(getRoot());
+    }
+
+    public static void main(String args[]) {
+        System.out.println("I am in the main routine.");
+        PackedBTree bTree = new PackedBTree(2);
+
+        for (int i = 0; i < 500000; i++) {
+            bTree.insert("key" + i, "data" + i);
+        }
+        for (int i = 0; i < 500000; i++) {
+            boolean status = bTree.delete("key" + i);
+        }
+        bTree.inorder();
+    }
+}
@@ -0,0 +1,478 @@
+package btree;
+
+import lombok.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A single data file holding every page of a BTreeDisk, addressed by page number.
+//
+// page 0 is the header page holding the tree metadata and the allocator state, every other page is either a
+// node page or a free page. free pages are chained into a list through their first bytes so that pages released
+// by merges are reused before the file grows, and the file itself grows a whole extent of pages at a time.
+//
+// with mapped reads turned on, pages are read straight out of read only mappings of the data file instead of being
+// copied into a fresh buffer, the file is mapped in fixed size chunks so it can grow past what a single mapping holds.
+// writes still go through the channel, the mappings see them since both share the page cache.
+//
+// while a batch is open, writes are queued instead of applied so that the whole batch can be made durable in the
+// write ahead log before any of it reaches the data file.
+//
+// with compression turned on, a node image is deflated into its page and inflated again when it is read, so the
+// image can be several pages large while the file only holds its compressed bytes. an image that does not compress
+// into a single page spills over into a chain of overflow pages that belong to the node page. the buffer pool only
+// ever sees inflated nodes.
+@Getter @Setter
+public class PageStore implements Closeable {
+    // how node images are stored in their pages.
+    enum Compression {
+        // the node image is the page.
+        NONE,
+        // the node image is deflated into the page, and into overflow pages if it does not compress enough to fit.
+        DEFLATE
+    }
+
+    static final long MAGIC = 0x4254524545444b31L;
+    static final long HEADER_PAGE_ID = 0;
+    static final int DEFAULT_EXTENT_PAGES = 256;
+    static final int MAPPING_CHUNK_BYTES = 1 << 26;
+
+    // header page layout.
+    static final int MAGIC_OFFSET = 0;
+    static final int PAGE_SIZE_OFFSET = 8;
+    static final int THRESHOLD_COUNT_OFFSET = 12;
+    static final int ROOT_ID_OFFSET = 16;
+    static final int PAGE_COUNT_OFFSET = 24;
+    static final int FREE_LIST_HEAD_OFFSET = 32;
+    static final int COMPRESSION_OFFSET = 40;
+    static final int NODE_SIZE_OFFSET = 44;
+    static final int MESSAGE_BUFFER_CAPACITY_OFFSET = 48;
+    static final int HEADER_SIZE = 52;
+
+    // free page layout, the link to the next free page.
+    static final int FREE_LINK_OFFSET = 0;
+
+    // compressed node page layout, the length of the deflated image followed by the deflated image. when the length
+    // is more than the page has room for, it is followed by the first overflow page id and then the start of the image.
+    static final int COMPRESSED_LENGTH_OFFSET = 0;
+    static final int COMPRESSED_DATA_OFFSET = 4;
+    static final int COMPRESSED_OVERFLOW_LINK_OFFSET = 4;
+    static final int COMPRESSED_OVERFLOW_DATA_OFFSET = 12;
+
+    // overflow page layout, the link to the next overflow page followed by more of the deflated image.
+    static final int OVERFLOW_LINK_OFFSET = 0;
+    static final int OVERFLOW_DATA_OFFSET = 8;
+    static final long[] NO_OVERFLOW_PAGES = new long[0];
+
+    @Getter @Setter @AllArgsConstructor
+    static class PendingWrite {
+        long offset;
+        byte[] bytes;
+    }
+
+    Path path;
+    FileChannel channel;
+    int pageSize;
+    int extentPages = DEFAULT_EXTENT_PAGES;
+    // pages handed out so far including the header page, page ids at or above this are unused file space.
+    long pageCount;
+    // pages the file has been grown to hold.
+    long filePageCount;
+    BTreeDisk.Metadata metadata;
+    // free pages in stack order, the bottom freeLinksOnDisk entries already have valid links in the file.
+    Deque<Long> freePages = new ArrayDeque<>();
+    int freeLinksOnDisk;
+    boolean mappedReads;
+    List<MappedByteBuffer> mappings = new ArrayList<>();
+    // queued writes of the open batch, null when no batch is open.
+    List<PendingWrite> batch;
+    // zlib streams are costly to set up, so one of each is kept and reset for every page.
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    Inflater inflater = new Inflater();
+    // the overflow pages of the compressed node pages that have them, in chain order. a node's chain is learnt when
+    // its page is read or written, and a node is always read or newly written before it is rewritten or freed.
+    // prefetch threads read nodes too.
+    Map<Long, long[]> overflowPages = new ConcurrentHashMap<>();
+    // the tree's metrics, which count the bytes read from and written to the file.
+    TreeMetrics metrics = new TreeMetrics();
+
+    private PageStore(Path path, FileChannel channel, int pageSize) {
+        this.path = path;
+        this.channel = channel;
+        this.pageSize = pageSize;
+    }
+
+    // creates a new data file, replacing any existing file at the path.
+    static PageStore create(Path path, BTreeDisk.Metadata metadata) throws IOException {
+        if (metadata.getMaxEntrySize() < 0) {
+            throw new IllegalArgumentException(String.format("A node with threshold %d does not fit in a %d byte " +
+                    "node image.", metadata.getThresholdCount(), metadata.getNodeSize()));
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        PageStore pageStore = new PageStore(path, channel, metadata.getPageSize());
+        pageStore.setMetadata(metadata);
+        pageStore.setPageCount(HEADER_PAGE_ID + 1);
+        pageStore.flush();
+
+        return pageStore;
+    }
+
+    // opens an existing data file and loads the metadata and free list from it.
+    static PageStore open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+
+        if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+            channel.close();
+            throw new IOException(String.format("%s is not a btree data file.", path));
+        }
+
+        PageStore pageStore = new PageStore(path, channel, header.getInt(PAGE_SIZE_OFFSET));
+        BTreeDisk.Metadata metadata = new BTreeDisk.Metadata(header.getInt(THRESHOLD_COUNT_OFFSET),
+                header.getInt(PAGE_SIZE_OFFSET));
+        metadata.setRootId(header.getLong(ROOT_ID_OFFSET));
+        int compression = header.getInt(COMPRESSION_OFFSET);
+        if (compression < 0 || compression >= Compression.values().length) {
+            channel.close();
+            throw new IOException(String.format("%s uses an unknown page compression %d.", path, compression));
+        }
+        metadata.setCompression(Compression.values()[compression]);
+        // files from before compression have no node size, their node images are exactly a page.
+        int nodeSize = header.getInt(NODE_SIZE_OFFSET);
+        metadata.setNodeSize(nodeSize != 0 ? nodeSize : metadata.getPageSize());
+        // and files from before message buffers do not buffer messages, which is a capacity of 0.
+        metadata.setMessageBufferCapacity(header.getInt(MESSAGE_BUFFER_CAPACITY_OFFSET));
+        pageStore.setMetadata(metadata);
+        pageStore.setPageCount(header.getLong(PAGE_COUNT_OFFSET));
+        pageStore.setFilePageCount(channel.size() / pageStore.getPageSize());
+        pageStore.loadFreeList(header.getLong(FREE_LIST_HEAD_OFFSET));
+
+        return pageStore;
+    }
+
+    private void loadFreeList(long head) throws IOException {
+        // the chain on disk runs from the top of the stack to the bottom.
+        List<Long> chain = new ArrayList<>();
+        ByteBuffer link = ByteBuffer.allocate(Long.BYTES);
+        for (long pageId = head; pageId != BTreeDisk.NO_PAGE_ID; pageId = link.getLong(0)) {
+            chain.add(pageId);
+            link.clear();
+            channel.read(link, getPageOffset(pageId) + FREE_LINK_OFFSET);
+        }
+
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            freePages.push(chain.get(i));
+        }
+        freeLinksOnDisk = freePages.size();
+    }
+
+    long getPageOffset(long pageId) {
+        return pageId * pageSize;
+    }
+
+    ByteBuffer readPage(long pageId) throws IOException {
+        if (isMappedReads()) {
+            metrics.getBytesMapped().add(pageSize);
+            return readMappedPage(pageId);
+        }
+
+        metrics.getBytesRead().add(pageSize);
+        ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+        readPage(pageId, buffer);
+
+        return buffer;
+    }
+
+    int getPagesPerMapping() {
+        return MAPPING_CHUNK_BYTES / pageSize;
+    }
+
+    // returns a view of the page inside its mapping, nothing is copied.
+    // synchronized since prefetch threads read pages too, and the mappings are created on first use.
+    synchronized ByteBuffer readMappedPage(long pageId) throws IOException {
+        int pagesPerMapping = getPagesPerMapping();
+        int chunk = (int) (pageId / pagesPerMapping);
+        int offset = (int) (pageId % pagesPerMapping) * pageSize;
+
+        MappedByteBuffer mapping = (chunk < mappings.size()) ? mappings.get(chunk) : null;
+        if (mapping == null || mapping.capacity() < offset + pageSize) {
+            mapping = map(chunk, pageId);
+        }
+
+        return mapping.slice(offset, pageSize);
+    }
+
+    // the last chunk is only mapped up to the current end of file, so it is remapped as the file grows.
+    private MappedByteBuffer map(int chunk, long pageId) throws IOException {
+        long chunkBytes = (long) getPagesPerMapping() * pageSize;
+        long start = chunk * chunkBytes;
+        long length = Math.min(chunkBytes, channel.size() - start);
+        if (pageId >= pageCount || length < getPageOffset(pageId) - start + pageSize) {
+            throw new IOException(String.format("Page %d is beyond the end of the data file.", pageId));
+        }
+
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        while (mappings.size() <= chunk) {
+            mappings.add(null);
+        }
+        mappings.set(chunk, mapping);
+
+        return mapping;
+    }
+
+    void readPage(long pageId, ByteBuffer buffer) throws IOException {
+        long offset = getPageOffset(pageId);
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException(String.format("Page %d is beyond the end of the data file.", pageId));
+            }
+        }
+        buffer.flip();
+    }
+
+    void writePage(long pageId, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        write(getPageOffset(pageId), buffer);
+    }
+
+    // reads the node image held in a page, inflating it if the store is compressed.
+    NodePage readNode(long pageId) throws IOException {
+        ByteBuffer page = readPage(pageId);
+        if (metadata.getCompression() == Compression.NONE) {
+            return new NodePage(page);
+        }
+
+        int length = page.getInt(COMPRESSED_LENGTH_OFFSET);
+        // deflate never grows an image by anywhere near a page.
+        if (length <= 0 || length > metadata.getNodeSize() + pageSize) {
+            throw new IOException(String.format("Page %d is not a compressed node page.", pageId));
+        }
+        ByteBuffer deflated = (length <= pageSize - COMPRESSED_DATA_OFFSET) ?
+                page.slice(COMPRESSED_DATA_OFFSET, length) : readOverflowPages(pageId, page, length);
+
+        ByteBuffer image = ByteBuffer.allocate(metadata.getNodeSize());
+        synchronized (inflater) {
+            inflater.reset();
+            inflater.setInput(deflated);
+            try {
+                while (!inflater.finished() && image.hasRemaining() && !inflater.needsInput()) {
+                    inflater.inflate(image);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(String.format("Page %d holds a corrupt compressed node.", pageId), e);
+            }
+            if (!inflater.finished()) {
+                throw new IOException(String.format("Page %d holds a truncated compressed node.", pageId));
+            }
+        }
+        image.clear();
+
+        return new NodePage(image);
+    }
+
+    // gathers a deflated image that starts in its node page and goes on in the overflow pages chained from it.
+    private ByteBuffer readOverflowPages(long pageId, ByteBuffer page, int length) throws IOException {
+        ByteBuffer deflated = ByteBuffer.allocate(length);
+        deflated.put(page.slice(COMPRESSED_OVERFLOW_DATA_OFFSET, pageSize - COMPRESSED_OVERFLOW_DATA_OFFSET));
+        List<Long> chain = new ArrayList<>();
+        long next = page.getLong(COMPRESSED_OVERFLOW_LINK_OFFSET);
+        while (deflated.hasRemaining()) {
+            if (next <= HEADER_PAGE_ID || next >= pageCount) {
+                throw new IOException(String.format("Page %d has a broken overflow chain.", pageId));
+            }
+            chain.add(next);
+            ByteBuffer overflow = readPage(next);
+            int count = Math.min(deflated.remaining(), pageSize - OVERFLOW_DATA_OFFSET);
+            deflated.put(overflow.slice(OVERFLOW_DATA_OFFSET, count));
+            next = overflow.getLong(OVERFLOW_LINK_OFFSET);
+        }
+        // a prefetch read of an older image never replaces the chain the last write left.
+        overflowPages.putIfAbsent(pageId, chain.stream().mapToLong(Long::longValue).toArray());
+
+        return deflated.flip();
+    }
+
+    // writes a node image into its page, deflating it first if the store is compressed.
+    void writeNode(long pageId, NodePage nodePage) throws IOException {
+        if (metadata.getCompression() == Compression.NONE) {
+            writePage(pageId, nodePage.getBuffer());
+            return;
+        }
+
+        ByteBuffer image = nodePage.getBuffer();
+        image.clear();
+        // an image that does not compress still deflates to less than a page more than its own size.
+        ByteBuffer deflated = ByteBuffer.allocate(metadata.getNodeSize() + pageSize);
+        synchronized (deflater) {
+            deflater.reset();
+            deflater.setInput(image);
+            deflater.finish();
+            while (!deflater.finished() && deflated.hasRemaining()) {
+                deflater.deflate(deflated);
+            }
+            if (!deflater.finished()) {
+                throw new IOException(String.format("Node for page %d does not deflate.", pageId));
+            }
+        }
+        int length = deflated.position();
+        deflated.flip();
+
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        page.putInt(COMPRESSED_LENGTH_OFFSET, length);
+        long[] oldChain = overflowPages.getOrDefault(pageId, NO_OVERFLOW_PAGES);
+        long[] chain = NO_OVERFLOW_PAGES;
+        if (length <= pageSize - COMPRESSED_DATA_OFFSET) {
+            page.put(COMPRESSED_DATA_OFFSET, deflated, 0, length);
+            writePage(pageId, page);
+        } else {
+            // the pages of the last chain are reused first, so a node that keeps overflowing keeps its pages.
+            int inPage = pageSize - COMPRESSED_OVERFLOW_DATA_OFFSET;
+            int perOverflowPage = pageSize - OVERFLOW_DATA_OFFSET;
+            chain = Arrays.copyOf(oldChain, (length - inPage + perOverflowPage - 1) / perOverflowPage);
+            for (int i = oldChain.length; i < chain.length; i++) {
+                chain[i] = allocatePage();
+            }
+
+            page.putLong(COMPRESSED_OVERFLOW_LINK_OFFSET, chain[0]);
+            page.put(COMPRESSED_OVERFLOW_DATA_OFFSET, deflated, 0, inPage);
+            writePage(pageId, page);
+            int offset = inPage;
+            for (int i = 0; i < chain.length; i++) {
+                ByteBuffer overflow = ByteBuffer.allocate(pageSize);
+                overflow.putLong(OVERFLOW_LINK_OFFSET, (i + 1 < chain.length) ? chain[i + 1] : BTreeDisk.NO_PAGE_ID);
+                int count = Math.min(length - offset, perOverflowPage);
+                overflow.put(OVERFLOW_DATA_OFFSET, deflated, offset, count);
+                offset += count;
+                writePage(chain[i], overflow);
+            }
+        }
+
+        for (int i = chain.length; i < oldChain.length; i++) {
+            freePages.push(oldChain[i]);
+        }
+        if (chain.length > 0) {
+            overflowPages.put(pageId, chain);
+        } else {
+            overflowPages.remove(pageId);
+        }
+    }
+
+    private void write(long offset, ByteBuffer buffer) throws IOException {
+        // a batched write is counted as it is queued, it reaches the file when the batch is applied.
+        metrics.getBytesWritten().add(buffer.remaining());
+        if (batch != null) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            batch.add(new PendingWrite(offset, bytes));
+            return;
+        }
+
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position() - start);
+        }
+    }
+
+    void beginBatch() {
+        batch = new ArrayList<>();
+    }
+
+    List<PendingWrite> endBatch() {
+        List<PendingWrite> pendingWrites = batch;
+        batch = null;
+
+        return pendingWrites;
+    }
+
+    // applies queued writes straight to a data file channel, also used by recovery before the store is opened.
+    static void applyWrites(FileChannel channel, List<PendingWrite> pendingWrites) throws IOException {
+        for (PendingWrite pendingWrite : pendingWrites) {
+            ByteBuffer buffer = ByteBuffer.wrap(pendingWrite.getBytes());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, pendingWrite.getOffset() + buffer.position());
+            }
+        }
+        channel.force(false);
+    }
+
+    // reuses a free page if there is one, otherwise takes the next page of the file growing it by an extent.
+    long allocatePage() throws IOException {
+        if (!freePages.isEmpty()) {
+            long pageId = freePages.pop();
+            freeLinksOnDisk = Math.min(freeLinksOnDisk, freePages.size());
+
+            return pageId;
+        }
+
+        long pageId = pageCount++;
+        if (pageId >= filePageCount) {
+            filePageCount = pageId + extentPages;
+            // writing the last byte of the extent sizes the file in a single call.
+            channel.write(ByteBuffer.allocate(1), filePageCount * pageSize - 1);
+        }
+
+        return pageId;
+    }
+
+    // the page is only linked into the on disk free list on the next flush. a node page takes its overflow pages
+    // along.
+    void freePage(long pageId) {
+        freePages.push(pageId);
+        for (long overflowPageId : overflowPages.getOrDefault(pageId, NO_OVERFLOW_PAGES)) {
+            freePages.push(overflowPageId);
+        }
+        overflowPages.remove(pageId);
+    }
+
+    // writes out the links of newly freed pages and then the header, making the allocator state durable.
+    void flush() throws IOException {
+        Long[] stack = freePages.toArray(new Long[0]);
+        ByteBuffer link = ByteBuffer.allocate(Long.BYTES);
+        // stack[0] is the top of the stack, so the entries without links on disk are at the front.
+        for (int i = stack.length - freeLinksOnDisk - 1; i >= 0; i--) {
+            long next = (i + 1 < stack.length) ? stack[i + 1] : BTreeDisk.NO_PAGE_ID;
+            link.clear();
+            link.putLong(0, next);
+            write(getPageOffset(stack[i]) + FREE_LINK_OFFSET, link);
+        }
+        freeLinksOnDisk = stack.length;
+
+        ByteBuffer header = ByteBuffer.allocate(pageSize);
+        header.putLong(MAGIC_OFFSET, MAGIC);
+        header.putInt(PAGE_SIZE_OFFSET, pageSize);
+        header.putInt(THRESHOLD_COUNT_OFFSET, metadata.getThresholdCount());
+        header.putLong(ROOT_ID_OFFSET, metadata.getRootId());
+        header.putLong(PAGE_COUNT_OFFSET, pageCount);
+        header.putLong(FREE_LIST_HEAD_OFFSET, stack.length > 0 ? stack[0] : BTreeDisk.NO_PAGE_ID);
+        header.putInt(COMPRESSION_OFFSET, metadata.getCompression().ordinal());
+        header.putInt(NODE_SIZE_OFFSET, metadata.getNodeSize());
+        header.putInt(MESSAGE_BUFFER_CAPACITY_OFFSET, metadata.getMessageBufferCapacity());
+        writePage(HEADER_PAGE_ID, header);
+
+        // a batch is forced when it is applied.
+        if (batch == null) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the mappings are released once they are no longer reachable.
+        mappings.clear();
+        deflater.end();
+        inflater.end();
+        channel.close();
+    }
+}
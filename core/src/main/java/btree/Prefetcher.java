@@ -0,0 +1,99 @@
+package btree;
+
+import lombok.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Reads node pages ahead of a BTreeDisk on a small pool of I/O threads.
+//
+// the tree asks for the pages it expects to need soon, a scan for the subtrees after the one it is walking and a
+// batch for the children its later runs go down to. the reads go on in the background while the tree keeps
+// working, and when the tree faults one of those nodes in it takes the page from here, waiting only for whatever is
+// left of the read. only reading (and inflating) the page happens off the tree's thread, building the node and
+// admitting it to the buffer pool still happen under the tree's monitor.
+//
+// a page is only asked for while its node is not resident, and the node can only become resident again by taking
+// the page from here, so a page read ahead never goes stale before it is used. reads that are never taken are
+// dropped oldest first once maxPending of them are outstanding.
+@Getter @Setter
+public class Prefetcher implements Closeable {
+    static final int DEFAULT_IO_THREADS = 4;
+    static final int DEFAULT_MAX_PENDING = 64;
+
+    PageStore pageStore;
+    int maxPending;
+    ExecutorService executor;
+    // outstanding and finished reads in the order they were asked for, so the oldest unused one goes first.
+    LinkedHashMap<Long, Future<NodePage>> pending = new LinkedHashMap<>();
+
+    Prefetcher(PageStore pageStore, int ioThreads, int maxPending) {
+        this.pageStore = pageStore;
+        this.maxPending = maxPending;
+        this.executor = Executors.newFixedThreadPool(ioThreads, runnable -> {
+            Thread thread = new Thread(runnable, "btree-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // starts reading the page unless a read of it is already pending.
+    synchronized void prefetch(long pageId) {
+        if (pending.containsKey(pageId)) {
+            return;
+        }
+        if (pending.size() == maxPending) {
+            Iterator<Future<NodePage>> oldest = pending.values().iterator();
+            oldest.next().cancel(false);
+            oldest.remove();
+        }
+
+        pending.put(pageId, executor.submit(() -> pageStore.readNode(pageId)));
+    }
+
+    // the page read ahead for pageId, waiting for the read if it is still going, or null if it was never asked for.
+    NodePage take(long pageId) throws IOException {
+        Future<NodePage> future;
+        synchronized (this) {
+            future = pending.remove(pageId);
+        }
+        if (future == null) {
+            return null;
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(String.format("Prefetch of page %d failed.", pageId), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted waiting for page %d.", pageId), e);
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    // drops every pending read and stops the I/O threads.
+    @Override
+    public void close() {
+        synchronized (this) {
+            for (Future<NodePage> future : pending.values()) {
+                future.cancel(false);
+            }
+            pending.clear();
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
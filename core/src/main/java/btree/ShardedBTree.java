@@ -0,0 +1,535 @@
+package btree;
+
+import lombok.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// An index partitioned over independent trees, so writers to different shards never meet at a common root.
+//
+// with RANGE partitioning shard i holds the keys from splitKeys[i - 1] up to but not including splitKeys[i], and
+// rebalance() moves part of a hot shard's range over to a neighbour. with HASH partitioning a key goes to the shard
+// its hash picks, which spreads any workload evenly but leaves every scan touching every shard. either way a scan
+// merges the ordered scans of the shards it touches into a single ordered scan.
+//
+// every shard has a read write latch. a shard that is not thread safe itself (BTree) is read under the read latch
+// and written under the write latch, a thread safe one (BTreeDisk) is used under the read latch only, so that its
+// writers can still share log syncs. the write latch then only keeps rebalance() out.
+//
+// operations route by the split keys they read before latching the shard, and check them again once it is
+// latched. a rebalance publishes new split keys while it holds the write latches of the two shards it moves keys
+// between, so an operation that routed by the old split keys sees the change and routes again.
+//
+// the split keys are not kept in the shards. to keep a rebalanced layout across a restart, a caller persists
+// getSplitKeys() after every rebalance() that returns true and reopens with them. byRange() moves every key that is
+// not in the shard its split keys pick, so a reopen with older split keys (even the ones the shards were created
+// with) is still correct, it just undoes the rebalancing. a rebalance copies a key to its new shard before it
+// deletes it from the old one, so the keys a crash in the middle of one leaves in both shards are also sorted out.
+@Getter @Setter
+public class ShardedBTree<K, V> implements Closeable {
+    // a rebalance only moves keys when the hottest shard took this many times its share of the writes.
+    static final int HOT_FACTOR = 2;
+    // and only after this many writes since the last one, so a few writes do not shuffle the ranges around.
+    static final long MIN_REBALANCE_WRITES = 1000;
+    // keys are moved between shards this many at a time, which is all of a shard that is held in memory at once.
+    static final int MOVE_CHUNK_SIZE = 1024;
+
+    public enum Partitioning {
+        RANGE,
+        HASH
+    }
+
+    @Getter @Setter @AllArgsConstructor
+    static class KeyData<K, V> {
+        K key;
+        V data;
+
+        @Override
+        public String toString() {
+            return  key + ":" + data;
+        }
+    }
+
+    // the operations the front end needs from a tree, shardOf() adapts BTree and BTreeDisk to it.
+    interface Shard<K, V> extends Closeable {
+        V get(K key) throws IOException;
+
+        void insert(K key, V data) throws IOException;
+
+        boolean delete(K key) throws IOException;
+
+        // the entries in [fromKey, toKey] in order, a null bound leaves that end open.
+        ShardCursor<K, V> scan(K fromKey, K toKey) throws IOException;
+
+        // whether the tree can be used from several threads at once without outside locking.
+        boolean isThreadSafe();
+    }
+
+    interface ShardCursor<K, V> extends Iterator<KeyData<K, V>> {
+        // releases whatever the scan holds, needed only when it is abandoned before its end.
+        void close();
+    }
+
+    interface ShardOperation<K, V, R> {
+        R apply(Shard<K, V> shard) throws IOException;
+    }
+
+    Partitioning partitioning;
+    List<Shard<K, V>> shards;
+    Comparator<? super K> comparator;
+    // replaced, never changed in place, so that an operation can tell whether it routed by the current ones.
+    volatile List<K> splitKeys;
+    ReentrantReadWriteLock[] latches;
+    // writes per shard since the last rebalance.
+    LongAdder[] writeCounts;
+
+    private ShardedBTree(Partitioning partitioning, List<Shard<K, V>> shards, List<K> splitKeys,
+                         Comparator<? super K> comparator) {
+        setPartitioning(partitioning);
+        setShards(new ArrayList<>(shards));
+        setSplitKeys(splitKeys);
+        setComparator(comparator);
+        latches = new ReentrantReadWriteLock[shards.size()];
+        writeCounts = new LongAdder[shards.size()];
+        for (int i = 0; i < shards.size(); i++) {
+            latches[i] = new ReentrantReadWriteLock();
+            writeCounts[i] = new LongAdder();
+        }
+    }
+
+    // range partitioned, there has to be one split key less than there are shards and they have to be ascending.
+    // keys that are not in the shard the split keys pick for them are moved there first.
+    static <K, V> ShardedBTree<K, V> byRange(List<Shard<K, V>> shards, List<K> splitKeys,
+                                             Comparator<? super K> comparator) throws IOException {
+        if (splitKeys.size() != shards.size() - 1) {
+            throw new IllegalArgumentException(String.format("%d shards need %d split keys, not %d.", shards.size(),
+                    shards.size() - 1, splitKeys.size()));
+        }
+        for (int i = 1; i < splitKeys.size(); i++) {
+            if (comparator.compare(splitKeys.get(i - 1), splitKeys.get(i)) >= 0) {
+                throw new IllegalArgumentException("Split keys have to be in ascending order.");
+            }
+        }
+
+        ShardedBTree<K, V> shardedBTree = new ShardedBTree<>(Partitioning.RANGE, shards, List.copyOf(splitKeys),
+                comparator);
+        shardedBTree.restoreRanges();
+
+        return shardedBTree;
+    }
+
+    // moves the keys below and above each shard's range to the shards they belong to. with no misplaced keys this is
+    // just two empty scans per shard.
+    private void restoreRanges() throws IOException {
+        for (int i = 0; i < shards.size(); i++) {
+            if (i > 0) {
+                moveOut(i, null, splitKeys.get(i - 1), splitKeys);
+            }
+            if (i < shards.size() - 1) {
+                moveOut(i, splitKeys.get(i), null, splitKeys);
+            }
+        }
+    }
+
+    static <K, V> ShardedBTree<K, V> byHash(List<Shard<K, V>> shards, Comparator<? super K> comparator) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("There has to be at least one shard.");
+        }
+
+        return new ShardedBTree<>(Partitioning.HASH, shards, null, comparator);
+    }
+
+    // a BTree is not thread safe, so the front end latches it for every operation.
+    static <K, V> Shard<K, V> shardOf(BTree<K, V> bTree) {
+        return new Shard<>() {
+            @Override
+            public V get(K key) {
+                return bTree.get(key);
+            }
+
+            @Override
+            public void insert(K key, V data) {
+                bTree.insert(key, data);
+            }
+
+            @Override
+            public boolean delete(K key) {
+                return bTree.delete(key);
+            }
+
+            @Override
+            public ShardCursor<K, V> scan(K fromKey, K toKey) {
+                BTree<K, V>.Cursor cursor = bTree.scan(fromKey, toKey);
+                return new ShardCursor<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return cursor.hasNext();
+                    }
+
+                    @Override
+                    public KeyData<K, V> next() {
+                        BTree.KeyData<K, V> keyData = cursor.next();
+                        return new KeyData<>(keyData.getKey(), keyData.getData());
+                    }
+
+                    @Override
+                    public void close() {}
+                };
+            }
+
+            @Override
+            public boolean isThreadSafe() {
+                return false;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    static <K, V> Shard<K, V> shardOf(BTreeDisk<K, V> bTreeDisk) {
+        return new Shard<>() {
+            @Override
+            public V get(K key) throws IOException {
+                return bTreeDisk.get(key);
+            }
+
+            @Override
+            public void insert(K key, V data) throws IOException {
+                bTreeDisk.insert(key, data);
+            }
+
+            @Override
+            public boolean delete(K key) throws IOException {
+                return bTreeDisk.delete(key);
+            }
+
+            @Override
+            public ShardCursor<K, V> scan(K fromKey, K toKey) throws IOException {
+                BTreeDisk<K, V>.Cursor cursor = bTreeDisk.scan(fromKey, toKey);
+                return new ShardCursor<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return cursor.hasNext();
+                    }
+
+                    @Override
+                    public KeyData<K, V> next() {
+                        BTreeDisk.KeyData<K, V> keyData = cursor.next();
+                        return new KeyData<>(keyData.getKey(), keyData.getData());
+                    }
+
+                    @Override
+                    public void close() {
+                        cursor.close();
+                    }
+                };
+            }
+
+            @Override
+            public boolean isThreadSafe() {
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                bTreeDisk.close();
+            }
+        };
+    }
+
+    int getShardCount() {
+        return shards.size();
+    }
+
+    // the shard the key belongs to under the given split keys, or under its hash.
+    int getShardIndex(List<K> splitKeys, K key) {
+        if (partitioning == Partitioning.HASH) {
+            int hash = (key instanceof byte[]) ? Arrays.hashCode((byte[]) key) : key.hashCode();
+            // the high bits are folded in since hash codes of similar keys often only differ in them.
+            return Math.floorMod(hash ^ (hash >>> 16), shards.size());
+        }
+
+        // a split key belongs to the shard it starts.
+        int index = Collections.binarySearch(splitKeys, key, comparator);
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+
+    private Lock getLatch(int index, boolean write) {
+        return (write && !shards.get(index).isThreadSafe()) ? latches[index].writeLock() : latches[index].readLock();
+    }
+
+    // runs the operation on the key's shard, routing again if a rebalance moved the key while the shard was latched.
+    private <R> R onShard(K key, boolean write, ShardOperation<K, V, R> operation) throws IOException {
+        while (true) {
+            List<K> splitKeys = this.splitKeys;
+            int index = getShardIndex(splitKeys, key);
+            Lock latch = getLatch(index, write);
+            latch.lock();
+            try {
+                if (splitKeys == this.splitKeys) {
+                    R result = operation.apply(shards.get(index));
+                    if (write) {
+                        writeCounts[index].increment();
+                    }
+                    return result;
+                }
+            } finally {
+                latch.unlock();
+            }
+        }
+    }
+
+    public V get(K key) throws IOException {
+        return onShard(key, false, shard -> shard.get(key));
+    }
+
+    public boolean containsKey(K key) throws IOException {
+        return get(key) != null;
+    }
+
+    public void insert(K key, V data) throws IOException {
+        onShard(key, true, shard -> {
+            shard.insert(key, data);
+            return null;
+        });
+    }
+
+    public boolean delete(K key) throws IOException {
+        return onShard(key, true, shard -> shard.delete(key));
+    }
+
+    // moves half of the hottest shard's keys, the half next to its less busy neighbour, over to that neighbour,
+    // when the hottest shard took more than HOT_FACTOR times its share of the writes since the last rebalance.
+    // a hot range narrows by half with every rebalance, so a few of them spread even a narrow range of hot keys.
+    // the keys are moved under both shards' write latches, so it is meant to be called now and then, not per write.
+    // returns whether keys were moved.
+    public synchronized boolean rebalance() throws IOException {
+        if (partitioning != Partitioning.RANGE || shards.size() < 2) {
+            return false;
+        }
+
+        long[] writes = new long[shards.size()];
+        long totalWrites = 0;
+        int hot = 0;
+        for (int i = 0; i < writes.length; i++) {
+            writes[i] = writeCounts[i].sumThenReset();
+            totalWrites += writes[i];
+            if (writes[i] > writes[hot]) {
+                hot = i;
+            }
+        }
+        if (totalWrites < MIN_REBALANCE_WRITES || writes[hot] * shards.size() <= HOT_FACTOR * totalWrites) {
+            return false;
+        }
+
+        int neighbour;
+        if (hot == 0) {
+            neighbour = 1;
+        } else if (hot == shards.size() - 1) {
+            neighbour = hot - 1;
+        } else {
+            neighbour = (writes[hot - 1] <= writes[hot + 1]) ? hot - 1 : hot + 1;
+        }
+
+        // latched in shard order, so two rebalances could never deadlock even if they were not serialized.
+        Lock first = latches[Math.min(hot, neighbour)].writeLock();
+        Lock second = latches[Math.max(hot, neighbour)].writeLock();
+        first.lock();
+        second.lock();
+        try {
+            return moveHalf(hot, neighbour);
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    // the caller holds the write latches of both shards.
+    private boolean moveHalf(int from, int to) throws IOException {
+        // the shard is counted first, so that its median can be found without holding its entries.
+        long count = 0;
+        ShardCursor<K, V> cursor = shards.get(from).scan(null, null);
+        try {
+            for (; cursor.hasNext(); cursor.next()) {
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (count < 2) {
+            return false;
+        }
+
+        // the first key that stays on (or moves to) the right of the split becomes the new split key.
+        K middleKey;
+        cursor = shards.get(from).scan(null, null);
+        try {
+            for (long i = 0; i < count / 2; i++) {
+                cursor.next();
+            }
+            middleKey = cursor.next().getKey();
+        } finally {
+            cursor.close();
+        }
+
+        List<K> splitKeys = new ArrayList<>(this.splitKeys);
+        splitKeys.set(Math.min(from, to), middleKey);
+        splitKeys = List.copyOf(splitKeys);
+        if (to > from) {
+            moveOut(from, middleKey, null, splitKeys);
+        } else {
+            moveOut(from, null, middleKey, splitKeys);
+        }
+        this.splitKeys = splitKeys;
+
+        return true;
+    }
+
+    // moves the keys of a shard in [fromKey, toKey] that the split keys put in another shard over to it, a chunk at a
+    // time as a shard's scan does not survive a delete. a key is inserted into its new shard before it is deleted
+    // from the old one, so a crash never loses it, and moving it again only rewrites the same entry.
+    private void moveOut(int shardIndex, K fromKey, K toKey, List<K> splitKeys) throws IOException {
+        Shard<K, V> shard = shards.get(shardIndex);
+        K startKey = fromKey;
+        boolean started = false;
+        while (true) {
+            List<KeyData<K, V>> chunk = new ArrayList<>();
+            ShardCursor<K, V> cursor = shard.scan(startKey, toKey);
+            try {
+                while (chunk.size() < MOVE_CHUNK_SIZE && cursor.hasNext()) {
+                    KeyData<K, V> keyData = cursor.next();
+                    // the key the last chunk ended at has been dealt with, it is only still there if it stays.
+                    if (!started || comparator.compare(keyData.getKey(), startKey) != 0) {
+                        chunk.add(keyData);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (chunk.isEmpty()) {
+                return;
+            }
+
+            for (KeyData<K, V> keyData : chunk) {
+                int index = getShardIndex(splitKeys, keyData.getKey());
+                if (index != shardIndex) {
+                    shards.get(index).insert(keyData.getKey(), keyData.getData());
+                    shard.delete(keyData.getKey());
+                }
+            }
+            startKey = chunk.get(chunk.size() - 1).getKey();
+            started = true;
+        }
+    }
+
+    // the scan of one shard in a merge, along with the entry it is at.
+    @Getter @Setter @AllArgsConstructor
+    class Head {
+        int shardIndex;
+        ShardCursor<K, V> cursor;
+        KeyData<K, V> keyData;
+    }
+
+    // an ordered scan over every shard that can hold keys in the range, merged k ways through a heap of the shards'
+    // next entries. every step of a shard's scan is taken under its read latch, and like a scan of a single tree it
+    // fails with a ConcurrentModificationException once a shard it is reading from changes.
+    public class Cursor implements Iterator<KeyData<K, V>>, AutoCloseable {
+        PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> comparator.compare(a.getKeyData().getKey(),
+                b.getKeyData().getKey()));
+        List<Head> open = new ArrayList<>();
+
+        Cursor(K fromKey, K toKey) throws IOException {
+            List<K> splitKeys = ShardedBTree.this.splitKeys;
+            int firstShard = 0;
+            int lastShard = shards.size() - 1;
+            if (partitioning == Partitioning.RANGE) {
+                firstShard = (fromKey != null) ? getShardIndex(splitKeys, fromKey) : firstShard;
+                lastShard = (toKey != null) ? getShardIndex(splitKeys, toKey) : lastShard;
+            }
+
+            try {
+                for (int i = firstShard; i <= lastShard; i++) {
+                    Lock latch = latches[i].readLock();
+                    latch.lock();
+                    try {
+                        Head head = new Head(i, shards.get(i).scan(fromKey, toKey), null);
+                        open.add(head);
+                        advance(head);
+                    } finally {
+                        latch.unlock();
+                    }
+                }
+                // keys that moved between the shards before they were all opened could be missed.
+                if (splitKeys != ShardedBTree.this.splitKeys) {
+                    throw new ConcurrentModificationException();
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // the caller holds the shard's read latch.
+        private void advance(Head head) {
+            if (head.getCursor().hasNext()) {
+                head.setKeyData(head.getCursor().next());
+                heads.add(head);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public KeyData<K, V> next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+
+            KeyData<K, V> keyData = head.getKeyData();
+            Lock latch = latches[head.getShardIndex()].readLock();
+            latch.lock();
+            try {
+                advance(head);
+            } finally {
+                latch.unlock();
+            }
+
+            return keyData;
+        }
+
+        @Override
+        public void close() {
+            for (Head head : open) {
+                Lock latch = latches[head.getShardIndex()].readLock();
+                latch.lock();
+                try {
+                    head.getCursor().close();
+                } finally {
+                    latch.unlock();
+                }
+            }
+            open.clear();
+            heads.clear();
+        }
+    }
+
+    public Cursor scan(K fromKey, K toKey) throws IOException {
+        return new Cursor(fromKey, toKey);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Shard<K, V> shard : shards) {
+            shard.close();
+        }
+    }
+}
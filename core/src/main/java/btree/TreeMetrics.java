@@ -0,0 +1,120 @@
+package btree;
+
+import lombok.*;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+// Operation counters and latencies of a tree, cheap enough to leave on under load.
+//
+// every counter is a LongAdder, so threads counting at the same time add into cells of their own instead of
+// contending for a single word, and only reading a counter sums the cells. inserts, deletes and lookups are timed
+// into LatencyHistograms. batched calls are not timed, the work they do shows up in the other counters.
+//
+// getSnapshot() reads everything into an immutable Snapshot that can be polled, and register() publishes the same
+// snapshot as an MXBean, so it shows up in jconsole or any other JMX client.
+@Getter
+public class TreeMetrics implements TreeMetricsMXBean {
+    static final String JMX_DOMAIN = "btree";
+
+    final LatencyHistogram insertLatency = new LatencyHistogram();
+    final LatencyHistogram deleteLatency = new LatencyHistogram();
+    final LatencyHistogram lookupLatency = new LatencyHistogram();
+    // nodes read in from the data file, and accesses that found their node already in the buffer pool.
+    final LongAdder nodeFaults = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+    // bytes moved to and from the data file, compressed pages count at their page size. pages read out of a mapping
+    // count as mapped instead, they are only touched in place and may never have left the page cache.
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder bytesMapped = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder splits = new LongAdder();
+    final LongAdder merges = new LongAdder();
+    final LongAdder rotations = new LongAdder();
+    // runs of buffered messages pushed down from an internal node to one of its children.
+    final LongAdder flushes = new LongAdder();
+    // levels from the root down to the leaves, 0 for an empty tree. only written under the tree's lock.
+    volatile int height;
+    ObjectName objectName;
+
+    @Getter @AllArgsConstructor
+    public static class Snapshot {
+        LatencyHistogram.Snapshot insertLatency;
+        LatencyHistogram.Snapshot deleteLatency;
+        LatencyHistogram.Snapshot lookupLatency;
+        long nodeFaults;
+        long cacheHits;
+        long bytesRead;
+        long bytesMapped;
+        long bytesWritten;
+        long splits;
+        long merges;
+        long rotations;
+        long flushes;
+        int height;
+
+        // the fraction of node accesses served from the buffer pool, 1 when nothing was accessed yet.
+        public double getCacheHitRatio() {
+            long accesses = cacheHits + nodeFaults;
+            return (accesses == 0) ? 1 : (double) cacheHits / accesses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("insert[%s] delete[%s] lookup[%s] faults=%d hits=%d hitRatio=%.4f read=%dB " +
+                            "mapped=%dB written=%dB splits=%d merges=%d rotations=%d flushes=%d height=%d",
+                    insertLatency, deleteLatency, lookupLatency, nodeFaults, cacheHits, getCacheHitRatio(), bytesRead,
+                    bytesMapped, bytesWritten, splits, merges, rotations, flushes, height);
+        }
+    }
+
+    void setHeight(int height) {
+        this.height = height;
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        return new Snapshot(insertLatency.snapshot(), deleteLatency.snapshot(), lookupLatency.snapshot(),
+                nodeFaults.sum(), cacheHits.sum(), bytesRead.sum(), bytesMapped.sum(), bytesWritten.sum(),
+                splits.sum(), merges.sum(), rotations.sum(), flushes.sum(), height);
+    }
+
+    // zeroes the counters and histograms, the height is a gauge and stays.
+    @Override
+    public void reset() {
+        insertLatency.reset();
+        deleteLatency.reset();
+        lookupLatency.reset();
+        nodeFaults.reset();
+        cacheHits.reset();
+        bytesRead.reset();
+        bytesMapped.reset();
+        bytesWritten.reset();
+        splits.reset();
+        merges.reset();
+        rotations.reset();
+        flushes.reset();
+    }
+
+    // publishes the metrics with the platform MBean server as btree:type=TreeMetrics,name=<name>.
+    public synchronized void register(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException(String.format("The metrics are already registered as %s.", objectName));
+        }
+
+        ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=TreeMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (objectName == null) {
+            return;
+        }
+
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        objectName = null;
+    }
+}
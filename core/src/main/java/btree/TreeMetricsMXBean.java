@@ -0,0 +1,8 @@
+package btree;
+
+// The JMX view of a tree's metrics, the snapshot shows up as a composite attribute.
+public interface TreeMetricsMXBean {
+    TreeMetrics.Snapshot getSnapshot();
+
+    void reset();
+}
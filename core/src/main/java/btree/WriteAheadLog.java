@@ -0,0 +1,359 @@
+package btree;
+
+import lombok.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+// An append only log of the logical operations applied to a BTreeDisk since its last checkpoint.
+//
+// every record is [length][crc][type][payload], a record that is cut short or fails its crc marks the end of the
+// log. records are buffered in memory and written by whichever committer gets there first, which also syncs on
+// behalf of every record buffered behind it, so concurrent writers share fsyncs (group commit).
+//
+// a checkpoint logs the page writes it is about to make followed by a checkpoint record, so a crash while those
+// writes land in the data file is repaired on recovery by applying them again. once applied the log is reset.
+//
+// a write or fsync that fails leaves the log in an unknown state, records after it could sit behind a hole that
+// recovery stops at. so the first failure, on a committer or the background syncer, fails the log for good and
+// every append and commit after it throws. the tree has to be reopened, which recovers what did make it.
+@Getter @Setter
+public class WriteAheadLog implements Closeable {
+    enum SyncPolicy {
+        // every commit waits for an fsync, concurrent commits share one.
+        EVERY_OPERATION,
+        // commits return once the record is written, a background thread fsyncs every sync interval.
+        INTERVAL,
+        // commits return once the record is written, the OS decides when it reaches the disk.
+        OS_MANAGED
+    }
+
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+    static final byte PAGE_WRITE = 3;
+    static final byte CHECKPOINT = 4;
+    static final int RECORD_HEADER_SIZE = 9;
+    static final String LOG_FILE_SUFFIX = ".wal";
+    static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+
+    @Getter @Setter @AllArgsConstructor
+    static class Record {
+        byte type;
+        byte[] key;
+        byte[] data;
+        PageStore.PendingWrite pageWrite;
+    }
+
+    Path path;
+    FileChannel channel;
+    SyncPolicy syncPolicy = SyncPolicy.EVERY_OPERATION;
+    ScheduledExecutorService syncer;
+
+    // log sequence numbers are byte positions in the log, they keep growing across resets and baseLsn is the
+    // sequence number of the first byte in the file.
+    long baseLsn;
+    long appendedLsn;
+    long writtenLsn;
+    long durableLsn;
+    // records appended but not yet written, and whether a committer is currently writing them.
+    ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+    boolean writing;
+    // the write or fsync that failed the log, null while it is healthy.
+    IOException failure;
+
+    private WriteAheadLog(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    static Path getLogFile(Path dataFile) {
+        return dataFile.resolveSibling(dataFile.getFileName() + LOG_FILE_SUFFIX);
+    }
+
+    // creates an empty log, discarding any existing one.
+    static WriteAheadLog create(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.force(true);
+
+        return new WriteAheadLog(path, channel);
+    }
+
+    // opens an existing log, cutting off a torn record at its tail so new records follow the last good one.
+    static WriteAheadLog open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        WriteAheadLog writeAheadLog = new WriteAheadLog(path, channel);
+
+        long end = writeAheadLog.scan(null);
+        channel.truncate(end);
+        writeAheadLog.setAppendedLsn(end);
+        writeAheadLog.setWrittenLsn(end);
+        writeAheadLog.setDurableLsn(end);
+
+        return writeAheadLog;
+    }
+
+    // changes the sync policy, starting or stopping the background syncer as needed.
+    synchronized void setSyncPolicy(SyncPolicy syncPolicy, long syncIntervalMillis) {
+        if (syncer != null) {
+            syncer.shutdown();
+            syncer = null;
+        }
+        this.syncPolicy = syncPolicy;
+
+        if (syncPolicy == SyncPolicy.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-syncer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    // the log is failed now, the next commit throws it.
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void putBytes(ByteArrayOutputStream out, byte[] bytes) {
+        putInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void putInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void putLong(ByteArrayOutputStream out, long value) {
+        putInt(out, (int) (value >>> 32));
+        putInt(out, (int) value);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        return (int) crc.getValue();
+    }
+
+    private void checkNotFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("The write ahead log failed earlier.", failure);
+        }
+    }
+
+    // buffers a record and returns the sequence number that has to be committed for it to be durable.
+    private synchronized long append(byte type, ByteArrayOutputStream payload) throws IOException {
+        checkNotFailed();
+        byte[] bytes = payload.toByteArray();
+        putInt(buffered, bytes.length);
+        putInt(buffered, checksum(type, bytes));
+        buffered.write(type);
+        buffered.write(bytes, 0, bytes.length);
+        appendedLsn += RECORD_HEADER_SIZE + bytes.length;
+
+        return appendedLsn;
+    }
+
+    // keys and data arrive already encoded by the tree's codecs.
+    long logInsert(byte[] key, byte[] data) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        putBytes(payload, key);
+        putBytes(payload, data);
+
+        return append(INSERT, payload);
+    }
+
+    long logDelete(byte[] key) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        putBytes(payload, key);
+
+        return append(DELETE, payload);
+    }
+
+    // logs the page writes of a checkpoint as one batch and makes them durable before any of them are applied.
+    void logCheckpoint(List<PageStore.PendingWrite> pageWrites) throws IOException {
+        for (PageStore.PendingWrite pageWrite : pageWrites) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            putLong(payload, pageWrite.getOffset());
+            payload.write(pageWrite.getBytes(), 0, pageWrite.getBytes().length);
+            append(PAGE_WRITE, payload);
+        }
+        sync(append(CHECKPOINT, new ByteArrayOutputStream()));
+    }
+
+    // waits until the record at lsn is as durable as the sync policy asks for.
+    void commit(long lsn) throws IOException {
+        write(lsn, getSyncPolicy() == SyncPolicy.EVERY_OPERATION);
+    }
+
+    void sync() throws IOException {
+        long lsn;
+        synchronized (this) {
+            lsn = appendedLsn;
+        }
+        sync(lsn);
+    }
+
+    void sync(long lsn) throws IOException {
+        write(lsn, true);
+    }
+
+    private void write(long lsn, boolean force) throws IOException {
+        byte[] bytes;
+        long start;
+        long end;
+
+        synchronized (this) {
+            // either somebody else already covered this record, or wait for the committer in progress and retry.
+            while (true) {
+                if ((force ? durableLsn : writtenLsn) >= lsn) {
+                    return;
+                }
+                checkNotFailed();
+                if (!writing) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the write ahead log.", e);
+                }
+            }
+
+            // this thread becomes the committer for everything buffered so far.
+            writing = true;
+            bytes = buffered.toByteArray();
+            buffered.reset();
+            start = writtenLsn;
+            end = appendedLsn;
+        }
+
+        boolean written = false;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, start - baseLsn + buffer.position());
+            }
+            if (force) {
+                channel.force(false);
+            }
+            written = true;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                failure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (written) {
+                    writtenLsn = end;
+                    if (force) {
+                        durableLsn = end;
+                    }
+                }
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // empties the log once a checkpoint has been applied, the caller must hold off new appends while it runs.
+    void reset() throws IOException {
+        sync();
+        synchronized (this) {
+            channel.truncate(0);
+            channel.force(true);
+            baseLsn = appendedLsn;
+        }
+    }
+
+    List<Record> readRecords() throws IOException {
+        List<Record> records = new ArrayList<>();
+        scan(records);
+
+        return records;
+    }
+
+    // walks the records in the file, returning the end of the last good one.
+    private long scan(List<Record> records) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            int crc = header.getInt(4);
+            byte type = header.get(8);
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            while (payload.hasRemaining()) {
+                channel.read(payload, position + RECORD_HEADER_SIZE + payload.position());
+            }
+            if (checksum(type, payload.array()) != crc) {
+                break;
+            }
+
+            if (records != null) {
+                payload.flip();
+                records.add(decode(type, payload));
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        return position;
+    }
+
+    private static Record decode(byte type, ByteBuffer payload) {
+        switch (type) {
+            case INSERT:
+                return new Record(type, getBytes(payload), getBytes(payload), null);
+            case DELETE:
+                return new Record(type, getBytes(payload), null, null);
+            case PAGE_WRITE:
+                long offset = payload.getLong();
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                return new Record(type, null, null, new PageStore.PendingWrite(offset, bytes));
+            default:
+                return new Record(type, null, null, null);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        setSyncPolicy(SyncPolicy.OS_MANAGED, 0);
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncBTreeDiskTest {
+    @TempDir
+    Path dir;
+
+    // holds up the writer until the returned latch is released, so everything submitted meanwhile is one batch.
+    static CountDownLatch blockWriter(AsyncBTreeDisk<String, String> asyncBTreeDisk) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        asyncBTreeDisk.submitTask(bTreeDisk -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    static Throwable failureOf(CompletableFuture<?> future) throws Exception {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    static int writerThreadCount() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("btree-writer") && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void theLastPutOfACoalescedRunWins() throws Exception {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        AsyncBTreeDisk<String, String> asyncBTreeDisk = new AsyncBTreeDisk<>(bTreeDisk);
+        CountDownLatch release = blockWriter(asyncBTreeDisk);
+
+        List<CompletableFuture<Void>> puts = new ArrayList<>();
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            String key = "key" + (i % 50);
+            puts.add(asyncBTreeDisk.putAsync(key, "data" + i));
+            expected.put(key, "data" + i);
+        }
+        release.countDown();
+        for (CompletableFuture<Void> put : puts) {
+            put.get(10, TimeUnit.SECONDS);
+        }
+
+        asyncBTreeDisk.close();
+        WriteAheadLogTest.assertContents(expected, bTreeDisk);
+        bTreeDisk.close();
+    }
+
+    @Test
+    void getsSeeThePutsQueuedBeforeThem() throws Exception {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        AsyncBTreeDisk<String, String> asyncBTreeDisk = new AsyncBTreeDisk<>(bTreeDisk);
+        CountDownLatch release = blockWriter(asyncBTreeDisk);
+
+        // runs of gets and puts of the same keys, each get has to see exactly the writes queued before it.
+        List<CompletableFuture<String>> gets = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10; i++) {
+                gets.add(asyncBTreeDisk.getAsync("key" + i));
+                expected.add(round == 0 ? null : "data" + (round - 1) + "_" + i);
+            }
+            for (int i = 0; i < 10; i++) {
+                asyncBTreeDisk.putAsync("key" + i, "data" + round + "_" + i);
+            }
+        }
+        CompletableFuture<Boolean> delete = asyncBTreeDisk.deleteAsync("key0");
+        gets.add(asyncBTreeDisk.getAsync("key0"));
+        expected.add(null);
+        release.countDown();
+
+        assertTrue(delete.get(10, TimeUnit.SECONDS));
+        for (int i = 0; i < gets.size(); i++) {
+            assertEquals(expected.get(i), gets.get(i).get(10, TimeUnit.SECONDS));
+        }
+        asyncBTreeDisk.close();
+        bTreeDisk.close();
+    }
+
+    @Test
+    void closeRunsWhatWasQueuedAndFailsWhatRacedIt() throws Exception {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        AsyncBTreeDisk<String, String> asyncBTreeDisk = new AsyncBTreeDisk<>(bTreeDisk);
+        CountDownLatch release = blockWriter(asyncBTreeDisk);
+        CompletableFuture<Void> queued = asyncBTreeDisk.putAsync("queued", "data");
+
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(asyncBTreeDisk::close);
+        // close() marks the tree closed before it queues the stop, the raced request has to come after both.
+        while (asyncBTreeDisk.getQueue().stream()
+                .noneMatch(request -> request.getType() == AsyncBTreeDisk.Type.STOP)) {
+            Thread.onSpinWait();
+        }
+        // a submitter that saw the tree still open and only got to queue its request after the stop.
+        CompletableFuture<Object> raced = new CompletableFuture<>();
+        asyncBTreeDisk.getQueue().add(new AsyncBTreeDisk.Request<>(AsyncBTreeDisk.Type.PUT, "raced", "data", null,
+                raced));
+        CompletableFuture<Void> late = asyncBTreeDisk.putAsync("late", "data");
+        release.countDown();
+        closing.get(10, TimeUnit.SECONDS);
+
+        queued.get(10, TimeUnit.SECONDS);
+        assertInstanceOf(IllegalStateException.class, failureOf(raced));
+        assertInstanceOf(IllegalStateException.class, failureOf(late));
+        assertEquals("data", bTreeDisk.get("queued"));
+        assertNull(bTreeDisk.get("raced"));
+        assertNull(bTreeDisk.get("late"));
+        bTreeDisk.close();
+    }
+
+    @Test
+    void anErrorFromTheTreeStopsTheWriter() throws Exception {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        AsyncBTreeDisk<String, String> asyncBTreeDisk = new AsyncBTreeDisk<>(bTreeDisk);
+        CountDownLatch release = blockWriter(asyncBTreeDisk);
+        CompletableFuture<Object> failing = asyncBTreeDisk.submitTask(tree -> {
+            throw new AssertionError("broken tree");
+        });
+        CompletableFuture<Void> behind = asyncBTreeDisk.putAsync("key", "data");
+        release.countDown();
+
+        assertInstanceOf(AssertionError.class, failureOf(failing));
+        assertInstanceOf(IllegalStateException.class, failureOf(behind));
+        asyncBTreeDisk.getWriter().join(10000);
+        assertFalse(asyncBTreeDisk.getWriter().isAlive());
+        assertTrue(asyncBTreeDisk.isClosed());
+        assertInstanceOf(IllegalStateException.class, failureOf(asyncBTreeDisk.getAsync("key")));
+        bTreeDisk.close();
+    }
+
+    @Test
+    void aFailedOpenStopsTheWriter() throws Exception {
+        int writers = writerThreadCount();
+        CompletableFuture<AsyncBTreeDisk<String, String>> opened = AsyncBTreeDisk.open(dir.resolve("missing.data"),
+                Comparator.naturalOrder(), Codec.STRING, Codec.STRING);
+        assertInstanceOf(IOException.class, failureOf(opened));
+
+        for (int i = 0; i < 1000 && writerThreadCount() > writers; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(writers, writerThreadCount());
+    }
+}
@@ -0,0 +1,110 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BPlusTreeTest {
+    static List<String> keysOf(Iterator<BPlusTree.KeyData> cursor, TreeMap<String, String> expected) {
+        List<String> keys = new ArrayList<>();
+        while (cursor.hasNext()) {
+            BPlusTree.KeyData keyData = cursor.next();
+            keys.add(keyData.getKey());
+            assertEquals(expected.get(keyData.getKey()), keyData.getData());
+        }
+        return keys;
+    }
+
+    // forward and reverse scans with open and closed ends against the expected contents.
+    static void assertScans(TreeMap<String, String> expected, BPlusTree bPlusTree, Random random) {
+        assertEquals(new ArrayList<>(expected.keySet()), keysOf(bPlusTree.scan(null, null), expected));
+        assertEquals(new ArrayList<>(expected.descendingKeySet()),
+                keysOf(bPlusTree.scanReverse(null, null), expected));
+        for (int i = 0; i < 50; i++) {
+            // bounds that are in the tree and ones that fall between keys.
+            String fromKey = String.format("key%04d", random.nextInt(3000)) + (random.nextBoolean() ? "" : "x");
+            String toKey = String.format("key%04d", random.nextInt(3000)) + (random.nextBoolean() ? "" : "x");
+            if (fromKey.compareTo(toKey) > 0) {
+                String key = fromKey;
+                fromKey = toKey;
+                toKey = key;
+            }
+
+            assertEquals(new ArrayList<>(expected.subMap(fromKey, true, toKey, true).keySet()),
+                    keysOf(bPlusTree.scan(fromKey, toKey), expected));
+            assertEquals(new ArrayList<>(expected.subMap(fromKey, true, toKey, true).descendingKeySet()),
+                    keysOf(bPlusTree.scanReverse(fromKey, toKey), expected));
+            assertEquals(new ArrayList<>(expected.headMap(toKey, true).descendingKeySet()),
+                    keysOf(bPlusTree.scanReverse(null, toKey), expected));
+            assertEquals(new ArrayList<>(expected.tailMap(fromKey, true).keySet()),
+                    keysOf(bPlusTree.scan(fromKey, null), expected));
+        }
+    }
+
+    @Test
+    void scansMatchATreeMapAfterRandomDeletes() {
+        for (int thresholdCount : new int[]{2, 3, 5}) {
+            BPlusTree bPlusTree = new BPlusTree(thresholdCount);
+            TreeMap<String, String> expected = new TreeMap<>();
+            Random random = new Random(thresholdCount);
+            for (int i = 0; i < 3000; i++) {
+                String key = String.format("key%04d", i);
+                bPlusTree.insert(key, "data" + i);
+                expected.put(key, "data" + i);
+            }
+            assertScans(expected, bPlusTree, random);
+
+            // deletes borrow and merge all over the leaf level, which has to stay linked both ways.
+            for (int i = 0; i < 10000; i++) {
+                String key = String.format("key%04d", random.nextInt(3000));
+                if (random.nextInt(4) == 0) {
+                    bPlusTree.insert(key, "new" + i);
+                    expected.put(key, "new" + i);
+                } else {
+                    assertEquals(expected.remove(key) != null, bPlusTree.delete(key));
+                }
+                if (i % 2000 == 0) {
+                    assertScans(expected, bPlusTree, random);
+                }
+            }
+            assertScans(expected, bPlusTree, random);
+
+            for (String key : new ArrayList<>(expected.keySet())) {
+                assertTrue(bPlusTree.delete(key));
+                expected.remove(key);
+            }
+            assertNull(bPlusTree.getRoot());
+            assertFalse(bPlusTree.scan(null, null).hasNext());
+            assertFalse(bPlusTree.scanReverse(null, null).hasNext());
+        }
+    }
+
+    @Test
+    void scansFailAfterAWrite() {
+        BPlusTree bPlusTree = new BPlusTree(2);
+        for (int i = 0; i < 100; i++) {
+            bPlusTree.insert(String.format("key%04d", i), "data" + i);
+        }
+
+        Iterator<BPlusTree.KeyData> cursor = bPlusTree.scan(null, null);
+        cursor.next();
+        bPlusTree.insert("key0050", "new");
+        assertThrows(ConcurrentModificationException.class, cursor::next);
+
+        // a delete can leave the cursor past the end of its leaf, it still has to fail the same way.
+        cursor = bPlusTree.scanReverse(null, null);
+        cursor.next();
+        for (int i = 0; i < 100; i += 2) {
+            bPlusTree.delete(String.format("key%04d", i));
+        }
+        assertThrows(ConcurrentModificationException.class, cursor::hasNext);
+        assertThrows(ConcurrentModificationException.class, cursor::next);
+
+        // even a delete of a missing key can borrow and merge on the way down.
+        cursor = bPlusTree.scan(null, null);
+        assertFalse(bPlusTree.delete("missing"));
+        assertThrows(ConcurrentModificationException.class, cursor::next);
+    }
+}
@@ -0,0 +1,175 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// putAll and getAll of the plain trees, without write or message buffers in front of them.
+class BatchTest {
+    @TempDir
+    Path dir;
+
+    // checks key order, bounds and counts of every node and that all leaves are at the same depth. returns the height.
+    static int validate(BTree<String, String> bTree, BTree<String, String>.Node node, String low, String high) {
+        int keyCount = node.getKeyDataListSize();
+        if (node != bTree.getRoot()) {
+            assertTrue(keyCount >= bTree.getLowerThreshold());
+        }
+        assertTrue(keyCount <= bTree.getHigherThreshold());
+        for (int i = 0; i < keyCount; i++) {
+            String key = node.getKeyData(i).getKey();
+            assertTrue(low == null || key.compareTo(low) > 0);
+            assertTrue(high == null || key.compareTo(high) < 0);
+            assertTrue(i == 0 || key.compareTo(node.getKeyData(i - 1).getKey()) > 0);
+        }
+        if (node.isLeafNode()) {
+            return 1;
+        }
+
+        assertEquals(keyCount + 1, node.getChildNodesSize());
+        int height = -1;
+        for (int i = 0; i <= keyCount; i++) {
+            int childHeight = validate(bTree, node.getChild(i), i == 0 ? low : node.getKeyData(i - 1).getKey(),
+                    i == keyCount ? high : node.getKeyData(i).getKey());
+            assertTrue(height < 0 || childHeight == height);
+            height = childHeight;
+        }
+        return height + 1;
+    }
+
+    static void assertContents(TreeMap<String, String> expected, BTree<String, String> bTree) {
+        assertEquals(bTree.getMetrics().getHeight(), validate(bTree, bTree.getRoot(), null, null));
+        Map<String, String> actual = new LinkedHashMap<>();
+        for (BTree<String, String>.Cursor cursor = bTree.scan(null, null); cursor.hasNext(); ) {
+            BTree.KeyData<String, String> keyData = cursor.next();
+            actual.put(keyData.getKey(), keyData.getData());
+        }
+        assertEquals(expected, actual);
+    }
+
+    // a shuffled batch in which some keys come up several times, expected gets what inserting them in order would.
+    static List<BTree.KeyData<String, String>> randomBatch(Random random, int size, int keyRange,
+                                                           TreeMap<String, String> expected) {
+        List<BTree.KeyData<String, String>> batch = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String key = String.format("key%05d", random.nextInt(keyRange));
+            String data = "data" + i + "_" + random.nextInt(1000);
+            batch.add(new BTree.KeyData<>(key, data));
+            expected.put(key, data);
+        }
+        return batch;
+    }
+
+    // keys in the tree, keys that are not, and repeats, in no particular order.
+    static List<String> randomKeys(Random random, int size, int keyRange) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            keys.add(String.format("key%05d", random.nextInt(keyRange)) + (random.nextInt(5) == 0 ? "x" : ""));
+        }
+        return keys;
+    }
+
+    @Test
+    void bTreePutAllKeepsTheLastOfEqualKeys() {
+        BTree<String, String> bTree = new BTree<>(2);
+        TreeMap<String, String> expected = new TreeMap<>();
+        List<BTree.KeyData<String, String>> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(new BTree.KeyData<>("key" + (i % 3), "data" + i));
+            expected.put("key" + (i % 3), "data" + i);
+        }
+        bTree.putAll(batch);
+        assertContents(expected, bTree);
+        // the caller's entries are not the ones the tree keeps.
+        batch.get(9).setData("changed");
+        assertEquals("data9", bTree.get("key0"));
+    }
+
+    @Test
+    void bTreePutAllSplitsAnOverflowingRootRepeatedly() {
+        Random random = new Random(11);
+        for (int thresholdCount : new int[]{2, 3, 8}) {
+            BTree<String, String> bTree = new BTree<>(thresholdCount);
+            TreeMap<String, String> expected = new TreeMap<>();
+            // one batch into the empty tree is many times what a root can hold, so it gets new roots level by level.
+            bTree.putAll(randomBatch(random, 20000, 50000, expected));
+            assertContents(expected, bTree);
+            assertTrue(bTree.getMetrics().getHeight() > 3);
+
+            for (int i = 0; i < 20; i++) {
+                bTree.putAll(randomBatch(random, 1 + random.nextInt(2000), 60000, expected));
+                for (int j = 0; j < 200; j++) {
+                    String key = String.format("key%05d", random.nextInt(60000));
+                    assertEquals(expected.remove(key) != null, bTree.delete(key));
+                }
+                assertContents(expected, bTree);
+            }
+        }
+    }
+
+    @Test
+    void bTreeGetAllAnswersInTheCallersOrder() {
+        BTree<String, String> bTree = new BTree<>(3);
+        assertEquals(Arrays.asList(null, null), bTree.getAll(List.of("a", "b")));
+        assertFalse(bTree.delete("a"));
+
+        Random random = new Random(12);
+        TreeMap<String, String> expected = new TreeMap<>();
+        bTree.putAll(randomBatch(random, 5000, 8000, expected));
+        for (int i = 0; i < 20; i++) {
+            List<String> keys = randomKeys(random, 1 + random.nextInt(500), 8000);
+            List<String> values = bTree.getAll(keys);
+            assertEquals(keys.size(), values.size());
+            for (int j = 0; j < keys.size(); j++) {
+                assertEquals(expected.get(keys.get(j)), values.get(j));
+            }
+        }
+        assertTrue(bTree.getAll(List.of()).isEmpty());
+    }
+
+    @Test
+    void bTreeDiskPutAllAndGetAll() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        // a small pool, so the batches fault and evict nodes as they go.
+        bTreeDisk.setBufferPool(new BufferPool<>(16));
+        Random random = new Random(13);
+        TreeMap<String, String> expected = new TreeMap<>();
+
+        List<BTreeDisk.KeyData<String, String>> batch = new ArrayList<>();
+        for (BTree.KeyData<String, String> keyData : randomBatch(random, 20000, 50000, expected)) {
+            batch.add(new BTreeDisk.KeyData<>(keyData.getKey(), keyData.getData()));
+        }
+        bTreeDisk.putAll(batch);
+        MessageBufferTest.validate(bTreeDisk);
+        WriteAheadLogTest.assertContents(expected, bTreeDisk);
+
+        for (int i = 0; i < 10; i++) {
+            batch.clear();
+            for (BTree.KeyData<String, String> keyData : randomBatch(random, 1 + random.nextInt(2000), 60000,
+                    expected)) {
+                batch.add(new BTreeDisk.KeyData<>(keyData.getKey(), keyData.getData()));
+            }
+            bTreeDisk.putAll(batch);
+
+            List<String> keys = randomKeys(random, 1 + random.nextInt(500), 60000);
+            List<String> values = bTreeDisk.getAll(keys);
+            assertEquals(keys.size(), values.size());
+            for (int j = 0; j < keys.size(); j++) {
+                assertEquals(expected.get(keys.get(j)), values.get(j));
+            }
+        }
+        MessageBufferTest.validate(bTreeDisk);
+        bTreeDisk.serializeToDisk();
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> reopened = BTreeDisk.deserializeFromDisk(dataFile);
+        WriteAheadLogTest.assertContents(expected, reopened);
+        reopened.close();
+    }
+}
@@ -0,0 +1,182 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkLoaderTest {
+    @TempDir
+    Path dir;
+
+    static List<BTreeDisk.KeyData<String, String>> keyDataOf(TreeMap<String, String> entries) {
+        List<BTreeDisk.KeyData<String, String>> keyDataList = new ArrayList<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            keyDataList.add(new BTreeDisk.KeyData<>(entry.getKey(), entry.getValue()));
+        }
+        return keyDataList;
+    }
+
+    static TreeMap<String, String> entries(int count) {
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            entries.put(String.format("key%05d", i), "data" + i);
+        }
+        return entries;
+    }
+
+    // the key counts of the nodes, one list per level from the root down, each left to right.
+    static List<List<Integer>> nodeSizes(BTreeDisk<String, String> bTreeDisk) throws IOException {
+        List<List<Integer>> sizes = new ArrayList<>();
+        if (bTreeDisk.getRoot() != null) {
+            collectSizes(bTreeDisk, bTreeDisk.getRoot(), 0, sizes);
+        }
+        return sizes;
+    }
+
+    private static void collectSizes(BTreeDisk<String, String> bTreeDisk, BTreeDisk<String, String>.Node node,
+                                     int depth, List<List<Integer>> sizes) throws IOException {
+        bTreeDisk.pin(node);
+        try {
+            if (sizes.size() == depth) {
+                sizes.add(new ArrayList<>());
+            }
+            sizes.get(depth).add(node.getKeyDataListSize());
+            for (int i = 0; i < node.getChildNodesSize(); i++) {
+                collectSizes(bTreeDisk, node.getChild(i), depth + 1, sizes);
+            }
+        } finally {
+            // the children's pins are released already, so this node's is the last one taken.
+            bTreeDisk.getPinnedNodes().remove(bTreeDisk.getPinnedNodes().size() - 1);
+            bTreeDisk.getBufferPool().unpin(node);
+        }
+    }
+
+    // every node but the root within the thresholds, and every node but the last two of a level at the target.
+    static void assertFilled(BTreeDisk<String, String> bTreeDisk, int targetKeys) throws IOException {
+        MessageBufferTest.validate(bTreeDisk);
+        List<List<Integer>> sizes = nodeSizes(bTreeDisk);
+        for (int depth = 1; depth < sizes.size(); depth++) {
+            List<Integer> level = sizes.get(depth);
+            for (int i = 0; i < level.size(); i++) {
+                assertTrue(level.get(i) >= bTreeDisk.getLowerThreshold());
+                assertTrue(level.get(i) <= bTreeDisk.getHigherThreshold());
+                if (i < level.size() - 2) {
+                    assertEquals(targetKeys, level.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    void nodesAreFilledToTheFillFactor() throws IOException {
+        TreeMap<String, String> expected = entries(5000);
+        // a threshold count of 5 allows 4 to 9 keys a node.
+        Map<Double, Integer> targets = Map.of(0.1, 4, 0.5, 5, 0.9, 8, 1.0, 9);
+        for (Map.Entry<Double, Integer> target : targets.entrySet()) {
+            Path dataFile = dir.resolve("btree" + target.getKey() + ".data");
+            BTreeDisk<String, String> bTreeDisk = BulkLoader.load(dataFile, 5, 4096,
+                    keyDataOf(expected).iterator(), target.getKey());
+            assertFilled(bTreeDisk, target.getValue());
+            WriteAheadLogTest.assertContents(expected, bTreeDisk);
+            bTreeDisk.close();
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(dir.resolve("zero.data"), 5, 4096,
+                keyDataOf(expected).iterator(), 0));
+        assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(dir.resolve("over.data"), 5, 4096,
+                keyDataOf(expected).iterator(), 1.5));
+    }
+
+    @Test
+    void underfullLastNodesAreMergedOrToppedUp() throws IOException {
+        // every count up to a few levels deep, so the last nodes end up with every possible number of keys.
+        for (int count = 0; count < 300; count++) {
+            TreeMap<String, String> expected = entries(count);
+            Path dataFile = dir.resolve("btree" + count + ".data");
+            BTreeDisk<String, String> bTreeDisk = BulkLoader.load(dataFile, 3, 4096,
+                    keyDataOf(expected).iterator(), 1.0);
+            assertFilled(bTreeDisk, 5);
+            WriteAheadLogTest.assertContents(expected, bTreeDisk);
+
+            // the loaded tree takes inserts and deletes like any other.
+            for (int i = 0; i < count; i += 3) {
+                String key = String.format("key%05d", i);
+                assertTrue(bTreeDisk.delete(key));
+                expected.remove(key);
+            }
+            bTreeDisk.insert("new", "data");
+            expected.put("new", "data");
+            MessageBufferTest.validate(bTreeDisk);
+            WriteAheadLogTest.assertContents(expected, bTreeDisk);
+            bTreeDisk.close();
+        }
+    }
+
+    @Test
+    void emptyInputLoadsAnEmptyTree() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BulkLoader.load(dataFile, 3, 4096,
+                Collections.emptyIterator(), BulkLoader.DEFAULT_FILL_FACTOR);
+        assertNull(bTreeDisk.getRoot());
+        assertNull(bTreeDisk.get("key"));
+        bTreeDisk.insert("key", "data");
+        assertEquals("data", bTreeDisk.get("key"));
+        bTreeDisk.serializeToDisk();
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> reopened = BTreeDisk.deserializeFromDisk(dataFile);
+        assertEquals("data", reopened.get("key"));
+        reopened.close();
+    }
+
+    @Test
+    void duplicateKeysKeepTheLastData() throws IOException {
+        List<BTreeDisk.KeyData<String, String>> keyDataList = new ArrayList<>();
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 200; i++) {
+            String key = String.format("key%05d", i);
+            for (int j = 0; j <= i % 3; j++) {
+                keyDataList.add(new BTreeDisk.KeyData<>(key, "data" + i + "_" + j));
+            }
+            expected.put(key, "data" + i + "_" + (i % 3));
+        }
+
+        BTreeDisk<String, String> bTreeDisk = BulkLoader.load(dir.resolve("btree.data"), 3, 4096,
+                keyDataList.iterator(), 1.0);
+        assertFilled(bTreeDisk, 5);
+        WriteAheadLogTest.assertContents(expected, bTreeDisk);
+        bTreeDisk.close();
+    }
+
+    @Test
+    void badInputIsRefused() {
+        List<BTreeDisk.KeyData<String, String>> unsorted = keyDataOf(entries(100));
+        Collections.swap(unsorted, 40, 60);
+        assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(dir.resolve("unsorted.data"), 3, 4096,
+                unsorted.iterator(), 1.0));
+
+        List<BTreeDisk.KeyData<String, String>> tooLarge = keyDataOf(entries(100));
+        tooLarge.set(50, new BTreeDisk.KeyData<>(tooLarge.get(50).getKey(), "v".repeat(1500)));
+        assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(dir.resolve("large.data"), 3, 4096,
+                tooLarge.iterator(), 1.0));
+    }
+
+    @Test
+    void unsortedInputIsSortedFirst() throws IOException {
+        TreeMap<String, String> expected = entries(3000);
+        List<BTreeDisk.KeyData<String, String>> keyDataList = keyDataOf(expected);
+        Collections.shuffle(keyDataList, new Random(5));
+
+        // small runs, so the sort spills and merges a good number of them.
+        BTreeDisk<String, String> bTreeDisk = BulkLoader.loadUnsorted(dir.resolve("btree.data"), 3, 4096,
+                keyDataList.iterator(), 1.0, 100);
+        assertFilled(bTreeDisk, 5);
+        WriteAheadLogTest.assertContents(expected, bTreeDisk);
+        bTreeDisk.close();
+    }
+}
@@ -0,0 +1,85 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointerTest {
+    @TempDir
+    Path dir;
+
+    static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(1);
+        }
+    }
+
+    // a tree whose checkpoints fail while failing is set.
+    static class FailingBTreeDisk extends BTreeDisk<String, String> {
+        volatile boolean failing;
+
+        FailingBTreeDisk(Path dataFile) throws IOException {
+            super(dataFile, 3, 4096, Comparator.naturalOrder(), Codec.STRING, Codec.STRING);
+        }
+
+        @Override
+        synchronized void serializeToDisk() throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            super.serializeToDisk();
+        }
+    }
+
+    @Test
+    void checkpointsOnceEnoughNodesAreDirty() throws Exception {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.OS_MANAGED, 0);
+        Checkpointer checkpointer = new Checkpointer(bTreeDisk, 4, 60000);
+        checkpointer.start(1);
+        for (int i = 0; i < 1000; i++) {
+            bTreeDisk.insert("key" + i, "data" + i);
+        }
+
+        awaitTrue(() -> {
+            synchronized (bTreeDisk) {
+                return bTreeDisk.getBufferPool().getDirtyCount() < 4;
+            }
+        });
+        checkpointer.close();
+        assertEquals(0, bTreeDisk.getBufferPool().getDirtyCount());
+        bTreeDisk.close();
+    }
+
+    @Test
+    void aFailedBackgroundCheckpointFailsWritesUntilOneSucceeds() throws Exception {
+        FailingBTreeDisk bTreeDisk = new FailingBTreeDisk(dir.resolve("btree.data"));
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.OS_MANAGED, 0);
+        bTreeDisk.failing = true;
+        Checkpointer checkpointer = new Checkpointer(bTreeDisk, 1, 60000);
+        checkpointer.start(1);
+
+        bTreeDisk.insert("a", "1");
+        awaitTrue(() -> bTreeDisk.getCheckpointFailure() != null);
+        IOException e = assertThrows(IOException.class, () -> bTreeDisk.insert("b", "2"));
+        assertEquals("disk full", e.getCause().getMessage());
+        assertThrows(IOException.class, () -> bTreeDisk.delete("a"));
+        // reads go on.
+        assertEquals("1", bTreeDisk.get("a"));
+
+        bTreeDisk.failing = false;
+        awaitTrue(() -> bTreeDisk.getCheckpointFailure() == null);
+        bTreeDisk.insert("b", "2");
+        assertEquals("2", bTreeDisk.get("b"));
+        checkpointer.close();
+        bTreeDisk.close();
+    }
+}
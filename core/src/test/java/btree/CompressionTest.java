@@ -0,0 +1,98 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+    @TempDir
+    Path dir;
+
+    // hex digits only deflate to about half, so a full node of these does not fit in one page.
+    static String randomData(Random random, int length) {
+        StringBuilder data = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            data.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return data.toString();
+    }
+
+    @Test
+    void nodesThatDoNotCompressIntoAPageOverflow() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 8, 1024, PageStore.Compression.DEFLATE);
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.EVERY_OPERATION, 0);
+        Random random = new Random(17);
+        int dataLength = bTreeDisk.getMetadata().getMaxEntrySize() - 8;
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = String.format("key%05d", i);
+            String data = randomData(random, dataLength);
+            bTreeDisk.insert(key, data);
+            expected.put(key, data);
+        }
+        bTreeDisk.serializeToDisk();
+        assertFalse(bTreeDisk.getPageStore().getOverflowPages().isEmpty());
+        long pageCount = bTreeDisk.getPageStore().getPageCount();
+
+        // rewritten nodes reuse their overflow pages, and freed nodes give theirs back.
+        for (int i = 0; i < 2000; i += 2) {
+            String key = String.format("key%05d", i);
+            assertTrue(bTreeDisk.delete(key));
+            expected.remove(key);
+        }
+        bTreeDisk.serializeToDisk();
+        for (int i = 0; i < 2000; i += 2) {
+            String key = String.format("key%05d", i);
+            String data = randomData(random, dataLength);
+            bTreeDisk.insert(key, data);
+            expected.put(key, data);
+        }
+        bTreeDisk.serializeToDisk();
+        assertTrue(bTreeDisk.getPageStore().getPageCount() < pageCount * 3 / 2);
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> reopened = BTreeDisk.deserializeFromDisk(dataFile);
+        WriteAheadLogTest.assertContents(expected, reopened);
+        reopened.close();
+    }
+
+    @Test
+    void aRootThatDoesNotInflateFailsTheOpen() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 8, 1024, PageStore.Compression.DEFLATE);
+        for (int i = 0; i < 10; i++) {
+            bTreeDisk.insert(String.format("key%05d", i), "data" + i);
+        }
+        bTreeDisk.serializeToDisk();
+        long rootId = bTreeDisk.getMetadata().getRootId();
+        bTreeDisk.close();
+
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+            byte[] garbage = new byte[16];
+            Arrays.fill(garbage, (byte) 0xff);
+            channel.write(ByteBuffer.wrap(garbage), rootId * 1024 + PageStore.COMPRESSED_DATA_OFFSET);
+        }
+        assertThrows(IOException.class, () -> BTreeDisk.deserializeFromDisk(dataFile));
+    }
+
+    @Test
+    void compressibleNodesStayInOnePage() throws IOException {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 8, 1024,
+                PageStore.Compression.DEFLATE);
+        for (int i = 0; i < 2000; i++) {
+            bTreeDisk.insert(String.format("key%05d", i), "data".repeat(20));
+        }
+        bTreeDisk.serializeToDisk();
+        assertTrue(bTreeDisk.getPageStore().getOverflowPages().isEmpty());
+        bTreeDisk.close();
+    }
+}
@@ -0,0 +1,166 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentBTreeTest {
+    static final int THREAD_COUNT = 4;
+    static final int KEYS_PER_THREAD = 20000;
+
+    // runs the task on every thread at once, failing with whatever a thread threw.
+    static void runConcurrently(int threadCount, IntConsumerWithException task) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CyclicBarrier start = new CyclicBarrier(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                int thread = t;
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    task.accept(thread);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    interface IntConsumerWithException {
+        void accept(int value) throws Exception;
+    }
+
+    @Test
+    void concurrentInsertsAndDeletesOfDisjointKeys() throws Exception {
+        ConcurrentBTree bTree = new ConcurrentBTree(2);
+
+        runConcurrently(THREAD_COUNT, thread -> {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                bTree.insert("key" + thread + "-" + i, "data" + i);
+            }
+            for (int i = 0; i < KEYS_PER_THREAD; i += 2) {
+                assertTrue(bTree.delete("key" + thread + "-" + i));
+            }
+        });
+
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                assertEquals(i % 2 == 1 ? "data" + i : null, bTree.get("key" + t + "-" + i));
+            }
+        }
+    }
+
+    @Test
+    void readersSeeEveryKeyThatIsNeverDeleted() throws Exception {
+        ConcurrentBTree bTree = new ConcurrentBTree(3);
+        for (int i = 0; i < 1000; i++) {
+            bTree.insert(String.format("stable%04d", i), "stable");
+        }
+
+        // two threads churn keys of their own while two others keep reading the stable keys.
+        runConcurrently(THREAD_COUNT, thread -> {
+            Random random = new Random(thread);
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                if (thread < 2) {
+                    String key = "churn" + thread + "-" + random.nextInt(2000);
+                    if (random.nextBoolean()) {
+                        bTree.insert(key, "data");
+                    } else {
+                        bTree.delete(key);
+                    }
+                } else {
+                    assertEquals("stable", bTree.get(String.format("stable%04d", random.nextInt(1000))));
+                }
+            }
+        });
+    }
+
+    // checks key order, bounds and counts of every node and that all leaves are at the same depth. returns the height.
+    static int validate(ConcurrentBTree bTree, ConcurrentBTree.Node node, String low, String high) {
+        List<ConcurrentBTree.KeyData> keyDataList = node.getKeyDataList();
+        if (node != bTree.getRoot()) {
+            assertTrue(keyDataList.size() >= bTree.getLowerThreshold());
+        }
+        assertTrue(keyDataList.size() <= bTree.getHigherThreshold());
+        for (int i = 0; i < keyDataList.size(); i++) {
+            String key = keyDataList.get(i).getKey();
+            assertTrue(low == null || key.compareTo(low) > 0);
+            assertTrue(high == null || key.compareTo(high) < 0);
+            assertTrue(i == 0 || key.compareTo(keyDataList.get(i - 1).getKey()) > 0);
+        }
+        if (node.isLeafNode()) {
+            return 1;
+        }
+
+        assertEquals(keyDataList.size() + 1, node.getChildNodesSize());
+        int height = -1;
+        for (int i = 0; i <= keyDataList.size(); i++) {
+            int childHeight = validate(bTree, node.getChild(i), i == 0 ? low : keyDataList.get(i - 1).getKey(),
+                    i == keyDataList.size() ? high : keyDataList.get(i).getKey());
+            assertTrue(height < 0 || childHeight == height);
+            height = childHeight;
+        }
+        return height + 1;
+    }
+
+    @Test
+    void leafOnlyWritesAndRestartsKeepTheTreeBalanced() throws Exception {
+        ConcurrentBTree bTree = new ConcurrentBTree(3);
+        List<Map<String, String>> expected = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            expected.add(new HashMap<>());
+        }
+
+        // each thread writes keys of its own, mixed in with everybody else's so they share leaves and parents. most
+        // writes only touch a leaf, the rest split, merge or replace keys of internal nodes.
+        runConcurrently(THREAD_COUNT, thread -> {
+            Random random = new Random(thread);
+            Map<String, String> keys = expected.get(thread);
+            for (int i = 0; i < KEYS_PER_THREAD * 2; i++) {
+                String key = String.format("key%04d-%d", random.nextInt(3000), thread);
+                if (random.nextInt(3) < 2) {
+                    bTree.insert(key, "data" + i);
+                    keys.put(key, "data" + i);
+                } else {
+                    assertEquals(keys.remove(key) != null, bTree.delete(key));
+                }
+            }
+        });
+
+        validate(bTree, bTree.getRoot(), null, null);
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            for (int i = 0; i < 3000; i++) {
+                String key = String.format("key%04d-%d", i, t);
+                assertEquals(expected.get(t).get(key), bTree.get(key));
+            }
+        }
+    }
+
+    @Test
+    void concurrentUpdatesOfTheSameKeysLeaveOneOfTheWrittenValues() throws Exception {
+        ConcurrentBTree bTree = new ConcurrentBTree(2);
+
+        runConcurrently(THREAD_COUNT, thread -> {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                bTree.insert("key" + (i % 500), "data" + thread);
+            }
+        });
+
+        for (int i = 0; i < 500; i++) {
+            String data = bTree.get("key" + i);
+            assertNotNull(data);
+            assertTrue(data.startsWith("data"));
+        }
+        for (int i = 0; i < 500; i++) {
+            assertTrue(bTree.delete("key" + i));
+            assertFalse(bTree.containsKey("key" + i));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CopyOnWriteBTreeTest {
+    static List<String> keysOf(CopyOnWriteBTree.Snapshot snapshot, String fromKey, String toKey) {
+        List<String> keys = new ArrayList<>();
+        for (Iterator<CopyOnWriteBTree.KeyData> cursor = snapshot.scan(fromKey, toKey); cursor.hasNext(); ) {
+            keys.add(cursor.next().getKey());
+        }
+        return keys;
+    }
+
+    static void assertContents(TreeMap<String, String> expected, CopyOnWriteBTree.Snapshot snapshot) {
+        List<String> keys = new ArrayList<>();
+        for (Iterator<CopyOnWriteBTree.KeyData> cursor = snapshot.scan(null, null); cursor.hasNext(); ) {
+            CopyOnWriteBTree.KeyData keyData = cursor.next();
+            keys.add(keyData.getKey());
+            assertEquals(expected.get(keyData.getKey()), keyData.getData());
+        }
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), snapshot.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    void snapshotsDoNotSeeLaterWrites() {
+        CopyOnWriteBTree bTree = new CopyOnWriteBTree(2);
+        TreeMap<String, String> expected = new TreeMap<>();
+        Random random = new Random(3);
+        List<TreeMap<String, String>> versions = new ArrayList<>();
+        List<CopyOnWriteBTree.Snapshot> snapshots = new ArrayList<>();
+
+        // every write copies its path, so splits, merges and rotations all go past the older versions.
+        for (int i = 0; i < 20000; i++) {
+            String key = String.format("key%04d", random.nextInt(2000));
+            if (random.nextInt(3) < 2) {
+                bTree.insert(key, "data" + i);
+                expected.put(key, "data" + i);
+            } else {
+                assertEquals(expected.remove(key) != null, bTree.delete(key));
+            }
+            if (i % 2000 == 0) {
+                versions.add(new TreeMap<>(expected));
+                snapshots.add(bTree.snapshot());
+            }
+        }
+
+        assertEquals(snapshots.size(), bTree.getOpenSnapshotCount());
+        assertEquals(snapshots.get(0).getVersion().getNumber(), bTree.getOldestSnapshotVersionNumber());
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertContents(versions.get(i), snapshots.get(i));
+            assertEquals(new ArrayList<>(versions.get(i).subMap("key0500", true, "key0700", true).keySet()),
+                    keysOf(snapshots.get(i), "key0500", "key0700"));
+        }
+        try (CopyOnWriteBTree.Snapshot snapshot = bTree.snapshot()) {
+            assertContents(expected, snapshot);
+        }
+
+        for (CopyOnWriteBTree.Snapshot snapshot : snapshots) {
+            snapshot.close();
+        }
+        assertEquals(0, bTree.getOpenSnapshotCount());
+        assertEquals(0, bTree.getLeakedSnapshotCount());
+        assertEquals(bTree.getVersionNumber(), bTree.getOldestSnapshotVersionNumber());
+    }
+
+    @Test
+    void unclosedSnapshotsAreStillReclaimed() throws InterruptedException {
+        CopyOnWriteBTree bTree = new CopyOnWriteBTree(2);
+        for (int i = 0; i < 1000; i++) {
+            bTree.insert("key" + i, "data" + i);
+        }
+        WeakReference<CopyOnWriteBTree.Node> root = new WeakReference<>(bTree.getRoot());
+        bTree.snapshot();
+        for (int i = 0; i < 1000; i++) {
+            bTree.delete("key" + i);
+        }
+        assertEquals(1, bTree.getOpenSnapshotCount());
+
+        // neither the tree nor the cleaner keeps the dropped snapshot's version alive.
+        for (int i = 0; i < 100 && (root.get() != null || bTree.getOpenSnapshotCount() > 0); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(root.get());
+        assertEquals(0, bTree.getOpenSnapshotCount());
+        assertEquals(1, bTree.getLeakedSnapshotCount());
+    }
+}
@@ -0,0 +1,66 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntrySizeTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void entriesTooLargeForAFullNodeAreRefused() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.EVERY_OPERATION, 0);
+        int maxEntrySize = bTreeDisk.getMetadata().getMaxEntrySize();
+        assertTrue(maxEntrySize < 1500);
+
+        for (int i = 0; i < 5; i++) {
+            int key = i;
+            assertThrows(IllegalArgumentException.class, () -> bTreeDisk.insert("key" + key, "v".repeat(1500)));
+        }
+        assertThrows(IllegalArgumentException.class, () -> bTreeDisk.putAll(List.of(
+                new BTreeDisk.KeyData<>("a", "b"), new BTreeDisk.KeyData<>("key", "v".repeat(1500)))));
+        assertNull(bTreeDisk.get("a"));
+        assertFalse(bTreeDisk.delete("k".repeat(maxEntrySize + 1)));
+
+        // entries right at the limit fill nodes to the threshold and still checkpoint.
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 50; i++) {
+            String key = String.format("key%02d", i);
+            String data = "v".repeat(maxEntrySize - key.length());
+            bTreeDisk.insert(key, data);
+            expected.put(key, data);
+        }
+        bTreeDisk.serializeToDisk();
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> reopened = BTreeDisk.deserializeFromDisk(dataFile);
+        WriteAheadLogTest.assertContents(expected, reopened);
+        reopened.close();
+    }
+
+    @Test
+    void thresholdsTooLargeForThePageAreRefused() {
+        assertThrows(IllegalArgumentException.class, () -> BTreeDisk.create(dir.resolve("btree.data"), 200, 4096));
+    }
+
+    @Test
+    void messageBuffersCheckTheEntriesAlreadyInTheTree() throws IOException {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        bTreeDisk.insert("key", "v".repeat(700));
+        assertThrows(IllegalArgumentException.class, () -> bTreeDisk.enableMessageBuffers(8));
+        assertFalse(bTreeDisk.isMessageBuffered());
+
+        bTreeDisk.delete("key");
+        bTreeDisk.enableMessageBuffers(8);
+        assertThrows(IllegalArgumentException.class, () -> bTreeDisk.insert("key", "v".repeat(700)));
+        bTreeDisk.close();
+    }
+}
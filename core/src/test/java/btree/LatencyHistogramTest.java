@@ -0,0 +1,97 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+    // the value of the given rank in sorted order, ranked the way the histogram ranks them.
+    static long exactValueAtPercentile(long[] sorted, double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * sorted.length));
+        return sorted[(int) rank - 1];
+    }
+
+    // a percentile is never below the exact one and above it by at most 1/SUB_BUCKET_COUNT of it.
+    static void assertWithinRelativeError(long exact, long reported) {
+        assertTrue(reported >= exact, () -> reported + " is below " + exact);
+        assertTrue(reported <= exact + exact / LatencyHistogram.SUB_BUCKET_COUNT,
+                () -> reported + " is too far above " + exact);
+    }
+
+    @Test
+    void bucketsTileTheLongs() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            long highest = LatencyHistogram.getBucketHighestValue(i);
+            if (highest == Long.MAX_VALUE) {
+                break;
+            }
+            assertEquals(i, LatencyHistogram.getBucketIndex(highest));
+            assertEquals(i + 1, LatencyHistogram.getBucketIndex(highest + 1));
+        }
+        int last = LatencyHistogram.getBucketIndex(Long.MAX_VALUE);
+        assertTrue(last < LatencyHistogram.BUCKET_COUNT);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketHighestValue(last));
+        assertEquals(0, LatencyHistogram.getBucketIndex(-5));
+    }
+
+    @Test
+    void percentilesAreWithinTheDocumentedError() {
+        Random random = new Random(21);
+        for (int round = 0; round < 20; round++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            int size = 1 + random.nextInt(20000);
+            long[] values = new long[size];
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                // spread over many powers of two, from a few nanoseconds up to tens of seconds.
+                values[i] = (long) Math.pow(2, random.nextDouble() * 35);
+                histogram.record(values[i]);
+                total += values[i];
+            }
+            Arrays.sort(values);
+
+            for (double percentile : new double[]{0, 1, 25, 50, 75, 90, 99, 99.9, 99.99, 100}) {
+                assertWithinRelativeError(exactValueAtPercentile(values, percentile),
+                        histogram.getValueAtPercentile(percentile));
+            }
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            assertEquals(size, snapshot.getCount());
+            assertEquals(total / size, snapshot.getMeanNanos());
+            assertEquals(values[size - 1], snapshot.getMaxNanos());
+            assertWithinRelativeError(exactValueAtPercentile(values, 50), snapshot.getP50Nanos());
+            assertWithinRelativeError(exactValueAtPercentile(values, 90), snapshot.getP90Nanos());
+            assertWithinRelativeError(exactValueAtPercentile(values, 99), snapshot.getP99Nanos());
+            assertWithinRelativeError(exactValueAtPercentile(values, 99.9), snapshot.getP999Nanos());
+        }
+    }
+
+    @Test
+    void knownLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.snapshot().getCount());
+
+        // 1..1000 microseconds once each.
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertWithinRelativeError(500_000, histogram.getValueAtPercentile(50));
+        assertWithinRelativeError(900_000, histogram.getValueAtPercentile(90));
+        assertWithinRelativeError(990_000, histogram.getValueAtPercentile(99));
+        // the top bucket is capped at the largest value recorded.
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        assertEquals(500_500, histogram.snapshot().getMeanNanos());
+
+        // values below SUB_BUCKET_COUNT are exact.
+        histogram.reset();
+        for (long nanos = 0; nanos < LatencyHistogram.SUB_BUCKET_COUNT; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(LatencyHistogram.SUB_BUCKET_COUNT, histogram.snapshot().getCount());
+        assertEquals(7, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(LatencyHistogram.SUB_BUCKET_COUNT - 1, histogram.getValueAtPercentile(100));
+    }
+}
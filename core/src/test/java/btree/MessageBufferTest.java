@@ -0,0 +1,244 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageBufferTest {
+    static final int KEY_COUNT = 3000;
+
+    @TempDir
+    Path dir;
+
+    // checks the tree's shape node by node: keys in order and within the parent's bounds, messages only in internal
+    // nodes and only for keys of their subtrees, and every leaf at the same depth. returns the subtree's height.
+    static int validate(BTreeDisk<String, String> bTreeDisk, BTreeDisk<String, String>.Node node, String low,
+                        String high) throws IOException {
+        bTreeDisk.pin(node);
+        try {
+            return validateNode(bTreeDisk, node, low, high);
+        } finally {
+            // the children's pins are released already, so this node's is the last one taken.
+            bTreeDisk.getPinnedNodes().remove(bTreeDisk.getPinnedNodes().size() - 1);
+            bTreeDisk.getBufferPool().unpin(node);
+        }
+    }
+
+    private static int validateNode(BTreeDisk<String, String> bTreeDisk, BTreeDisk<String, String>.Node node,
+                                    String low, String high) throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (BTreeDisk.KeyData<String, String> keyData : node.getKeyDataList()) {
+            String key = keyData.getKey();
+            assertTrue(low == null || key.compareTo(low) > 0);
+            assertTrue(high == null || key.compareTo(high) < 0);
+            assertTrue(keys.isEmpty() || key.compareTo(keys.get(keys.size() - 1)) > 0);
+            // a deleted key only stays behind while it separates subtrees.
+            assertFalse(node.isLeafNode() && keyData.getData() == null);
+            keys.add(key);
+        }
+        for (String key : node.getMessages().keySet()) {
+            assertTrue(low == null || key.compareTo(low) > 0);
+            assertTrue(high == null || key.compareTo(high) < 0);
+            assertFalse(keys.contains(key));
+        }
+
+        if (node.isLeafNode()) {
+            // leaves never buffer, so they never get a message map at all.
+            assertNull(node.messages);
+            return 1;
+        }
+        assertEquals(keys.size() + 1, node.getChildNodesSize());
+        int height = -1;
+        for (int i = 0; i <= keys.size(); i++) {
+            int childHeight = validate(bTreeDisk, node.getChild(i), (i == 0) ? low : keys.get(i - 1),
+                    (i == keys.size()) ? high : keys.get(i));
+            assertTrue(height < 0 || childHeight == height);
+            height = childHeight;
+        }
+        return height + 1;
+    }
+
+    static void validate(BTreeDisk<String, String> bTreeDisk) throws IOException {
+        if (bTreeDisk.getRoot() != null) {
+            validate(bTreeDisk, bTreeDisk.getRoot(), null, null);
+        }
+    }
+
+    // forward and reverse scans of the whole tree and of random ranges against the expected contents.
+    static void assertScans(TreeMap<String, String> expected, BTreeDisk<String, String> bTreeDisk, Random random)
+            throws IOException {
+        WriteAheadLogTest.assertContents(expected, bTreeDisk);
+        for (int i = 0; i < 20; i++) {
+            String fromKey = "k" + random.nextInt(KEY_COUNT);
+            String toKey = "k" + random.nextInt(KEY_COUNT);
+            if (fromKey.compareTo(toKey) > 0) {
+                String key = fromKey;
+                fromKey = toKey;
+                toKey = key;
+            }
+
+            List<String> keys = new ArrayList<>();
+            try (BTreeDisk<String, String>.Cursor cursor = bTreeDisk.scan(fromKey, toKey)) {
+                while (cursor.hasNext()) {
+                    keys.add(cursor.next().getKey());
+                }
+            }
+            assertEquals(new ArrayList<>(expected.subMap(fromKey, true, toKey, true).keySet()), keys);
+
+            keys.clear();
+            try (BTreeDisk<String, String>.Cursor cursor = bTreeDisk.scanReverse(fromKey, toKey)) {
+                while (cursor.hasNext()) {
+                    keys.add(cursor.next().getKey());
+                }
+            }
+            assertEquals(new ArrayList<>(expected.subMap(fromKey, true, toKey, true).descendingKeySet()), keys);
+        }
+    }
+
+    // a mix of inserts, deletes, batches and lookups over a small key space, so keys are written and deleted again
+    // while their messages are still on the way down.
+    static void applyRandomOperations(BTreeDisk<String, String> bTreeDisk, TreeMap<String, String> expected,
+                                      Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            String key = "k" + random.nextInt(KEY_COUNT);
+            int operation = random.nextInt(20);
+            if (operation < 9) {
+                bTreeDisk.insert(key, "v" + i);
+                expected.put(key, "v" + i);
+            } else if (operation < 15) {
+                assertEquals(expected.remove(key) != null, bTreeDisk.delete(key));
+            } else if (operation < 17) {
+                assertEquals(expected.get(key), bTreeDisk.get(key));
+            } else if (operation < 18) {
+                List<BTreeDisk.KeyData<String, String>> batch = new ArrayList<>();
+                for (int j = 0; j < 30; j++) {
+                    String batchKey = "k" + random.nextInt(KEY_COUNT);
+                    batch.add(new BTreeDisk.KeyData<>(batchKey, "p" + i + "_" + j));
+                    expected.put(batchKey, "p" + i + "_" + j);
+                }
+                bTreeDisk.putAll(batch);
+            } else {
+                List<String> keys = new ArrayList<>();
+                for (int j = 0; j < 10; j++) {
+                    keys.add("k" + random.nextInt(KEY_COUNT));
+                }
+                List<String> values = bTreeDisk.getAll(keys);
+                for (int j = 0; j < keys.size(); j++) {
+                    assertEquals(expected.get(keys.get(j)), values.get(j));
+                }
+            }
+            if (i % 1000 == 0) {
+                validate(bTreeDisk);
+            }
+        }
+        validate(bTreeDisk);
+    }
+
+    @Test
+    void messagesSurviveFlushesSplitsAndMerges() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        // a small pool without a log steals dirty nodes, so buffers are written and read back all the time.
+        bTreeDisk.setBufferPool(new BufferPool<>(16));
+        bTreeDisk.enableMessageBuffers(8);
+        TreeMap<String, String> expected = new TreeMap<>();
+        Random random = new Random(1);
+
+        applyRandomOperations(bTreeDisk, expected, random, 20000);
+        assertScans(expected, bTreeDisk, random);
+        TreeMetrics.Snapshot snapshot = bTreeDisk.getMetrics().getSnapshot();
+        assertTrue(snapshot.getFlushes() > 0);
+        assertTrue(snapshot.getSplits() > 0);
+        assertTrue(snapshot.getMerges() > 0);
+
+        for (String key : new ArrayList<>(expected.keySet())) {
+            assertTrue(bTreeDisk.delete(key));
+            expected.remove(key);
+        }
+        validate(bTreeDisk);
+        assertScans(expected, bTreeDisk, random);
+
+        applyRandomOperations(bTreeDisk, expected, random, 5000);
+        bTreeDisk.serializeToDisk();
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> reopened = BTreeDisk.deserializeFromDisk(dataFile);
+        assertTrue(reopened.isMessageBuffered());
+        assertScans(expected, reopened, random);
+        applyRandomOperations(reopened, expected, random, 5000);
+        assertScans(expected, reopened, random);
+        reopened.close();
+    }
+
+    @Test
+    void bufferedMessagesAreRecoveredFromTheLog() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 4, 4096);
+        bTreeDisk.setBufferPool(new BufferPool<>(32));
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.OS_MANAGED, 0);
+        bTreeDisk.enableMessageBuffers(16);
+        TreeMap<String, String> expected = new TreeMap<>();
+        Random random = new Random(2);
+        applyRandomOperations(bTreeDisk, expected, random, 10000);
+        // closing without a checkpoint leaves the data file as a crash would.
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> recovered = BTreeDisk.deserializeFromDisk(dataFile);
+        assertTrue(recovered.isMessageBuffered());
+        validate(recovered);
+        assertScans(expected, recovered, random);
+        recovered.close();
+    }
+
+    @Test
+    void scansSeeMessagesOfNodesTheyHaveNotEnteredYet() throws IOException {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            bTreeDisk.insert(String.format("k%04d", i), "v" + i);
+            expected.put(String.format("k%04d", i), "v" + i);
+        }
+        bTreeDisk.enableMessageBuffers(64);
+        // these stay buffered in the root, for keys all over the tree.
+        for (int i = 0; i < 500; i += 10) {
+            String key = String.format("k%04d", i);
+            if (i % 20 == 0) {
+                bTreeDisk.insert(key, "new" + i);
+                expected.put(key, "new" + i);
+            } else {
+                assertTrue(bTreeDisk.delete(key));
+                expected.remove(key);
+            }
+        }
+        bTreeDisk.insert("k9999", "last");
+        expected.put("k9999", "last");
+        assertFalse(bTreeDisk.getRoot().getMessages().isEmpty());
+
+        WriteAheadLogTest.assertContents(expected, bTreeDisk);
+        List<String> keys = new ArrayList<>();
+        try (BTreeDisk<String, String>.Cursor cursor = bTreeDisk.scanReverse("k0100", "k0200")) {
+            while (cursor.hasNext()) {
+                keys.add(cursor.next().getKey());
+            }
+        }
+        assertEquals(new ArrayList<>(expected.subMap("k0100", true, "k0200", true).descendingKeySet()), keys);
+        bTreeDisk.close();
+    }
+
+    @Test
+    void treesWithoutMessageBuffersAllocateNoMessageMaps() throws IOException {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        for (int i = 0; i < 1000; i++) {
+            bTreeDisk.insert(String.format("k%04d", i), "v" + i);
+        }
+        for (BTreeDisk<String, String>.Node node : bTreeDisk.getBufferPool().getResidentNodes().values()) {
+            assertNull(node.messages);
+        }
+        bTreeDisk.close();
+    }
+}
@@ -0,0 +1,203 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the prefix compression of node pages and the separators BPlusTree cuts down to their shortest form.
+class NodePageTest {
+    static List<byte[]> encode(List<String> keys) {
+        List<byte[]> encoded = new ArrayList<>();
+        for (String key : keys) {
+            encoded.add(key == null ? null : key.getBytes(StandardCharsets.UTF_8));
+        }
+        return encoded;
+    }
+
+    // writes the keys and data into a fresh page and checks that they, and the children, read back the same, both
+    // from the page that wrote them and from a copy of its bytes. returns the copy.
+    static NodePage assertRoundTrip(List<String> keys, List<String> dataList, int expectedPrefixLength)
+            throws IOException {
+        long[] childPageIds = new long[keys.size() + 1];
+        for (int i = 0; i < childPageIds.length; i++) {
+            childPageIds[i] = 1000L + i;
+        }
+        NodePage page = NodePage.allocate(NodePage.DEFAULT_PAGE_SIZE);
+        page.write(encode(keys), encode(dataList), childPageIds);
+
+        ByteBuffer copy = ByteBuffer.allocate(NodePage.DEFAULT_PAGE_SIZE);
+        copy.put(page.getBuffer().duplicate().clear()).clear();
+        NodePage reread = new NodePage(copy);
+        for (NodePage readPage : List.of(page, reread)) {
+            assertEquals(expectedPrefixLength, readPage.getPrefixLength());
+            assertEquals(keys.size(), readPage.getKeyCount());
+            assertEquals(childPageIds.length, readPage.getChildCount());
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(keys.get(i), new String(readPage.readKey(i), StandardCharsets.UTF_8));
+                byte[] data = readPage.readData(i);
+                assertEquals(dataList.get(i), data == null ? null : new String(data, StandardCharsets.UTF_8));
+                assertEquals(i, readPage.search(keys.get(i), Codec.STRING, Comparator.naturalOrder()));
+            }
+            for (int i = 0; i < childPageIds.length; i++) {
+                assertEquals(childPageIds[i], readPage.getChildPageId(i));
+            }
+        }
+        return reread;
+    }
+
+    @Test
+    void keysWithALongSharedPrefixKeepOnlyTheirSuffixes() throws IOException {
+        String prefix = "tenant-0042/table-orders/partition-0007/".repeat(3);
+        List<String> keys = new ArrayList<>();
+        List<String> dataList = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            keys.add(prefix + String.format("row%05d", i * 2500));
+            // a deleted key now and then, it is stored as a tombstone.
+            dataList.add(i % 9 == 0 ? null : "data" + i);
+        }
+        NodePage page = assertRoundTrip(keys, dataList, prefix.length() + 3);
+        assertEquals(prefix + "row", new String(page.getPrefix(), StandardCharsets.UTF_8));
+
+        // 40 keys of this length do not fit a page uncompressed, so the prefix really is stored once.
+        assertTrue(keys.size() * (prefix.length() + 8) > NodePage.DEFAULT_PAGE_SIZE);
+
+        // keys between and around the stored ones, including ones that stop inside the prefix.
+        for (String key : List.of(prefix + "row00001", prefix + "row99999", prefix + "ro", prefix, "", "zzz")) {
+            int insertionPoint = -(Collections.binarySearch(keys, key) + 1);
+            assertEquals(-(insertionPoint + 1), page.search(key, Codec.STRING, Comparator.naturalOrder()));
+        }
+    }
+
+    @Test
+    void theEmptyKeyLeavesNoPrefix() throws IOException {
+        NodePage page = assertRoundTrip(List.of("", "prefix-a", "prefix-b"), Arrays.asList("empty", null, "b"), 0);
+        assertEquals(0, page.getPrefix().length);
+        assertRoundTrip(List.of(""), List.of("only"), 0);
+        assertRoundTrip(List.of(), List.of(), 0);
+    }
+
+    @Test
+    void aKeyThatIsAPrefixOfItsNeighbourHasAnEmptySuffix() throws IOException {
+        // the whole first key is the prefix, so its cell keeps no key bytes at all.
+        NodePage page = assertRoundTrip(List.of("abc", "abcd", "abcde", "abcz"), List.of("1", "2", "3", "4"), 3);
+        assertEquals("abc", new String(page.getPrefix(), StandardCharsets.UTF_8));
+        // "abcde" < "abcdz" < "abcz", so it would go in at slot 3.
+        assertEquals(-4, page.search("abcdz", Codec.STRING, Comparator.naturalOrder()));
+
+        // the longer key first, under a comparator that is not byte order.
+        List<String> keys = List.of("abcd", "abc");
+        NodePage reversed = NodePage.allocate(NodePage.DEFAULT_PAGE_SIZE);
+        reversed.write(encode(keys), encode(List.of("x", "y")), new long[0]);
+        assertEquals(3, reversed.getPrefixLength());
+        assertEquals("abcd", new String(reversed.readKey(0), StandardCharsets.UTF_8));
+        assertEquals("abc", new String(reversed.readKey(1), StandardCharsets.UTF_8));
+        assertEquals(1, reversed.search("abc", Codec.STRING, Comparator.<String>reverseOrder()));
+    }
+
+    @Test
+    void messagesShareThePrefixOfTheKeys() throws IOException {
+        NodePage page = NodePage.allocate(NodePage.DEFAULT_PAGE_SIZE);
+        page.write(encode(List.of("shared/key1", "shared/key2")), encode(List.of("a", "b")), new long[]{1, 2, 3},
+                encode(List.of("shared/k", "shared/key3")), encode(Arrays.asList("c", null)));
+        assertEquals("shared/k".length(), page.getPrefixLength());
+        assertEquals(2, page.getKeyCount());
+        assertEquals(2, page.getMessageCount());
+        assertEquals("shared/key2", new String(page.readKey(1), StandardCharsets.UTF_8));
+        assertEquals("shared/k", new String(page.readMessageKey(0), StandardCharsets.UTF_8));
+        assertEquals("c", new String(page.readMessageData(0), StandardCharsets.UTF_8));
+        assertEquals("shared/key3", new String(page.readMessageKey(1), StandardCharsets.UTF_8));
+        assertNull(page.readMessageData(1));
+        assertEquals(3L, page.getChildPageId(2));
+    }
+
+    @Test
+    void theShortestSeparatorOfAdjacentKeys() {
+        assertEquals("abd", BPlusTree.shortestSeparator("abc", "abd"));
+        assertEquals("b", BPlusTree.shortestSeparator("apple", "banana"));
+        assertEquals("key001", BPlusTree.shortestSeparator("key0009", "key0010"));
+        // the lower key is a prefix of the upper one, the separator needs one character past it.
+        assertEquals("abcd", BPlusTree.shortestSeparator("abc", "abcdef"));
+        assertEquals("a", BPlusTree.shortestSeparator("", "a"));
+        assertEquals("a", BPlusTree.shortestSeparator("", "abc"));
+
+        Random random = new Random(16);
+        for (int i = 0; i < 10000; i++) {
+            String lower = randomKey(random);
+            String upper = randomKey(random);
+            if (lower.compareTo(upper) >= 0) {
+                continue;
+            }
+            String separator = BPlusTree.shortestSeparator(lower, upper);
+            assertTrue(lower.compareTo(separator) < 0);
+            assertTrue(separator.compareTo(upper) <= 0);
+            assertTrue(upper.startsWith(separator));
+            // one character less and it would no longer be above lower.
+            assertTrue(lower.compareTo(separator.substring(0, separator.length() - 1)) >= 0);
+        }
+    }
+
+    static String randomKey(Random random) {
+        StringBuilder key = new StringBuilder("common/prefix/".substring(0, random.nextInt(15)));
+        for (int length = random.nextInt(4); length > 0; length--) {
+            key.append((char) ('a' + random.nextInt(3)));
+        }
+        return key.toString();
+    }
+
+    @Test
+    void separatorsOfLongKeysStayShortAndRouteLookups() {
+        BPlusTree bPlusTree = new BPlusTree(3);
+        TreeMap<String, String> expected = new TreeMap<>();
+        String prefix = "tenant-0042/table-orders/".repeat(4);
+        Random random = new Random(17);
+        for (int i = 0; i < 3000; i++) {
+            String key = prefix + String.format("row%05d", random.nextInt(100000)) + "/suffix";
+            bPlusTree.insert(key, "data" + i);
+            expected.put(key, "data" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            String key = expected.keySet().toArray(new String[0])[random.nextInt(expected.size())];
+            assertTrue(bPlusTree.delete(key));
+            expected.remove(key);
+        }
+
+        int[] separators = new int[2];
+        assertSeparators(bPlusTree.getRoot(), null, null, separators);
+        // most separators stop somewhere in the row number instead of carrying the whole key.
+        assertTrue(separators[1] > separators[0] / 2);
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), bPlusTree.get(entry.getKey()));
+        }
+        assertNull(bPlusTree.get(prefix + "row"));
+        assertEquals(new ArrayList<>(expected.keySet()),
+                BPlusTreeTest.keysOf(bPlusTree.scan(null, null), expected));
+    }
+
+    // checks that every separator lies above its left subtree and at or below its right one, counting the separators
+    // and those shorter than a full key.
+    static void assertSeparators(BPlusTree.Node node, String low, String high, int[] separators) {
+        if (node.isLeafNode()) {
+            for (BPlusTree.KeyData keyData : node.getKeyDataList()) {
+                assertTrue(low == null || keyData.getKey().compareTo(low) >= 0);
+                assertTrue(high == null || keyData.getKey().compareTo(high) < 0);
+            }
+            return;
+        }
+        List<String> keys = node.getKeys();
+        for (int i = 0; i <= keys.size(); i++) {
+            if (i < keys.size()) {
+                separators[0]++;
+                if (!keys.get(i).endsWith("/suffix")) {
+                    separators[1]++;
+                }
+            }
+            assertSeparators(node.getChild(i), i == 0 ? low : keys.get(i - 1), i == keys.size() ? high : keys.get(i),
+                    separators);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapBTreeTest {
+    // checks key order, bounds and counts of every node and that all leaves are at the same depth. returns the
+    // height and adds the nodes it saw to nodeCount.
+    static int validate(OffHeapBTree bTree, long node, Long low, Long high, long[] nodeCount) {
+        nodeCount[0]++;
+        int keyCount = bTree.getKeyCount(node);
+        if (node != bTree.getRoot()) {
+            assertTrue(keyCount >= bTree.getLowerThreshold());
+        }
+        assertTrue(keyCount <= bTree.getHigherThreshold());
+        for (int i = 0; i < keyCount; i++) {
+            long key = bTree.getKey(node, i);
+            assertTrue(low == null || key > low);
+            assertTrue(high == null || key < high);
+            assertTrue(i == 0 || key > bTree.getKey(node, i - 1));
+        }
+        if (bTree.isLeafNode(node)) {
+            return 1;
+        }
+
+        int height = -1;
+        for (int i = 0; i <= keyCount; i++) {
+            // boxed, or the ternaries would unbox a null bound.
+            Long childLow = i == 0 ? low : Long.valueOf(bTree.getKey(node, i - 1));
+            Long childHigh = i == keyCount ? high : Long.valueOf(bTree.getKey(node, i));
+            int childHeight = validate(bTree, bTree.getChild(node, i), childLow, childHigh, nodeCount);
+            assertTrue(height < 0 || childHeight == height);
+            height = childHeight;
+        }
+        return height + 1;
+    }
+
+    // the tree's shape, and every block the arena has handed out is a node of the tree.
+    static void validate(OffHeapBTree bTree) {
+        long[] nodeCount = new long[1];
+        if (bTree.getRoot() != OffHeapBTree.NO_NODE) {
+            validate(bTree, bTree.getRoot(), null, null, nodeCount);
+        }
+        assertEquals(nodeCount[0], bTree.getArena().getBlockCount());
+    }
+
+    static void assertScan(TreeMap<Long, Long> expected, OffHeapBTree bTree, long fromKey, long toKey) {
+        List<Long> entries = new ArrayList<>();
+        OffHeapBTree.Cursor cursor = bTree.scan(fromKey, toKey);
+        while (cursor.hasNext()) {
+            entries.add(cursor.next());
+            entries.add(cursor.getValue());
+        }
+
+        List<Long> expectedEntries = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : expected.subMap(fromKey, true, toKey, true).entrySet()) {
+            expectedEntries.add(entry.getKey());
+            expectedEntries.add(entry.getValue());
+        }
+        assertEquals(expectedEntries, entries);
+    }
+
+    @Test
+    void randomOperationsMatchATreeMap() {
+        // nodes of 88 bytes in 512 byte slabs, so a few thousand keys spread over hundreds of slabs.
+        try (OffHeapBTree bTree = new OffHeapBTree(2, 9)) {
+            TreeMap<Long, Long> expected = new TreeMap<>();
+            Random random = new Random(7);
+            for (int i = 0; i < 50000; i++) {
+                // negative keys too, they are ordered as signed longs.
+                long key = random.nextInt(4000) - 2000;
+                int operation = random.nextInt(10);
+                if (operation < 5) {
+                    bTree.insert(key, i);
+                    expected.put(key, (long) i);
+                } else if (operation < 8) {
+                    assertEquals(expected.remove(key) != null, bTree.delete(key));
+                } else {
+                    assertEquals(expected.getOrDefault(key, -1L), bTree.get(key, -1));
+                    assertEquals(expected.containsKey(key), bTree.containsKey(key));
+                }
+                assertEquals(expected.size(), bTree.getSize());
+                if (i % 5000 == 0) {
+                    validate(bTree);
+                    long fromKey = random.nextInt(4000) - 2000;
+                    assertScan(expected, bTree, fromKey, fromKey + random.nextInt(500));
+                }
+            }
+            validate(bTree);
+            assertScan(expected, bTree, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertTrue(bTree.getArena().getSlabs().size() > 100);
+
+            // emptying the tree and filling it again up to as many nodes reuses the freed blocks instead of taking
+            // new slabs.
+            long blockCount = bTree.getArena().getBlockCount();
+            for (Long key : new ArrayList<>(expected.keySet())) {
+                assertTrue(bTree.delete(key));
+                expected.remove(key);
+            }
+            validate(bTree);
+            assertEquals(0, bTree.getSize());
+            assertFalse(bTree.scan().hasNext());
+            int slabCount = bTree.getArena().getSlabs().size();
+            for (long key = 0; bTree.getArena().getBlockCount() < blockCount; key++) {
+                bTree.insert(key, -key);
+                expected.put(key, -key);
+            }
+            validate(bTree);
+            assertScan(expected, bTree, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(slabCount, bTree.getArena().getSlabs().size());
+        }
+    }
+
+    @Test
+    void theTreeCannotBeUsedAfterClose() {
+        OffHeapBTree bTree = new OffHeapBTree(3, 10);
+        for (long key = 0; key < 1000; key++) {
+            bTree.insert(key, key);
+        }
+        OffHeapBTree.Cursor cursor = bTree.scan();
+        assertEquals(0, cursor.next());
+        bTree.close();
+
+        assertEquals(0, bTree.getSize());
+        assertTrue(bTree.getArena().getSlabs().isEmpty());
+        assertThrows(IllegalStateException.class, () -> bTree.get(1, -1));
+        assertThrows(IllegalStateException.class, () -> bTree.containsKey(1));
+        assertThrows(IllegalStateException.class, () -> bTree.insert(1, 1));
+        assertThrows(IllegalStateException.class, () -> bTree.delete(1));
+        assertThrows(IllegalStateException.class, () -> bTree.scan());
+        assertThrows(IllegalStateException.class, cursor::next);
+    }
+}
@@ -0,0 +1,125 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedBTreeTest {
+    // checks key order, bounds and counts of every node and that all leaves are at the same depth, and collects the
+    // entries in order. returns the height.
+    static int validate(PackedBTree bTree, PackedBTree.Node node, byte[] low, byte[] high,
+                        List<Map.Entry<String, String>> entries) {
+        int keyCount = node.getKeyCount();
+        if (node != bTree.getRoot()) {
+            assertTrue(keyCount >= bTree.getLowerThreshold());
+        }
+        assertTrue(keyCount <= bTree.getHigherThreshold());
+        assertTrue(node.getUsedBytes() <= node.getArena().length);
+
+        int height = -1;
+        for (int i = 0; i <= keyCount; i++) {
+            if (!node.isLeafNode()) {
+                int childHeight = validate(bTree, node.getChild(i), i == 0 ? low : node.getKey(i - 1),
+                        i == keyCount ? high : node.getKey(i), entries);
+                assertTrue(height < 0 || childHeight == height);
+                height = childHeight;
+            }
+            if (i < keyCount) {
+                byte[] key = node.getKey(i);
+                assertTrue(low == null || Arrays.compareUnsigned(key, low) > 0);
+                assertTrue(high == null || Arrays.compareUnsigned(key, high) < 0);
+                assertTrue(i == 0 || Arrays.compareUnsigned(key, node.getKey(i - 1)) > 0);
+                entries.add(Map.entry(new String(key, StandardCharsets.UTF_8),
+                        new String(node.getValue(i), StandardCharsets.UTF_8)));
+            }
+        }
+        if (node.isLeafNode()) {
+            assertNull(node.getChildNodes());
+            return 1;
+        }
+        // the slots past the last child are cleared, so dropped nodes are not held on to.
+        for (int i = keyCount + 1; i < node.getChildNodes().length; i++) {
+            assertNull(node.getChildNodes()[i]);
+        }
+        return height + 1;
+    }
+
+    static void assertContents(TreeMap<String, String> expected, PackedBTree bTree) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>();
+        if (bTree.getRoot() != null) {
+            validate(bTree, bTree.getRoot(), null, null, entries);
+        }
+        assertEquals(new ArrayList<>(expected.entrySet()), entries);
+    }
+
+    // keys ordered the way the tree orders them, by their UTF-8 bytes.
+    static TreeMap<String, String> newExpected() {
+        return new TreeMap<>((a, b) -> Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8),
+                b.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void randomOperationsMatchATreeMap() {
+        for (int thresholdCount : new int[]{2, 3, 8}) {
+            PackedBTree bTree = new PackedBTree(thresholdCount);
+            TreeMap<String, String> expected = newExpected();
+            Random random = new Random(thresholdCount);
+            for (int i = 0; i < 30000; i++) {
+                String key = "key" + random.nextInt(3000);
+                int operation = random.nextInt(10);
+                if (operation < 5) {
+                    // empty values up to ones larger than a node's initial arena, so arenas grow.
+                    String data = "v".repeat(random.nextInt(4) == 0 ? random.nextInt(600) : random.nextInt(8));
+                    bTree.insert(key, data);
+                    expected.put(key, data);
+                } else if (operation < 8) {
+                    assertEquals(expected.remove(key) != null, bTree.delete(key));
+                } else {
+                    assertEquals(expected.get(key), bTree.get(key));
+                    assertEquals(expected.containsKey(key), bTree.containsKey(key));
+                }
+                if (i % 3000 == 0) {
+                    assertContents(expected, bTree);
+                }
+            }
+            assertContents(expected, bTree);
+
+            for (String key : new ArrayList<>(expected.keySet())) {
+                assertTrue(bTree.delete(key));
+                expected.remove(key);
+            }
+            assertContents(expected, bTree);
+            assertFalse(bTree.delete("key0"));
+        }
+    }
+
+    @Test
+    void keysAreOrderedByCodePoint() {
+        PackedBTree bTree = new PackedBTree(2);
+        // U+FFFD sorts before U+1F600 by code point, though String.compareTo puts the surrogate pair first.
+        List<String> keys = List.of("a", "ab", "\u00e9", "\uffef", "\ufffd", "\ud83d\ude00", "\ud83d\ude00a",
+                "\ud800\udc00", "\u4e2d", "");
+        assertTrue("\ud83d\ude00".compareTo("\ufffd") < 0);
+
+        TreeMap<String, String> expected = newExpected();
+        for (String key : keys) {
+            bTree.insert(key, key + key);
+            expected.put(key, key + key);
+        }
+        assertContents(expected, bTree);
+        assertEquals(List.of("", "a", "ab", "\u00e9", "\u4e2d", "\uffef", "\ufffd", "\ud800\udc00", "\ud83d\ude00",
+                "\ud83d\ude00a"), new ArrayList<>(expected.keySet()));
+
+        for (String key : keys) {
+            assertEquals(key + key, bTree.get(key));
+        }
+        assertTrue(bTree.delete("\ud83d\ude00"));
+        assertFalse(bTree.containsKey("\ud83d\ude00"));
+        assertEquals("\ud83d\ude00a\ud83d\ude00a", bTree.get("\ud83d\ude00a"));
+        expected.remove("\ud83d\ude00");
+        assertContents(expected, bTree);
+    }
+}
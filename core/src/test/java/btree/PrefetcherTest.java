@@ -0,0 +1,106 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefetcherTest {
+    @TempDir
+    Path dir;
+
+    // a root and its leaves, written out through a pool so small that most of the leaves are only on disk.
+    BTreeDisk<String, String> createTree(TreeMap<String, String> expected) throws IOException {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 16, 4096);
+        bTreeDisk.setBufferPool(new BufferPool<>(4));
+        for (int i = 0; i < 500; i++) {
+            String key = String.format("key%04d", i);
+            bTreeDisk.insert(key, "data" + i);
+            expected.put(key, "data" + i);
+        }
+        bTreeDisk.serializeToDisk();
+
+        return bTreeDisk;
+    }
+
+    @Test
+    void aPrefetchedPageIsTheOneFaultUses() throws Exception {
+        TreeMap<String, String> expected = new TreeMap<>();
+        BTreeDisk<String, String> bTreeDisk = createTree(expected);
+        bTreeDisk.enablePrefetch(2, 1);
+        BTreeDisk<String, String>.Node leaf = bTreeDisk.getRoot().getChild(0);
+        assertFalse(leaf.isInMemory());
+
+        bTreeDisk.prefetch(leaf);
+        Prefetcher prefetcher = bTreeDisk.getPrefetcher();
+        assertEquals(1, prefetcher.getPendingCount());
+        prefetcher.getPending().get(leaf.getId()).get(10, TimeUnit.SECONDS);
+
+        // with the read done, the page on disk is wiped. a fault that read it again would find no node there.
+        PageStore pageStore = bTreeDisk.getPageStore();
+        pageStore.writePage(leaf.getId(), ByteBuffer.allocate(pageStore.getPageSize()));
+        long bytesRead = pageStore.getMetrics().getBytesRead().sum();
+
+        assertEquals("data0", bTreeDisk.get("key0000"));
+        assertTrue(leaf.isInMemory());
+        assertTrue(leaf.isLeafNode());
+        String firstSeparator = bTreeDisk.getRoot().getKeyData(0).getKey();
+        assertEquals(expected.headMap(firstSeparator).size(), leaf.getKeyDataListSize());
+        assertEquals(bytesRead, pageStore.getMetrics().getBytesRead().sum());
+        // taken, so it is no longer held.
+        assertEquals(0, prefetcher.getPendingCount());
+        bTreeDisk.close();
+    }
+
+    @Test
+    void aFailedReadSurfacesFromTake() throws Exception {
+        BTreeDisk<String, String> bTreeDisk = createTree(new TreeMap<>());
+        PageStore pageStore = bTreeDisk.getPageStore();
+        try (Prefetcher prefetcher = new Prefetcher(pageStore, 1, 4)) {
+            long missingPage = pageStore.getFilePageCount() + 100;
+            prefetcher.prefetch(missingPage);
+            IOException e = assertThrows(IOException.class, () -> prefetcher.take(missingPage));
+            assertTrue(e.getMessage().contains("beyond the end"));
+            // the failed read is gone, asking again finds nothing pending.
+            assertNull(prefetcher.take(missingPage));
+        }
+        bTreeDisk.close();
+    }
+
+    @Test
+    void theOldestReadsAreDroppedAtMaxPending() throws Exception {
+        TreeMap<String, String> expected = new TreeMap<>();
+        BTreeDisk<String, String> bTreeDisk = createTree(expected);
+        List<Long> pageIds = new ArrayList<>();
+        for (BTreeDisk<String, String>.Node child : bTreeDisk.getRoot().getChildNodes()) {
+            pageIds.add(child.getId());
+        }
+        assertTrue(pageIds.size() > 6);
+
+        try (Prefetcher prefetcher = new Prefetcher(bTreeDisk.getPageStore(), 2, 4)) {
+            for (int i = 0; i < 6; i++) {
+                prefetcher.prefetch(pageIds.get(i));
+                // asking again for a pending page neither adds a read nor makes it any newer.
+                prefetcher.prefetch(pageIds.get(Math.max(0, i - 3)));
+                assertEquals(Math.min(i + 1, 4), prefetcher.getPendingCount());
+            }
+            assertEquals(pageIds.subList(2, 6), new ArrayList<>(prefetcher.getPending().keySet()));
+
+            assertNull(prefetcher.take(pageIds.get(0)));
+            assertNull(prefetcher.take(pageIds.get(1)));
+            for (int i = 2; i < 6; i++) {
+                NodePage page = prefetcher.take(pageIds.get(i));
+                assertNotNull(page);
+                assertTrue(page.getKeyCount() > 0);
+            }
+            assertEquals(0, prefetcher.getPendingCount());
+        }
+        bTreeDisk.close();
+    }
+}
@@ -0,0 +1,126 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedBTreeTest {
+    static List<ShardedBTree.Shard<String, String>> newShards(List<BTree<String, String>> trees) {
+        List<ShardedBTree.Shard<String, String>> shards = new ArrayList<>();
+        for (BTree<String, String> tree : trees) {
+            shards.add(ShardedBTree.shardOf(tree));
+        }
+        return shards;
+    }
+
+    static List<String> keysOf(BTree<String, String> tree) {
+        List<String> keys = new ArrayList<>();
+        for (BTree<String, String>.Cursor cursor = tree.scan(null, null); cursor.hasNext(); ) {
+            keys.add(cursor.next().getKey());
+        }
+        return keys;
+    }
+
+    static void assertContents(TreeMap<String, String> expected, ShardedBTree<String, String> shardedBTree)
+            throws IOException {
+        List<String> keys = new ArrayList<>();
+        try (ShardedBTree<String, String>.Cursor cursor = shardedBTree.scan(null, null)) {
+            while (cursor.hasNext()) {
+                ShardedBTree.KeyData<String, String> keyData = cursor.next();
+                keys.add(keyData.getKey());
+                assertEquals(expected.get(keyData.getKey()), keyData.getData());
+            }
+        }
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), shardedBTree.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    void rebalanceMovesHalfOfAHotShard() throws IOException {
+        // only a shard with more than twice its share of the writes is hot, so there have to be more than two.
+        List<BTree<String, String>> trees = List.of(new BTree<>(3), new BTree<>(3), new BTree<>(3));
+        ShardedBTree<String, String> shardedBTree = ShardedBTree.byRange(newShards(trees),
+                List.of("key5000", "key8000"), Comparator.naturalOrder());
+        TreeMap<String, String> expected = new TreeMap<>();
+        // more than a chunk of keys moves.
+        for (int i = 0; i < 4000; i++) {
+            String key = String.format("key%04d", i);
+            shardedBTree.insert(key, "data" + i);
+            expected.put(key, "data" + i);
+        }
+
+        assertTrue(shardedBTree.rebalance());
+        assertEquals(List.of("key2000", "key8000"), shardedBTree.getSplitKeys());
+        assertEquals(new ArrayList<>(expected.headMap("key2000").keySet()), keysOf(trees.get(0)));
+        assertEquals(new ArrayList<>(expected.tailMap("key2000").keySet()), keysOf(trees.get(1)));
+        assertContents(expected, shardedBTree);
+        // the last shard never got a key, so its tree has no root yet.
+        assertNull(trees.get(2).getRoot());
+        assertFalse(shardedBTree.delete("key9000"));
+    }
+
+    @Test
+    void reopeningWithOlderSplitKeysMovesTheKeysBack() throws IOException {
+        List<BTree<String, String>> trees = List.of(new BTree<>(3), new BTree<>(3), new BTree<>(3));
+        List<String> originalSplitKeys = List.of("key5000", "key8000");
+        ShardedBTree<String, String> shardedBTree = ShardedBTree.byRange(newShards(trees), originalSplitKeys,
+                Comparator.naturalOrder());
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 4000; i++) {
+            String key = String.format("key%04d", i);
+            shardedBTree.insert(key, "data" + i);
+            expected.put(key, "data" + i);
+        }
+        assertTrue(shardedBTree.rebalance());
+        assertNotEquals(originalSplitKeys, shardedBTree.getSplitKeys());
+
+        // the split keys the rebalance published were not kept.
+        ShardedBTree<String, String> reopened = ShardedBTree.byRange(newShards(trees), originalSplitKeys,
+                Comparator.naturalOrder());
+        assertEquals(new ArrayList<>(expected.keySet()), keysOf(trees.get(0)));
+        assertTrue(keysOf(trees.get(1)).isEmpty());
+        assertContents(expected, reopened);
+    }
+
+    @Test
+    void reopeningAfterACutShortMoveDropsTheLeftoverCopies() throws IOException {
+        List<BTree<String, String>> trees = List.of(new BTree<>(3), new BTree<>(3));
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = String.format("key%04d", i);
+            trees.get(0).insert(key, "data" + i);
+            expected.put(key, "data" + i);
+        }
+        // a move of the keys from key2000 up that got as far as copying key2500, deleting the ones before it.
+        for (int i = 2000; i <= 2500; i++) {
+            String key = String.format("key%04d", i);
+            trees.get(1).insert(key, "data" + i);
+            if (i < 2500) {
+                trees.get(0).delete(key);
+            }
+        }
+
+        for (List<String> splitKeys : List.of(List.of("key9999"), List.of("key2000"))) {
+            List<BTree<String, String>> copies = List.of(copyOf(trees.get(0)), copyOf(trees.get(1)));
+            ShardedBTree<String, String> reopened = ShardedBTree.byRange(newShards(copies), splitKeys,
+                    Comparator.naturalOrder());
+            assertEquals(new ArrayList<>(expected.headMap(splitKeys.get(0)).keySet()), keysOf(copies.get(0)));
+            assertEquals(new ArrayList<>(expected.tailMap(splitKeys.get(0)).keySet()), keysOf(copies.get(1)));
+            assertContents(expected, reopened);
+        }
+    }
+
+    static BTree<String, String> copyOf(BTree<String, String> tree) {
+        BTree<String, String> copy = new BTree<>(3);
+        for (BTree<String, String>.Cursor cursor = tree.scan(null, null); cursor.hasNext(); ) {
+            BTree.KeyData<String, String> keyData = cursor.next();
+            copy.insert(keyData.getKey(), keyData.getData());
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,177 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    // applies random inserts and deletes to the tree and the reference map alike.
+    static void applyRandomOperations(BTreeDisk<String, String> bTreeDisk, TreeMap<String, String> expected,
+                                      long seed, int count) throws IOException {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            String key = String.format("key%05d", random.nextInt(5000));
+            if (random.nextInt(3) > 0) {
+                bTreeDisk.insert(key, "data" + i);
+                expected.put(key, "data" + i);
+            } else {
+                assertEquals(expected.remove(key) != null, bTreeDisk.delete(key));
+            }
+        }
+    }
+
+    static void assertContents(TreeMap<String, String> expected, BTreeDisk<String, String> bTreeDisk)
+            throws IOException {
+        Map<String, String> actual = new LinkedHashMap<>();
+        try (BTreeDisk<String, String>.Cursor cursor = bTreeDisk.scan(null, null)) {
+            while (cursor.hasNext()) {
+                BTreeDisk.KeyData<String, String> keyData = cursor.next();
+                actual.put(keyData.getKey(), keyData.getData());
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void committedOperationsSurviveACrash() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        // a small pool, so the run checkpoints and resets the log a number of times along the way.
+        bTreeDisk.setBufferPool(new BufferPool<>(16));
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.EVERY_OPERATION, 0);
+        TreeMap<String, String> expected = new TreeMap<>();
+        applyRandomOperations(bTreeDisk, expected, 1, 20000);
+        // closing without a checkpoint leaves the data file as a crash would.
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> recovered = BTreeDisk.deserializeFromDisk(dataFile);
+        assertContents(expected, recovered);
+        recovered.close();
+    }
+
+    @Test
+    void aReplayLargerThanTheBufferPoolIsCheckpointedOnceAtTheEnd() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 2, 4096);
+        // the pool holds every node, so the whole run stays in the log.
+        bTreeDisk.setBufferPool(new BufferPool<>(1 << 16));
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.OS_MANAGED, 0);
+        TreeMap<String, String> expected = new TreeMap<>();
+        applyRandomOperations(bTreeDisk, expected, 2, 30000);
+        bTreeDisk.close();
+        long logSize = Files.size(WriteAheadLog.getLogFile(dataFile));
+
+        // the replay dirties more nodes than the recovered tree's pool holds, which must not reset the log early.
+        BTreeDisk<String, String> recovered = BTreeDisk.deserializeFromDisk(dataFile, Comparator.naturalOrder(),
+                Codec.STRING, Codec.STRING, WriteAheadLog.SyncPolicy.INTERVAL, 5);
+        // every split made a node, all of them dirty until the checkpoint at the end.
+        assertTrue(recovered.getMetrics().getSnapshot().getSplits() > BufferPool.DEFAULT_CAPACITY);
+        assertTrue(logSize > 0);
+        assertEquals(0, Files.size(WriteAheadLog.getLogFile(dataFile)));
+        assertEquals(WriteAheadLog.SyncPolicy.INTERVAL, recovered.getWriteAheadLog().getSyncPolicy());
+        assertContents(expected, recovered);
+
+        // the recovered tree logs as before, and recovers again.
+        applyRandomOperations(recovered, expected, 3, 2000);
+        recovered.close();
+        BTreeDisk<String, String> again = BTreeDisk.deserializeFromDisk(dataFile);
+        assertContents(expected, again);
+        again.close();
+    }
+
+    @Test
+    void aCheckpointCutShortIsFinishedOnRecovery() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.EVERY_OPERATION, 0);
+        TreeMap<String, String> expected = new TreeMap<>();
+        applyRandomOperations(bTreeDisk, expected, 4, 5000);
+
+        // the checkpoint is logged, but only the first of its page writes reaches the data file.
+        PageStore pageStore = bTreeDisk.getPageStore();
+        bTreeDisk.getMetadata().setRootId(bTreeDisk.getRoot().getId());
+        pageStore.beginBatch();
+        for (BTreeDisk<String, String>.Node node : bTreeDisk.getBufferPool().getDirtyNodes()) {
+            node.serializeToDisk();
+        }
+        pageStore.flush();
+        List<PageStore.PendingWrite> pendingWrites = pageStore.endBatch();
+        assertTrue(pendingWrites.size() > 1);
+        bTreeDisk.getWriteAheadLog().logCheckpoint(pendingWrites);
+        PageStore.applyWrites(pageStore.getChannel(), pendingWrites.subList(0, 1));
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> recovered = BTreeDisk.deserializeFromDisk(dataFile);
+        assertContents(expected, recovered);
+        recovered.close();
+    }
+
+    @Test
+    void aTornRecordEndsTheLog() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.EVERY_OPERATION, 0);
+        bTreeDisk.insert("a", "1");
+        bTreeDisk.insert("b", "2");
+        bTreeDisk.close();
+
+        // half of a third record, as a crash in the middle of writing it would leave.
+        Path logFile = WriteAheadLog.getLogFile(dataFile);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(java.nio.ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2}));
+        }
+
+        BTreeDisk<String, String> recovered = BTreeDisk.deserializeFromDisk(dataFile);
+        assertEquals("1", recovered.get("a"));
+        assertEquals("2", recovered.get("b"));
+        recovered.insert("c", "3");
+        recovered.close();
+        BTreeDisk<String, String> again = BTreeDisk.deserializeFromDisk(dataFile);
+        assertEquals("3", again.get("c"));
+        again.close();
+    }
+
+    @Test
+    void aFailedWriteFailsEveryCommitAfterIt() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.EVERY_OPERATION, 0);
+        bTreeDisk.insert("a", "1");
+
+        // the record after a failed write could only be written behind a hole, so the log refuses it.
+        WriteAheadLog writeAheadLog = bTreeDisk.getWriteAheadLog();
+        writeAheadLog.getChannel().close();
+        assertThrows(IOException.class, () -> bTreeDisk.insert("b", "2"));
+        assertNotNull(writeAheadLog.getFailure());
+        assertThrows(IOException.class, () -> writeAheadLog.logInsert(new byte[]{1}, new byte[]{2}));
+        assertThrows(IOException.class, () -> bTreeDisk.insert("c", "3"));
+        assertThrows(IOException.class, bTreeDisk::serializeToDisk);
+    }
+
+    @Test
+    void aFailedBackgroundSyncFailsTheNextCommit() throws Exception {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.INTERVAL, 1);
+        WriteAheadLog writeAheadLog = bTreeDisk.getWriteAheadLog();
+        writeAheadLog.logInsert(new byte[]{1}, new byte[]{2});
+        writeAheadLog.getChannel().close();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writeAheadLog.getFailure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertNotNull(writeAheadLog.getFailure());
+        assertThrows(IOException.class, () -> bTreeDisk.insert("a", "1"));
+        assertThrows(IOException.class, writeAheadLog::sync);
+    }
+}
@@ -0,0 +1,77 @@
+package btree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBufferTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void bufferedWritesSurviveACrashWhileFlushesCheckpoint() throws IOException {
+        Path dataFile = dir.resolve("btree.data");
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dataFile, 3, 4096);
+        // the pool is small enough that applying a full buffer goes over it, which checkpoints after the flush.
+        bTreeDisk.setBufferPool(new BufferPool<>(16));
+        bTreeDisk.enableWriteAheadLog(WriteAheadLog.SyncPolicy.EVERY_OPERATION, 0);
+        bTreeDisk.enableWriteBuffer(500);
+        TreeMap<String, String> expected = new TreeMap<>();
+        WriteAheadLogTest.applyRandomOperations(bTreeDisk, expected, 5, 20000);
+        assertFalse(bTreeDisk.getWriteBuffer().isEmpty());
+        bTreeDisk.close();
+
+        BTreeDisk<String, String> recovered = BTreeDisk.deserializeFromDisk(dataFile);
+        WriteAheadLogTest.assertContents(expected, recovered);
+        recovered.close();
+    }
+
+    @Test
+    void readsSeeBufferedWrites() throws IOException {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        bTreeDisk.enableWriteBuffer(1000);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            bTreeDisk.insert("key" + i, "data" + i);
+            expected.put("key" + i, "data" + i);
+        }
+        bTreeDisk.serializeToDisk();
+        assertTrue(bTreeDisk.getWriteBuffer().isEmpty());
+
+        // these stay in the buffer, as it is far from full.
+        bTreeDisk.insert("key5", "updated");
+        expected.put("key5", "updated");
+        assertTrue(bTreeDisk.delete("key6"));
+        expected.remove("key6");
+        assertFalse(bTreeDisk.delete("missing"));
+        bTreeDisk.insert("new", "data");
+        expected.put("new", "data");
+        assertEquals(3, bTreeDisk.getWriteBuffer().size());
+
+        assertEquals("updated", bTreeDisk.get("key5"));
+        assertNull(bTreeDisk.get("key6"));
+        assertEquals(Arrays.asList("updated", null, "data"), bTreeDisk.getAll(List.of("key5", "key6", "new")));
+        // a scan applies the buffer to the tree first.
+        WriteAheadLogTest.assertContents(expected, bTreeDisk);
+        assertTrue(bTreeDisk.getWriteBuffer().isEmpty());
+        bTreeDisk.close();
+    }
+
+    @Test
+    void nullValuesAreRefused() throws IOException {
+        BTreeDisk<String, String> bTreeDisk = BTreeDisk.create(dir.resolve("btree.data"), 3, 4096);
+        bTreeDisk.enableWriteBuffer(1000);
+        bTreeDisk.insert("key", "data");
+
+        assertThrows(IllegalArgumentException.class, () -> bTreeDisk.insert("key", null));
+        assertThrows(IllegalArgumentException.class,
+                () -> bTreeDisk.putAll(List.of(new BTreeDisk.KeyData<>("key", null))));
+        assertEquals("data", bTreeDisk.get("key"));
+        bTreeDisk.close();
+    }
+}